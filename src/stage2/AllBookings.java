@@ -1,28 +1,33 @@
 package stage2;
 
 import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
 
 //Manages booking details using a HashMap.
 public class AllBookings {
-    private HashMap<String, BookingDetails> bookings;
+    private ConcurrentHashMap<String, BookingDetails> bookings; // Concurrent so late additions are safe while the simulation reads
     private int numOfBookings;
+    private BookingArchive archive; // On-disk tier for finished bookings, null to keep everything in memory
+    private static final int BOOKING_BYTES = 270; // A booking with its strings and map entry, measured on generated data
 
 
     //Initializes the collection for booking details.
     public AllBookings() {
-        bookings = new HashMap<>();
+        bookings = new ConcurrentHashMap<>();
         numOfBookings = 0;
     }
 
 
     //Adds a booking to the collection.
-    public boolean addBooking(BookingDetails bookingDetails) {
+    public synchronized boolean addBooking(BookingDetails bookingDetails) {
         // Check for blank reference
         if (bookingDetails.getReference().trim().isEmpty()) {
             throw new IllegalStateException("Blank booking reference not allowed.");
         }
         // Check for duplicate reference
-        if (bookings.containsKey(bookingDetails.getReference())) {
+        if (bookings.containsKey(bookingDetails.getReference())
+                || (archive != null && archive.contains(bookingDetails.getReference()))) {
             throw new IllegalStateException("Duplicate booking reference.");
         }
         bookings.put(bookingDetails.getReference(), bookingDetails);
@@ -35,7 +40,48 @@ public class AllBookings {
         if (reference.trim().isEmpty()) {
             throw new IllegalArgumentException("Reference code cannot be empty.");
         }
-        return bookings.get(reference);
+        BookingDetails booking = bookings.get(reference);
+        if (booking == null && archive != null) {
+            booking = archive.load(reference); // Finished bookings are reloaded from disk as read-only copies
+        }
+        return booking;
+    }
+
+    //Moves finished bookings to the given archive as they are retired.
+    public synchronized void spillTo(BookingArchive archive) {
+        this.archive = archive;
+    }
+
+    //Moves a booking that will not change again, e.g. once checked in, out of memory. Returns false if it was not held live.
+    public synchronized boolean retire(BookingDetails bookingDetails) {
+        if (archive == null || !bookings.remove(bookingDetails.getReference(), bookingDetails)) {
+            return false;
+        }
+        archive.spill(bookingDetails);
+        return true;
+    }
+
+    //Drops a booking from memory, e.g. once its day of a multi-day run is over. With an archive it is spilled there instead.
+    public synchronized boolean release(BookingDetails bookingDetails) {
+        if (archive != null) {
+            return retire(bookingDetails);
+        }
+        return bookings.remove(bookingDetails.getReference(), bookingDetails);
+    }
+
+    //Returns the number of bookings still held in memory.
+    public int getLiveBookingCount() {
+        return bookings.size();
+    }
+
+    //Returns the estimated bytes held by the bookings still in memory.
+    public long estimateBytes() {
+        return (long) bookings.size() * BOOKING_BYTES;
+    }
+
+    //Returns the number of bookings moved to the archive.
+    public int getArchivedBookingCount() {
+        return archive == null ? 0 : archive.size();
     }
 
     //Returns the total number of bookings.
@@ -43,10 +89,16 @@ public class AllBookings {
         return numOfBookings;
     }
 
-    //Provides all booking details.
+    //Provides the booking details still held in memory; retired bookings are only reachable through streamBookings.
     public HashMap<String, BookingDetails> getAllBookings() {
         return new HashMap<>(bookings);
     }
+
+    //Streams every booking, live ones first and then those reloaded from the archive. Close the stream when done.
+    public Stream<BookingDetails> streamBookings() {
+        Stream<BookingDetails> live = getAllBookings().values().stream();
+        return archive == null ? live : Stream.concat(live, archive.stream());
+    }
 }
 
 
@@ -1,20 +1,22 @@
 package stage2;
 
 import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 //Manages a collection of flight objects, enabling the addition and retrieval of flights by their codes.
 public class AllFlights {
     private int numOfFlights;
-    private HashMap<String, FlightDetails> flights;
+    private volatile int version; // Changes whenever a flight is added, removed or rescheduled
+    private ConcurrentHashMap<String, FlightDetails> flights; // Concurrent so late additions are safe while the simulation reads
 
     //Initializes the storage for flight details.
     public AllFlights() {
         numOfFlights = 0;
-        flights = new HashMap<>();
+        flights = new ConcurrentHashMap<>();
     }
 
     //Adds a flight to the collection, identified by its flight code.
-    public boolean addFlight(FlightDetails flight) {
+    public synchronized boolean addFlight(FlightDetails flight) {
         String flightCode = flight.getFlightCode().trim();
         if (flightCode.isEmpty()) {
             throw new IllegalStateException("Flight code cannot be empty.");
@@ -24,6 +26,17 @@ public class AllFlights {
         }
         flights.put(flightCode, flight);
         numOfFlights++;
+        version++;
+        return true;
+    }
+
+    //Removes a flight, e.g. once its day of a multi-day run is over. Returns false if it was not held.
+    public synchronized boolean removeFlight(String flightCode) {
+        if (flights.remove(flightCode) == null) {
+            return false;
+        }
+        numOfFlights--;
+        version++;
         return true;
     }
 
@@ -35,6 +48,18 @@ public class AllFlights {
         return flights.get(code);
     }
 
+    //Moves a held flight to a new departure time.
+    public synchronized void reschedule(FlightDetails flight, int departureTime) {
+        flight.setDepartureTime(departureTime);
+        version++;
+    }
+
+    //Returns a number that changes whenever a flight is added, removed or rescheduled, so holders of derived data
+    //know to rebuild it.
+    public int getVersion() {
+        return version;
+    }
+
     //Gets the total number of flights in the collection.
     public int getTotalFlights() {
         return numOfFlights;
@@ -0,0 +1,203 @@
+package stage2;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Decides when each passenger arrives at the check-in queue.
+ * Implementations assign an arrival minute to every booking once, at load time, and the queue then
+ * consumes the resulting ArrivalSchedule in O(1) per arrival.
+ */
+public interface ArrivalProcess {
+
+    /**
+     * Assigns an arrival minute to each booking.
+     *
+     * @param bookings Bookings in a random order.
+     * @param times    Output array, same length as bookings; a negative time means the passenger never arrives.
+     * @param rnd      Random source for the process.
+     */
+    void assignTimes(BookingDetails[] bookings, int[] times, Random rnd);
+
+    /**
+     * Assigns arrival minutes for bookings whose day starts at the given minute, e.g. the second day of a
+     * multi-day run. By default the process times them from zero and the origin is added.
+     *
+     * @param bookings Bookings in a random order.
+     * @param times    Output array of absolute minutes, same length as bookings; negative means never.
+     * @param rnd      Random source for the process.
+     * @param origin   Simulation minute the bookings' day starts at.
+     */
+    default void assignTimes(BookingDetails[] bookings, int[] times, Random rnd, int origin) {
+        assignTimes(bookings, times, rnd);
+        for (int i = 0; i < times.length; i++) {
+            if (times[i] >= 0) times[i] += origin;
+        }
+    }
+
+    /**
+     * Returns the process for a share of the bookings, e.g. one partition of a distributed run, so that the shares
+     * together arrive at the rate of the whole. Processes that time each booking by itself are returned unchanged.
+     *
+     * @param share Fraction of the bookings, above 0 and at most 1.
+     * @return The process for the share.
+     */
+    default ArrivalProcess forShare(double share) {
+        return this;
+    }
+
+    /**
+     * Builds the arrival process named by the stage2.arrivals system property:
+     * "fixed" (default, 6 per minute), "poisson", "peaked" or "trace:path/to/arrivals.csv".
+     *
+     * @param flights Flights used by processes that depend on departure times.
+     * @return The configured arrival process.
+     */
+    static ArrivalProcess fromProperty(AllFlights flights) {
+        return fromSpec(System.getProperty("stage2.arrivals", "fixed"), flights);
+    }
+
+    /**
+     * Builds an arrival process from a name in the stage2.arrivals format; unknown names give fixed arrivals.
+     *
+     * @param spec    "fixed", "poisson", "peaked" or "trace:path/to/arrivals.csv".
+     * @param flights Flights used by processes that depend on departure times.
+     * @return The named arrival process.
+     */
+    static ArrivalProcess fromSpec(String spec, AllFlights flights) {
+        if (spec.equals("poisson")) {
+            return new Poisson(6);
+        } else if (spec.equals("peaked")) {
+            return new PeakedBeforeDeparture(flights, 90, 30);
+        } else if (spec.startsWith("trace:")) {
+            try {
+                return Trace.load(new File(spec.substring("trace:".length())));
+            } catch (IOException e) {
+                System.err.println("Failed to read arrival trace, using fixed arrivals: " + e.getMessage());
+            }
+        }
+        return new FixedRate(6);
+    }
+
+    // A fixed number of passengers joins the queue every minute, in random order.
+    // The rate may be fractional, e.g. 1.5 a minute for a quarter of a 6 a minute run.
+    class FixedRate implements ArrivalProcess {
+        private final double perMinute;
+
+        public FixedRate(double perMinute) {
+            this.perMinute = perMinute;
+        }
+
+        @Override
+        public void assignTimes(BookingDetails[] bookings, int[] times, Random rnd) {
+            for (int i = 0; i < times.length; i++) {
+                times[i] = (int) (i / perMinute);
+            }
+        }
+
+        @Override
+        public ArrivalProcess forShare(double share) {
+            return new FixedRate(perMinute * share);
+        }
+    }
+
+    // Arrivals form a Poisson process: exponential gaps with the given mean rate per minute.
+    class Poisson implements ArrivalProcess {
+        private final double ratePerMinute;
+
+        public Poisson(double ratePerMinute) {
+            this.ratePerMinute = ratePerMinute;
+        }
+
+        @Override
+        public void assignTimes(BookingDetails[] bookings, int[] times, Random rnd) {
+            double clock = 0;
+            for (int i = 0; i < times.length; i++) {
+                clock += -Math.log(1 - rnd.nextDouble()) / ratePerMinute;
+                times[i] = (int) clock;
+            }
+        }
+
+        @Override
+        public ArrivalProcess forShare(double share) {
+            return new Poisson(ratePerMinute * share);
+        }
+    }
+
+    // Each passenger arrives a normally distributed lead time before their flight departs.
+    // Flights are looked up when times are assigned, so flights loaded later in a run are found.
+    class PeakedBeforeDeparture implements ArrivalProcess {
+        private final AllFlights flights;
+        private final double meanLead, leadSd; // Minutes before departure
+
+        public PeakedBeforeDeparture(AllFlights flights, double meanLead, double leadSd) {
+            this.flights = flights;
+            this.meanLead = meanLead;
+            this.leadSd = leadSd;
+        }
+
+        @Override
+        public void assignTimes(BookingDetails[] bookings, int[] times, Random rnd) {
+            assignTimes(bookings, times, rnd, 0);
+        }
+
+        // Departure times are already absolute, so the origin is only the earliest arrival.
+        @Override
+        public void assignTimes(BookingDetails[] bookings, int[] times, Random rnd, int origin) {
+            for (int i = 0; i < bookings.length; i++) {
+                FlightDetails flight = flights.getFlight(bookings[i].getFlightCode());
+                if (flight == null) {
+                    times[i] = origin;
+                } else {
+                    double lead = Math.max(0, meanLead + leadSd * rnd.nextGaussian());
+                    times[i] = (int) Math.max(origin, flight.getDepartureTime() - lead);
+                }
+            }
+        }
+    }
+
+    // Replays recorded arrivals from a "reference,HH:MM" file; bookings missing from the trace never arrive.
+    class Trace implements ArrivalProcess {
+        private final Map<String, Integer> arrivals;
+
+        public Trace(Map<String, Integer> arrivals) {
+            this.arrivals = arrivals;
+        }
+
+        /**
+         * Reads a trace file with one "reference,HH:MM" line per arrival.
+         *
+         * @param file Trace file.
+         * @return Trace-driven arrival process.
+         * @throws IOException If the file cannot be read.
+         */
+        public static Trace load(File file) throws IOException {
+            Map<String, Integer> arrivals = new HashMap<>();
+            try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split(",");
+                    if (fields.length < 2) {
+                        continue;
+                    }
+                    String[] time = fields[1].trim().split(":");
+                    arrivals.put(fields[0].trim(), Integer.parseInt(time[0]) * 60 + Integer.parseInt(time[1]));
+                }
+            }
+            return new Trace(arrivals);
+        }
+
+        @Override
+        public void assignTimes(BookingDetails[] bookings, int[] times, Random rnd) {
+            for (int i = 0; i < bookings.length; i++) {
+                Integer time = arrivals.get(bookings[i].getReference());
+                times[i] = time == null ? -1 : time;
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package stage2;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+import java.util.function.UnaryOperator;
+
+/**
+ * Time-ordered arrival schedule built once when bookings are loaded, or once per day in a multi-day run.
+ * Bookings are shuffled and timed by an ArrivalProcess, then ordered by arrival minute with a counting sort,
+ * so building is O(n + minutes) and taking the next arrival is O(1).
+ */
+public class ArrivalSchedule {
+    private final BookingDetails[] bookings; // Bookings in arrival order
+    private final int[] times; // Arrival minute of each booking, non-decreasing
+    private int next; // Index of the next booking to arrive
+    private final UnaryOperator<BookingDetails> onArrival; // Applied to each booking as it arrives, null for none
+
+    /**
+     * Builds the schedule for the given bookings.
+     *
+     * @param source  Bookings to schedule.
+     * @param process Process deciding when each booking arrives.
+     * @param rnd     Random source for the shuffle and the process.
+     */
+    public ArrivalSchedule(Collection<BookingDetails> source, ArrivalProcess process, Random rnd) {
+        this(source, process, rnd, 0);
+    }
+
+    /**
+     * Builds the schedule for bookings whose day starts at the given minute.
+     *
+     * @param source  Bookings to schedule.
+     * @param process Process deciding when each booking arrives.
+     * @param rnd     Random source for the shuffle and the process.
+     * @param origin  First minute of the bookings' day; no booking arrives before it.
+     */
+    public ArrivalSchedule(Collection<BookingDetails> source, ArrivalProcess process, Random rnd, int origin) {
+        this.onArrival = null;
+        BookingDetails[] shuffled = source.toArray(new BookingDetails[0]);
+        for (int i = shuffled.length - 1; i > 0; i--) {
+            int j = rnd.nextInt(i + 1);
+            BookingDetails swap = shuffled[i];
+            shuffled[i] = shuffled[j];
+            shuffled[j] = swap;
+        }
+        int[] assigned = new int[shuffled.length];
+        process.assignTimes(shuffled, assigned, rnd, origin);
+        for (int i = 0; i < assigned.length; i++) {
+            if (assigned[i] >= 0) assigned[i] = Math.max(0, assigned[i] - origin); // Sort by minute within the day
+        }
+
+        // Counting sort by minute, stable so equal minutes keep their shuffled order
+        int maxTime = -1, count = 0;
+        for (int time : assigned) {
+            if (time >= 0) {
+                maxTime = Math.max(maxTime, time);
+                count++;
+            }
+        }
+        int[] start = new int[maxTime + 2];
+        for (int time : assigned) {
+            if (time >= 0) start[time + 1]++;
+        }
+        for (int t = 1; t < start.length; t++) {
+            start[t] += start[t - 1];
+        }
+        this.bookings = new BookingDetails[count];
+        this.times = new int[count];
+        for (int i = 0; i < shuffled.length; i++) {
+            int time = assigned[i];
+            if (time >= 0) {
+                int slot = start[time]++;
+                bookings[slot] = shuffled[i];
+                times[slot] = origin + time;
+            }
+        }
+    }
+
+    /**
+     * Copies the arrivals still to come, e.g. for a what-if branch. Only the remaining part of the two arrays is
+     * copied; each booking is passed through copyOnArrival as it arrives in the copy, so bookings are only copied
+     * once the branch reaches them. Call while holding the lock of the queue that owns the source.
+     *
+     * @param source        Schedule to copy.
+     * @param copyOnArrival Returns the booking to hand out in place of each arriving one.
+     */
+    public ArrivalSchedule(ArrivalSchedule source, UnaryOperator<BookingDetails> copyOnArrival) {
+        this.bookings = Arrays.copyOfRange(source.bookings, source.next, source.bookings.length);
+        this.times = Arrays.copyOfRange(source.times, source.next, source.times.length);
+        this.onArrival = copyOnArrival;
+    }
+
+    // Returns true if the next booking has arrived by the given minute.
+    public boolean hasArrival(int currentTime) {
+        return next < times.length && times[next] <= currentTime;
+    }
+
+    // Returns the next booking in arrival order and advances past it.
+    public BookingDetails takeNext() {
+        BookingDetails booking = bookings[next];
+        bookings[next++] = null; // Release the reference once the booking is in the queue
+        return onArrival == null ? booking : onArrival.apply(booking);
+    }
+
+    // Returns true once every scheduled booking has arrived.
+    public boolean isExhausted() {
+        return next >= times.length;
+    }
+
+    // Returns the number of bookings still to arrive.
+    public int remaining() {
+        return times.length - next;
+    }
+
+    // Estimated bytes held by the two arrays, which keep their full length until the schedule is dropped.
+    public long estimateBytes() {
+        return 64 + times.length * 12L;
+    }
+}
@@ -0,0 +1,62 @@
+package stage2;
+
+import java.util.Random;
+
+/**
+ * Compares per-bag cost of FlightDetails.checkBaggage against checkBaggageBatch.
+ * Usage: java stage2.BaggageBatchBenchmark [bags] [rounds], defaulting to 10,000,000 bags and 5 rounds.
+ * The first round of each method is treated as JIT warm-up and left out of the average.
+ */
+public class BaggageBatchBenchmark {
+    public static void main(String[] args) {
+        int bags = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        // Same ranges as the random baggage generated by DataLoader
+        Random rand = new Random(42);
+        float[] weights = new float[bags], lengths = new float[bags], heights = new float[bags], widths = new float[bags];
+        for (int i = 0; i < bags; i++) {
+            weights[i] = rand.nextFloat() * 59 + 1;
+            lengths[i] = rand.nextFloat() * 149 + 1;
+            heights[i] = rand.nextFloat() * 149 + 1;
+            widths[i] = rand.nextFloat() * 99 + 1;
+        }
+
+        long scalarTotal = 0, batchTotal = 0;
+        for (int round = 0; round < rounds; round++) {
+            FlightDetails scalarFlight = newFlight();
+            long start = System.nanoTime();
+            for (int i = 0; i < bags; i++) {
+                try {
+                    scalarFlight.checkBaggage(weights[i], lengths[i], heights[i], widths[i]);
+                } catch (FlightDetails.OverBaggageLimitException e) {
+                    // Fee already added to the flight total
+                }
+            }
+            long scalarTime = System.nanoTime() - start;
+
+            FlightDetails batchFlight = newFlight();
+            start = System.nanoTime();
+            FlightDetails.BaggageBatchResult result = batchFlight.checkBaggageBatch(weights, lengths, heights, widths);
+            long batchTime = System.nanoTime() - start;
+
+            System.out.printf("round %d: scalar %.2f ns/bag, batch %.2f ns/bag, fees %.0f vs %.0f (%d over limit)%n",
+                    round, (double) scalarTime / bags, (double) batchTime / bags,
+                    scalarFlight.getTotalExcessFees(), batchFlight.getTotalExcessFees(), result.getOverLimitCount());
+            if (round > 0) {
+                scalarTotal += scalarTime;
+                batchTotal += batchTime;
+            }
+        }
+        if (rounds > 1) {
+            double scalarAvg = (double) scalarTotal / (rounds - 1) / bags;
+            double batchAvg = (double) batchTotal / (rounds - 1) / bags;
+            System.out.printf("average: scalar %.2f ns/bag, batch %.2f ns/bag, speed-up %.1fx%n", scalarAvg, batchAvg, scalarAvg / batchAvg);
+        }
+    }
+
+    // Flight with the allowances used in TestData/Flight.csv.
+    private static FlightDetails newFlight() {
+        return new FlightDetails("BENCH1", "Bench", "Bench", 180, 23, 100, 100, 75, 35, 60);
+    }
+}
@@ -0,0 +1,285 @@
+package stage2;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * On-disk tier for finished bookings, so that the heap only holds passengers who are still active.
+ *
+ * Bookings are appended to a segment file as compact length-prefixed records. The in-memory index is an
+ * open-addressing table of reference hashes and segment offsets, about 12 bytes per booking instead of the
+ * booking object and its strings. Lookups probe the table and only read a record, to confirm the reference, when
+ * its hash matches; records still in the 64 KB write buffer are read from there, so a lookup never forces a
+ * flush. Full scans for reporting stream the segment sequentially.
+ */
+public class BookingArchive {
+    private final File segmentFile;
+    private final FileOutputStream out;
+    private final byte[] buffer = new byte[1 << 16]; // Records not yet written to the file
+    private int buffered;
+    private RandomAccessFile reader;
+    private long length; // Bytes written to the segment, including those still in the buffer
+    private int[] hashes = new int[1024];
+    private long[] offsets = new long[1024]; // Segment offset + 1 of each indexed record, 0 for an empty slot
+    private int count;
+
+    /**
+     * Creates an empty archive, replacing any segment file left by an earlier run.
+     *
+     * @param segmentFile File to spill bookings to.
+     * @throws IOException If the file cannot be created.
+     */
+    public BookingArchive(File segmentFile) throws IOException {
+        File directory = segmentFile.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create archive directory " + directory);
+        }
+        this.segmentFile = segmentFile;
+        segmentFile.deleteOnExit(); // Runs after the shutdown hooks that stream the archive for the report and history
+        this.out = new FileOutputStream(segmentFile);
+    }
+
+    /**
+     * Writes a booking to the segment and indexes it by reference. The caller drops its own reference afterwards.
+     *
+     * @param booking A booking that will not change again, e.g. one that has checked in.
+     */
+    public synchronized void spill(BookingDetails booking) {
+        byte[] record = encode(booking);
+        try {
+            if (buffered + 4 + record.length > buffer.length) {
+                flush();
+            }
+            if (4 + record.length > buffer.length) {
+                out.write(lengthPrefix(record.length)); // Too big to buffer, written straight through
+                out.write(record);
+            } else {
+                System.arraycopy(lengthPrefix(record.length), 0, buffer, buffered, 4);
+                System.arraycopy(record, 0, buffer, buffered + 4, record.length);
+                buffered += 4 + record.length;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to spill booking " + booking.getReference(), e);
+        }
+        index(booking.getReference().hashCode(), length);
+        length += 4 + record.length;
+    }
+
+    /**
+     * Reloads an archived booking. The result is a copy; changing it does not change the archive.
+     *
+     * @param reference Booking reference.
+     * @return The booking as it was when spilled, or null if it is not archived.
+     */
+    public synchronized BookingDetails load(String reference) {
+        int hash = reference.hashCode();
+        int mask = offsets.length - 1;
+        for (int slot = mix(hash) & mask; offsets[slot] != 0; slot = (slot + 1) & mask) {
+            if (hashes[slot] == hash) {
+                BookingDetails booking = read(offsets[slot] - 1);
+                if (booking.getReference().equals(reference)) {
+                    return booking;
+                }
+            }
+        }
+        return null;
+    }
+
+    // Returns true if a booking with the given reference has been archived. Most references have no matching
+    // hash in the table and are answered without reading a record.
+    public boolean contains(String reference) {
+        return load(reference) != null;
+    }
+
+    // Returns the number of archived bookings.
+    public synchronized int size() { return count; }
+
+    // Returns the size of the segment file in bytes.
+    public synchronized long getSegmentLength() { return length; }
+
+    /**
+     * Streams every booking archived so far, in spill order, reading the segment sequentially.
+     * Bookings spilled after the stream is created are not included. Close the stream to release the file.
+     *
+     * @return Stream of reloaded bookings.
+     */
+    public Stream<BookingDetails> stream() {
+        long end;
+        synchronized (this) {
+            flush();
+            end = length;
+        }
+        DataInputStream in;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(segmentFile), 1 << 16));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Spliterator<BookingDetails> records = new Spliterators.AbstractSpliterator<BookingDetails>(Long.MAX_VALUE,
+                Spliterator.ORDERED | Spliterator.NONNULL) {
+            private long position;
+
+            @Override
+            public boolean tryAdvance(Consumer<? super BookingDetails> action) {
+                if (position >= end) {
+                    return false;
+                }
+                try {
+                    byte[] record = new byte[in.readInt()];
+                    in.readFully(record);
+                    position += 4 + record.length;
+                    action.accept(decode(record));
+                    return true;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+        return StreamSupport.stream(records, false).onClose(() -> {
+            try {
+                in.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    // Closes the segment file and deletes it; the archive only lives as long as the run.
+    public synchronized void close() {
+        try {
+            out.close();
+            if (reader != null) reader.close();
+        } catch (IOException e) {
+            System.err.println("Failed to close booking archive: " + e.getMessage());
+        }
+        segmentFile.delete();
+    }
+
+    private void index(int hash, long offset) {
+        if ((count + 1) * 2 > offsets.length) {
+            grow();
+        }
+        int mask = offsets.length - 1;
+        int slot = mix(hash) & mask;
+        while (offsets[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        hashes[slot] = hash;
+        offsets[slot] = offset + 1;
+        count++;
+    }
+
+    // Doubles the table and reinserts every entry; the hashes are kept, so no records are read.
+    private void grow() {
+        int[] oldHashes = hashes;
+        long[] oldOffsets = offsets;
+        hashes = new int[oldHashes.length * 2];
+        offsets = new long[oldOffsets.length * 2];
+        count = 0;
+        for (int i = 0; i < oldOffsets.length; i++) {
+            if (oldOffsets[i] != 0) {
+                index(oldHashes[i], oldOffsets[i] - 1);
+            }
+        }
+    }
+
+    // Spreads String hash codes, whose low bits cluster for similar references, across the table.
+    private static int mix(int hash) {
+        hash *= 0x9e3779b9;
+        return hash ^ (hash >>> 16);
+    }
+
+    // Writes the buffered records to the file.
+    private void flush() {
+        if (buffered == 0) {
+            return;
+        }
+        try {
+            out.write(buffer, 0, buffered);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        buffered = 0;
+    }
+
+    private static byte[] lengthPrefix(int length) {
+        return new byte[] {(byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length};
+    }
+
+    // Reads the record at a segment offset, from the buffer if it has not been written to the file yet.
+    private BookingDetails read(long offset) {
+        long bufferStart = length - buffered;
+        try {
+            if (offset >= bufferStart) {
+                int start = (int) (offset - bufferStart);
+                int recordLength = ((buffer[start] & 0xff) << 24) | ((buffer[start + 1] & 0xff) << 16)
+                        | ((buffer[start + 2] & 0xff) << 8) | (buffer[start + 3] & 0xff);
+                return decode(Arrays.copyOfRange(buffer, start + 4, start + 4 + recordLength));
+            }
+            if (reader == null) {
+                reader = new RandomAccessFile(segmentFile, "r");
+            }
+            reader.seek(offset);
+            byte[] record = new byte[reader.readInt()];
+            reader.readFully(record);
+            return decode(record);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] encode(BookingDetails booking) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(96);
+        try (DataOutputStream record = new DataOutputStream(bytes)) {
+            record.writeUTF(booking.getReference());
+            record.writeUTF(booking.getFirstName());
+            record.writeUTF(booking.getLastName());
+            record.writeUTF(booking.getFlightCode());
+            record.writeFloat(booking.getBaggageWeight());
+            record.writeFloat(booking.getBaggageLength());
+            record.writeFloat(booking.getBaggageHeight());
+            record.writeFloat(booking.getBaggageWidth());
+            record.writeBoolean(booking.getCheckInStatus());
+            record.writeBoolean(booking.getMissedFlight());
+            record.writeFloat(booking.getExcessFeeCharged());
+            record.writeInt(booking.getQueueJoinTime());
+            record.writeInt(booking.getQueueWaitTime());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static BookingDetails decode(byte[] bytes) throws IOException {
+        DataInputStream record = new DataInputStream(new ByteArrayInputStream(bytes));
+        BookingDetails booking = new BookingDetails(record.readUTF(), record.readUTF(), record.readUTF(), record.readUTF(),
+                record.readFloat(), record.readFloat(), record.readFloat(), record.readFloat());
+        booking.setCheckInStatus(record.readBoolean());
+        if (record.readBoolean()) {
+            booking.missFlight();
+        }
+        booking.setExcessFeeCharged(record.readFloat());
+        int joinTime = record.readInt();
+        int waitTime = record.readInt();
+        booking.setQueueJoinTime(joinTime);
+        if (waitTime >= 0) {
+            booking.recordQueueWait(joinTime + waitTime);
+        }
+        return booking;
+    }
+}
@@ -8,7 +8,7 @@ public class BookingDetails {
     private String lastName; // Passenger's last name
 
     // Flight and baggage details
-    private String flightCode; // Associated flight reference
+    private volatile String flightCode; // Associated flight reference, may change if the passenger is rebooked
     private float baggageWeight; // Weight of passenger's baggage
     private float baggageLength; // Length of baggage
     private float baggageHeight; // Height of baggage
@@ -18,6 +18,10 @@ public class BookingDetails {
     private boolean checkInStatus; // Indicates if passenger has checked in
     private boolean missedFlight; // Indicates if passenger has missed the flight
     private float excessFeeCharged = 0; // The excess baggage fee charged, if any
+    private int queueJoinTime = -1; // Simulation minute the passenger last joined the queue
+    private int queueWaitTime = -1; // Minutes spent queuing before check-in, -1 until checked in
+    private volatile boolean atRisk; // Set while queued if the passenger is not expected to reach a counter before departure
+    private volatile boolean released; // Set once the booking's day of a multi-day run is over
 
     //Initializes booking with passenger and flight details.
     public BookingDetails(String bookingCode, String firstName, String lastName, String flightCode,
@@ -34,6 +38,17 @@ public class BookingDetails {
         this.missedFlight = false;
     }
 
+    // Returns an independent copy of the booking and its status, e.g. for a what-if branch of the simulation.
+    public BookingDetails copy() {
+        BookingDetails copy = new BookingDetails(bookingCode, firstName, lastName, flightCode, baggageWeight, baggageLength, baggageHeight, baggageWidth);
+        copy.checkInStatus = checkInStatus;
+        copy.missedFlight = missedFlight;
+        copy.excessFeeCharged = excessFeeCharged;
+        copy.queueJoinTime = queueJoinTime;
+        copy.queueWaitTime = queueWaitTime;
+        return copy;
+    }
+
     // Getter methods for accessing booking details
     public String getReference() { return bookingCode; }
     public String getFlightCode() { return flightCode; }
@@ -47,13 +62,28 @@ public class BookingDetails {
     public boolean getCheckInStatus() { return checkInStatus; }
     public Float getExcessFeeCharged() { return excessFeeCharged; }
     public boolean getMissedFlight() { return missedFlight; }
+    public int getQueueJoinTime() { return queueJoinTime; }
+    public int getQueueWaitTime() { return queueWaitTime; }
+    public boolean isAtRisk() { return atRisk; }
+    public boolean isReleased() { return released; }
 
     // Setter methods for updating booking details
     public void setCheckInStatus(boolean status) { this.checkInStatus = status; }
+    public void setQueueJoinTime(int time) { this.queueJoinTime = time; }
+    public void setFlightCode(String flightCode) { this.flightCode = flightCode; }
+    public void setAtRisk(boolean atRisk) { this.atRisk = atRisk; }
+
+    //Records how long the passenger queued, measured from when they last joined the queue.
+    public void recordQueueWait(int checkInTime) {
+        this.queueWaitTime = queueJoinTime < 0 ? -1 : checkInTime - queueJoinTime;
+    }
 
     //Marks the booking to indicate the flight has been missed.
     public void missFlight() { this.missedFlight = true; }
 
+    //Marks the booking as belonging to a day that has been released, so counters drop it instead of queuing it again.
+    public void release() { this.released = true; }
+
     //Updates the excess fee charged for baggage, if applicable.
     public void setExcessFeeCharged(Float fee) { this.excessFeeCharged = fee; }
 
@@ -1,5 +1,6 @@
 package stage2;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Observer;
@@ -12,6 +13,7 @@ import stage2.FlightDetails.OverBaggageLimitException;
 public class Counter extends Thread implements Subject {
     private int counterId;
     private Queue queue;
+    private String homeLane; // Queue lane this counter serves first before stealing from others
     private BookingDetails passenger;
     private FlightDetails passengerFlight;
     private List<Observer> observers = new LinkedList<>();
@@ -20,41 +22,63 @@ public class Counter extends Thread implements Subject {
     private int currentTick;
     private String currentTickAsString;
     private boolean isOpen;
+    private ProcessingStage downstream; // Stage after check-in, e.g. security; null when passengers stop here
+    private BookingDetails handOff; // Checked-in passenger waiting for room downstream
+    private int busyMinutes;
+    private int blockedMinutes;
+    private int firstActive = -1; // First minute spent serving or blocked, -1 before
+    private int lastActive = -1; // Latest minute spent serving or blocked
+    private final List<Integer> toggles = new ArrayList<>(); // Minutes the counter closed or reopened at, alternately
 
-    // Constructor for the check-in counter.
+    // Constructor for the check-in counter, serving the shared queue lane.
     public Counter(int number, AllFlights flights, Timer timer, Queue queue) {
+        this(number, flights, timer, queue, Queue.SHARED_LANE);
+    }
+
+    // Constructor for a check-in counter with its own home lane, e.g. a carrier-dedicated desk.
+    public Counter(int number, AllFlights flights, Timer timer, Queue queue, String homeLane) {
         this.counterId = number;
         this.flights = flights;
         this.timer = timer;
         this.queue = queue;
+        this.homeLane = homeLane;
         this.isOpen = true;
     }
 
-    // Toggles the open/close state of the counter and logs the activity.
+    // Toggles the open/close state of the counter, logs the activity and notifies observers.
     public synchronized void toggleCounter() {
         this.isOpen = !this.isOpen;
-        logCounterActivity("Checkin counter " + this.counterId + (this.isOpen ? " opened." : " closed."));
+        this.toggles.add(timer.getCurrentTime());
+        logCounterActivity(Log.Level.INFO, "Checkin counter " + this.counterId + (this.isOpen ? " opened." : " closed."));
+        notifyObservers();
     }
 
     // Main method to process passengers in the queue at each tick.
+    // The timer monitor is only held while waiting, so counters serve passengers concurrently.
     public void run() {
-        synchronized(timer) {
-            while (true) {
-                try {
+        while (true) {
+            try {
+                synchronized (timer) {
                     timer.wait();
-                    updateTime();
-                    servePassenger();
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
                 }
+                tick();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
             }
         }
     }
 
-    // Updates the current simulation time.
+    // Reads the timer and serves at most one passenger. Called by run() on every tick, or directly by a driver
+    // such as SimulationWorker that steps the simulation without starting the counter thread.
+    public void tick() {
+        updateTime();
+        servePassenger();
+    }
+
+    // Updates the current simulation time, reading the timer once so the label always matches the minute.
     private void updateTime() {
-        this.currentTickAsString = timer.getTimeString();
         this.currentTick = timer.getCurrentTime();
+        this.currentTickAsString = timer.labelFor(this.currentTick);
     }
 
     // Returns the counter number.
@@ -77,34 +101,107 @@ public class Counter extends Thread implements Subject {
         return this.passenger.getExcessFeeCharged();
     }
 
+    // Returns the queue lane this counter serves first.
+    public String getHomeLane() {
+        return this.homeLane;
+    }
+
+    // Sends checked-in passengers on to the given stage; while its buffer is full the counter serves nobody.
+    public synchronized void setDownstream(ProcessingStage downstream) {
+        this.downstream = downstream;
+    }
+
+    // Returns true while a checked-in passenger is waiting for room in the stage downstream.
+    public synchronized boolean hasHandOff() {
+        return this.handOff != null;
+    }
+
+    // Minutes the counter spent serving, and spent blocked by a full stage downstream with passengers waiting.
+    // Passing a passenger who already missed their flight back to the queue is not counted as serving.
+    public synchronized int getBusyMinutes() { return busyMinutes; }
+    public synchronized int getBlockedMinutes() { return blockedMinutes; }
+    // First and latest minute spent serving or blocked, -1 if there has been none.
+    public synchronized int getFirstActiveMinute() { return firstActive; }
+    public synchronized int getLastActiveMinute() { return lastActive; }
+
+    /**
+     * Returns the minutes from one minute to another, both included, that the counter was open.
+     * Counters start open, and opening or closing at minute t applies from minute t + 1.
+     *
+     * @param from First minute.
+     * @param to   Last minute.
+     * @return Open minutes in the range.
+     */
+    public synchronized int getOpenMinutes(int from, int to) {
+        int open = 0;
+        int start = Integer.MIN_VALUE;
+        boolean wasOpen = true;
+        for (int toggle : toggles) {
+            if (wasOpen) open += Math.max(0, Math.min(toggle, to) - Math.max(start, from) + 1);
+            wasOpen = !wasOpen;
+            start = toggle + 1;
+        }
+        if (wasOpen) open += Math.max(0, to - Math.max(start, from) + 1);
+        return open;
+    }
+
+    // Records the current minute as spent serving or blocked.
+    private void markActive() {
+        if (this.firstActive < 0) this.firstActive = this.currentTick;
+        this.lastActive = this.currentTick;
+    }
+
     // Checks if the counter is open.
     public boolean getIsOpen() {
         return this.isOpen;
     }
 
-    // Logs activity related to this check-in counter.
-    private void logCounterActivity(String message) {
-        Log.INSTANCE.addMessage(this.currentTickAsString + " " + message);
+    // Logs activity related to this check-in counter. Frequent messages check Log.Category.COUNTER before building the text.
+    private void logCounterActivity(Log.Level level, String message) {
+        Log.INSTANCE.addMessage(Log.Category.COUNTER, level, this.currentTickAsString + " " + message);
     }
 
-    // Processes the first passenger in the queue if the counter is open.
+    // Processes the next passenger from the home lane, or the busiest other lane, if the counter is open.
     public synchronized void servePassenger() {
-        if (queue.queueSize() > 0 && this.isOpen) {
-            BookingDetails firstPassenger = queue.firstInLine();
-            if (firstPassenger != null && !firstPassenger.getMissedFlight()) {
-                this.passenger = queue.removeFirst();
-                handlePassengerCheckIn();
-            } else if (firstPassenger != null) {
-                queue.recycleBooking();
-                this.passenger = null;
-                this.passengerFlight = null;
+        // A passenger held back by a full stage downstream goes first, even if the counter has since closed
+        if (this.handOff != null) {
+            if (this.downstream.offer(this.handOff, this.currentTick)) {
+                this.handOff = null;
+            } else if (this.isOpen) {
+                this.blockedMinutes++;
+                markActive();
+                return;
             }
-            notifyObservers();
         }
+        if (!this.isOpen) {
+            return;
+        }
+        BookingDetails nextPassenger = queue.takeNext(this.homeLane);
+        if (nextPassenger == null) {
+            return;
+        }
+        if (nextPassenger.isReleased()) {
+            // Its day of a multi-day run is over, so it leaves the simulation rather than queuing again
+            queue.drop(nextPassenger);
+            this.passenger = null;
+            this.passengerFlight = null;
+        } else if (!nextPassenger.getMissedFlight()) {
+            this.busyMinutes++;
+            markActive();
+            this.passenger = nextPassenger;
+            handlePassengerCheckIn();
+        } else {
+            queue.recycle(nextPassenger);
+            this.passenger = null;
+            this.passengerFlight = null;
+        }
+        notifyObservers();
     }
 
     // Handles the check-in process, including baggage checks and setting flight status.
     private void handlePassengerCheckIn() {
+        SimulationEvents.PassengerServed event = new SimulationEvents.PassengerServed();
+        event.begin();
         setPassengerFlight();
         if (passengerFlight != null && passengerFlight.checkGateOpen(this.currentTick, this.currentTickAsString)) {
             try {
@@ -113,11 +210,29 @@ public class Counter extends Thread implements Subject {
                 passenger.setExcessFeeCharged(passengerFlight.getExcessFeeCharge());
             }
             passengerFlight.addPassenger();
-            logCounterActivity("[Counter " + this.counterId + "] " + passenger.getFullName() + " checked into flight " + passengerFlight.getFlightCode() + ". Excess fee of £" + passenger.getExcessFeeCharged() + " charged.");
+            passenger.setCheckInStatus(true);
+            passenger.recordQueueWait(this.currentTick);
+            if (this.downstream != null && !this.downstream.offer(passenger, this.currentTick)) {
+                this.handOff = passenger;
+            }
+            if (Log.Category.COUNTER.isEnabled(Log.Level.INFO)) logCounterActivity(Log.Level.INFO, "[Counter " + this.counterId + "] " + passenger.getFullName() + " checked into flight " + passengerFlight.getFlightCode() + ". Excess fee of £" + passenger.getExcessFeeCharged() + " charged.");
         } else {
             passenger.missFlight();
-            queue.enqueue(passenger);
-            logCounterActivity("[Counter " + this.counterId + "] " + (passengerFlight != null ? passengerFlight.getFlightCode() : "Unknown Flight") + " has already departed, " + passenger.getFullName() + " has missed their flight and has joined the end of the queue.");
+            // A passenger taken just before their day was released, whose flight is gone, is dropped with the day
+            if (!passenger.isReleased()) {
+                queue.enqueue(passenger);
+                if (Log.Category.COUNTER.isEnabled(Log.Level.WARNING)) logCounterActivity(Log.Level.WARNING, "[Counter " + this.counterId + "] " + (passengerFlight != null ? passengerFlight.getFlightCode() : "Unknown Flight") + " has already departed, " + passenger.getFullName() + " has missed their flight and has joined the end of the queue.");
+            }
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.counter = this.counterId;
+            event.booking = passenger.getReference();
+            event.flight = passenger.getFlightCode();
+            event.checkedIn = passenger.getCheckInStatus();
+            event.excessFee = passenger.getExcessFeeCharged();
+            event.queueWait = passenger.getQueueWaitTime();
+            event.commit();
         }
     }
 
@@ -149,7 +264,7 @@ public class Counter extends Thread implements Subject {
      */
     @Override
     public void notifyObservers() {
-        for (Observer obs : observers) obs.update(null, this);
+        for (Observer obs : observers) SimulationEvents.dispatch(this, obs, null, this);
     }
 
 }
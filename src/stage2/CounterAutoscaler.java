@@ -0,0 +1,174 @@
+package stage2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Opens and closes check-in counters automatically to hold a target p95 queue wait with as few counters as possible.
+ * Each tick it combines the queue depth, a smoothed arrival rate and the time left before the next departure
+ * into a desired number of open counters. Hysteresis (closing only when at least two counters are spare) and a
+ * minimum dwell time between changes stop it from flapping, and every decision is written to the log.
+ *
+ * A counter serves one passenger per tick, so n open counters clear n passengers a minute.
+ */
+@SuppressWarnings("deprecation")
+public class CounterAutoscaler implements Observer {
+    private final Queue queue;
+    private final List<Counter> counters;
+    private final AllFlights flights;
+    private float[] departures; // Departure minutes of all flights, ascending
+    private int departuresVersion = -1; // AllFlights version the departures were read at
+    private final int targetWait; // Target p95 wait in minutes
+    private final int minOpen; // Never close below this many counters
+    private final int dwellTime; // Minimum minutes between two changes
+    private final int[] recentWaits = new int[200]; // Ring of the latest observed queue waits
+    private int recentCount, recentNext;
+    private final Map<Integer, BookingDetails> lastSeenByCounter = new HashMap<>();
+    private final AtomicInteger arrivalsThisTick = new AtomicInteger();
+    private double arrivalRate; // Smoothed passengers joining per minute
+    private int nextDeparture; // Index of the first departure not yet passed
+    private int lastChange = Integer.MIN_VALUE / 2; // Minute of the last open or close
+
+    /**
+     * Creates an autoscaler. Register it as an observer of the timer, the queue and every counter.
+     *
+     * @param queue      Passenger queue to watch.
+     * @param counters   Counters it may open and close.
+     * @param flights    Flights whose departures bound how long passengers can wait.
+     * @param targetWait Target p95 queue wait in minutes.
+     * @param minOpen    Minimum number of open counters.
+     * @param dwellTime  Minimum minutes between two changes.
+     */
+    public CounterAutoscaler(Queue queue, List<Counter> counters, AllFlights flights, int targetWait, int minOpen, int dwellTime) {
+        this.queue = queue;
+        this.counters = counters;
+        this.targetWait = targetWait;
+        this.minOpen = Math.max(1, minOpen);
+        this.dwellTime = dwellTime;
+        this.flights = flights;
+    }
+
+    // Re-reads the departures when flights have been added, removed or rescheduled, e.g. by the data watcher or the day loader.
+    private void refreshDepartures() {
+        int version = flights.getVersion();
+        if (version == departuresVersion) {
+            return;
+        }
+        List<FlightDetails> all = new ArrayList<>(flights.getAllFlights().values());
+        departures = new float[all.size()];
+        for (int i = 0; i < departures.length; i++) {
+            departures[i] = all.get(i).getDepartureTime();
+        }
+        Arrays.sort(departures);
+        departuresVersion = version;
+        nextDeparture = 0;
+    }
+
+    /**
+     * Counts arrivals from the queue, records waits from counters, and re-evaluates on every timer tick.
+     *
+     * @param o   The queue for queue events, otherwise null.
+     * @param arg The changed subject or the booking that joined the queue.
+     */
+    @Override
+    public void update(Observable o, Object arg) {
+        if (o instanceof Queue) {
+            // Recycled passengers have already missed their flight and are not new demand
+            if (arg instanceof BookingDetails && !((BookingDetails) arg).getMissedFlight()) {
+                arrivalsThisTick.incrementAndGet();
+            }
+        } else if (arg instanceof Counter) {
+            recordWait((Counter) arg);
+        } else if (arg instanceof Timer) {
+            int now = ((Timer) arg).getCurrentTime();
+            evaluate(now, ((Timer) arg).labelFor(now));
+        }
+    }
+
+    // Remembers the queue wait of each newly checked-in passenger.
+    private synchronized void recordWait(Counter counter) {
+        BookingDetails booking = counter.getBooking();
+        if (booking == null || lastSeenByCounter.get(counter.getCounterNumber()) == booking
+                || !booking.getCheckInStatus() || booking.getQueueWaitTime() < 0) {
+            return;
+        }
+        lastSeenByCounter.put(counter.getCounterNumber(), booking);
+        recentWaits[recentNext] = booking.getQueueWaitTime();
+        recentNext = (recentNext + 1) % recentWaits.length;
+        recentCount = Math.min(recentCount + 1, recentWaits.length);
+    }
+
+    // Returns the 95th percentile of the recent waits, or 0 before any check-in.
+    private synchronized int recentP95() {
+        if (recentCount == 0) {
+            return 0;
+        }
+        int[] sorted = Arrays.copyOf(recentWaits, recentCount);
+        Arrays.sort(sorted);
+        return sorted[(int) Math.ceil(0.95 * recentCount) - 1];
+    }
+
+    // Decides whether to open or close one counter this tick.
+    private void evaluate(int now, String timeString) {
+        arrivalRate = 0.9 * arrivalRate + 0.1 * arrivalsThisTick.getAndSet(0);
+        refreshDepartures();
+        while (nextDeparture < departures.length && departures[nextDeparture] <= now) {
+            nextDeparture++;
+        }
+        // Passengers queuing now should be served before the next flight leaves
+        int untilDeparture = nextDeparture < departures.length ? (int) departures[nextDeparture] - now : Integer.MAX_VALUE;
+        int effectiveTarget = Math.max(1, Math.min(targetWait, untilDeparture));
+
+        // Passengers recycling after missing their flight can never be served, so they do not call for counters
+        int depth = queue.servableSize();
+        int open = 0;
+        for (Counter counter : counters) {
+            if (counter.getIsOpen()) open++;
+        }
+        // The recent waits only matter while someone is waiting; otherwise they are stale and would hold counters open
+        int p95 = depth > 0 ? recentP95() : 0;
+        int desired = (int) Math.ceil(Math.max(arrivalRate, (double) depth / effectiveTarget));
+        if (p95 > targetWait) {
+            desired = Math.max(desired, open + 1);
+        }
+        desired = Math.max(minOpen, Math.min(counters.size(), desired));
+        if (now - lastChange < dwellTime) {
+            return;
+        }
+
+        String reason = "queue " + depth + ", arrivals " + String.format("%.1f", arrivalRate) + "/min, p95 wait " + p95
+                + " min, target " + effectiveTarget + " min, " + open + " open";
+        if (desired > open) {
+            change(findCounter(false, false), timeString, "Opened", reason);
+            lastChange = now;
+        } else if (desired < open - 1 && p95 <= targetWait) {
+            change(findCounter(true, true), timeString, "Closed", reason);
+            lastChange = now;
+        }
+    }
+
+    // Returns the lowest-numbered counter in the given state, or the highest-numbered one when fromEnd is set.
+    private Counter findCounter(boolean isOpen, boolean fromEnd) {
+        int n = counters.size();
+        for (int i = 0; i < n; i++) {
+            Counter counter = counters.get(fromEnd ? n - 1 - i : i);
+            if (counter.getIsOpen() == isOpen) return counter;
+        }
+        return null;
+    }
+
+    // Logs the decision and toggles the counter.
+    private void change(Counter counter, String timeString, String action, String reason) {
+        if (counter == null) {
+            return;
+        }
+        Log.INSTANCE.addMessage(timeString + " [Autoscaler] " + action + " counter " + counter.getCounterNumber() + ": " + reason + ".");
+        counter.toggleCounter();
+    }
+}
@@ -0,0 +1,288 @@
+package stage2;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Observer;
+import java.util.Random;
+
+/**
+ * Watches the data directory during a run and applies late bookings and schedule changes as deltas.
+ * Appended rows are read from the last processed byte offset, so growing files are never re-read. If a file
+ * is rewritten in place, its lines are compared with stored per-line hashes and only changed rows are parsed.
+ *
+ * New flights are added to AllFlights and registered with the given observers, and rescheduled flights get
+ * their new departure time. New bookings are added to AllBookings and join the queue straight away, and
+ * changed bookings that have not checked in yet are moved to their new flight.
+ */
+@SuppressWarnings("deprecation")
+public class DataDirectoryWatcher implements Runnable {
+    private final Path directory;
+    private final TrackedFile flightFile;
+    private final TrackedFile bookingFile;
+    private final AllFlights flights;
+    private final AllBookings bookings;
+    private final Queue queue;
+    private final Timer timer;
+    private final List<Observer> flightObservers;
+    private final Random rnd = new Random();
+    private WatchService watchService;
+
+    /**
+     * Creates a watcher over the two CSV files already loaded by DataLoader, carrying on from where it stopped
+     * reading, so rows appended since are applied when the watcher starts.
+     *
+     * @param flightsRead     How much of the flight file DataLoader read, from DataLoader.getFlightsRead().
+     * @param bookingsRead    How much of the booking file DataLoader read.
+     * @param flights         Live flight store.
+     * @param bookings        Live booking store.
+     * @param queue           Passenger queue that late bookings join.
+     * @param timer           Simulation clock, for log timestamps.
+     * @param flightObservers Observers to register on newly added flights.
+     * @throws IOException If the files cannot be read for their initial state.
+     */
+    public DataDirectoryWatcher(DataLoader.ReadPosition flightsRead, DataLoader.ReadPosition bookingsRead, AllFlights flights,
+                                AllBookings bookings, Queue queue, Timer timer, List<Observer> flightObservers) throws IOException {
+        this.directory = flightsRead.getFile().toAbsolutePath().getParent();
+        this.flightFile = new TrackedFile(flightsRead);
+        this.bookingFile = new TrackedFile(bookingsRead);
+        this.flights = flights;
+        this.bookings = bookings;
+        this.queue = queue;
+        this.timer = timer;
+        this.flightObservers = flightObservers;
+    }
+
+    // Starts watching on a daemon thread, first applying whatever was written since DataLoader read the files.
+    public void start() throws IOException {
+        watchService = FileSystems.getDefault().newWatchService();
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_CREATE);
+        Thread thread = new Thread(this, "Data-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Stops watching.
+    public void stop() throws IOException {
+        watchService.close();
+    }
+
+    // Waits for file events and applies the changed rows, flights before bookings so new bookings find their flight.
+    public void run() {
+        applyChanges(flightFile, true);
+        applyChanges(bookingFile, false);
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean flightsChanged = false, bookingsChanged = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    Object name = event.context();
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        flightsChanged = bookingsChanged = true;
+                    } else if (flightFile.path.getFileName().equals(name)) {
+                        flightsChanged = true;
+                    } else if (bookingFile.path.getFileName().equals(name)) {
+                        bookingsChanged = true;
+                    }
+                }
+                if (flightsChanged) {
+                    applyChanges(flightFile, true);
+                }
+                if (bookingsChanged) {
+                    applyChanges(bookingFile, false);
+                }
+                if (!key.reset()) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // Stopped
+        }
+    }
+
+    // Reads the changed rows of one file and applies each of them.
+    private void applyChanges(TrackedFile file, boolean isFlightFile) {
+        try {
+            for (String row : file.changedRows()) {
+                try {
+                    if (isFlightFile) {
+                        applyFlightRow(row);
+                    } else {
+                        applyBookingRow(row);
+                    }
+                } catch (RuntimeException e) {
+                    log("Ignored invalid row in " + file.path.getFileName() + ": " + row);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to read " + file.path + ": " + e.getMessage());
+        }
+    }
+
+    // Adds a new flight, or applies a schedule change to an existing one.
+    private void applyFlightRow(String row) {
+        FlightDetails flight = DataLoader.parseFlight(row, "", DataLoader::minuteOfDay);
+        int time = (int) flight.getDepartureTime();
+        String departs = String.format("%02d:%02d", time / 60, time % 60);
+        FlightDetails existing = flights.getFlight(flight.getFlightCode());
+        if (existing == null) {
+            flights.addFlight(flight);
+            flightObservers.forEach(flight::registerObserver);
+            flight.notifyObservers();
+            log("Flight " + flight.getFlightCode() + " to " + flight.getDestination() + " added, departing " + departs + ".");
+        } else if (existing.getDepartureTime() != time) {
+            flights.reschedule(existing, time);
+            log("Flight " + existing.getFlightCode() + " rescheduled to depart " + departs
+                    + (existing.getGateOpen() ? "." : ", but it has already departed."));
+        }
+    }
+
+    // Adds a late booking to the queue, or moves an existing booking that has not checked in to a new flight.
+    private void applyBookingRow(String row) {
+        BookingDetails booking = DataLoader.parseBooking(row, "", code -> code, rnd);
+        String flightCode = booking.getFlightCode();
+        BookingDetails existing = bookings.getBooking(booking.getReference());
+        if (existing == null) {
+            bookings.addBooking(booking);
+            log("Late booking " + booking.getReference() + " for flight " + booking.getFlightCode() + " added.");
+            queue.enqueue(booking);
+        } else if (!existing.getFlightCode().equals(flightCode)) {
+            if (existing.getCheckInStatus()) {
+                log("Booking " + existing.getReference() + " changed to flight " + flightCode + " after check-in; change ignored.");
+            } else if (existing.getMissedFlight()) {
+                log("Booking " + existing.getReference() + " changed to flight " + flightCode + " after missing its flight; change ignored.");
+            } else {
+                existing.setFlightCode(flightCode);
+                log("Booking " + existing.getReference() + " moved to flight " + flightCode + ".");
+            }
+        }
+    }
+
+    private void log(String message) {
+        Log.INSTANCE.addMessage(timer.getTimeString() + " " + message);
+    }
+
+    // Remembers how much of a file has been applied: the byte offset, the bytes just before it and a hash per line.
+    private static class TrackedFile {
+        private static final int TAIL_LENGTH = 64;
+        private final Path path;
+        private long offset;
+        private byte[] tail = new byte[0];
+        private int[] lineHashes = new int[0];
+        private int lineCount;
+
+        // Starts from the rows DataLoader already loaded; they are not applied again.
+        TrackedFile(DataLoader.ReadPosition read) throws IOException {
+            this.path = read.getFile();
+            this.offset = read.getOffset();
+            this.lineHashes = read.getLineHashes();
+            this.lineCount = lineHashes.length;
+            updateTail();
+        }
+
+        /**
+         * Returns the rows added or changed since the last call.
+         * If the file only grew, just the bytes after the stored offset are read.
+         */
+        List<String> changedRows() throws IOException {
+            long size = Files.size(path);
+            if (size >= offset && tailUnchanged()) {
+                return readAppended();
+            }
+            return rescan();
+        }
+
+        // Reads the complete lines after the stored offset; a partly written last line is left for next time.
+        private List<String> readAppended() throws IOException {
+            List<String> rows = new ArrayList<>();
+            try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "r")) {
+                file.seek(offset);
+                byte[] buffer = new byte[(int) (file.length() - offset)];
+                file.readFully(buffer);
+                int lineStart = 0;
+                for (int i = 0; i < buffer.length; i++) {
+                    if (buffer[i] == '\n') {
+                        String row = new String(buffer, lineStart, i - lineStart, StandardCharsets.UTF_8).trim();
+                        if (!row.isEmpty()) {
+                            rows.add(row);
+                            addHash(row.hashCode());
+                        }
+                        lineStart = i + 1;
+                    }
+                }
+                offset += lineStart;
+            }
+            updateTail();
+            return rows;
+        }
+
+        // Reads the whole file after an in-place rewrite and returns only the lines whose hash changed.
+        private List<String> rescan() throws IOException {
+            List<String> rows = new ArrayList<>();
+            int[] previous = lineHashes;
+            int previousCount = lineCount;
+            lineHashes = new int[Math.max(16, previousCount)];
+            lineCount = 0;
+            byte[] content = Files.readAllBytes(path);
+            int lineStart = 0;
+            for (int i = 0; i < content.length; i++) {
+                if (content[i] == '\n') {
+                    String row = new String(content, lineStart, i - lineStart, StandardCharsets.UTF_8).trim();
+                    if (!row.isEmpty()) {
+                        int hash = row.hashCode();
+                        if (lineCount >= previousCount || previous[lineCount] != hash) {
+                            rows.add(row);
+                        }
+                        addHash(hash);
+                    }
+                    lineStart = i + 1;
+                }
+            }
+            offset = lineStart;
+            updateTail();
+            return rows;
+        }
+
+        private void addHash(int hash) {
+            if (lineCount == lineHashes.length) {
+                lineHashes = Arrays.copyOf(lineHashes, Math.max(16, lineCount * 2));
+            }
+            lineHashes[lineCount++] = hash;
+        }
+
+        // Checks that the bytes just before the offset are still the ones we read, i.e. the file was only appended to.
+        private boolean tailUnchanged() throws IOException {
+            return Arrays.equals(tail, readTail());
+        }
+
+        private void updateTail() throws IOException {
+            tail = readTail();
+        }
+
+        private byte[] readTail() throws IOException {
+            try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "r")) {
+                if (file.length() < offset) {
+                    return new byte[0];
+                }
+                long start = Math.max(0, offset - TAIL_LENGTH);
+                byte[] buffer = new byte[(int) (offset - start)];
+                file.seek(start);
+                file.readFully(buffer);
+                return buffer;
+            }
+        }
+    }
+}
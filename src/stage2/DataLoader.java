@@ -0,0 +1,229 @@
+package stage2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+import java.util.function.UnaryOperator;
+
+/**
+ * Reads the flight and booking CSV files of a data directory, with no desktop dependencies.
+ *
+ * This class holds the one definition of the row format, also used by DayWindowLoader and DataDirectoryWatcher.
+ * A flight row is code, carrier, origin, destination, aircraft, then the capacity, baggage weight, length, height
+ * and width allowances and excess fee (none negative), and the HH:MM departure. A booking row is reference, first
+ * name, last name, flight code and check-in flag, optionally followed by the baggage weight, length, height and
+ * width; baggage a row does not give is drawn at random up to 60 kg and 150, 150 and 100 cm. Instead of showing a
+ * popup and ending the JVM, a missing file or a bad row is reported as an IOException naming the file and line,
+ * and the caller decides what to do with it.
+ */
+public class DataLoader {
+    private final AllFlights flights = new AllFlights();
+    private final AllBookings bookings = new AllBookings();
+    private final ReadPosition flightsRead;
+    private final ReadPosition bookingsRead;
+
+    /**
+     * Reads flightDetails.csv and bookingDetails.csv (or Flight.csv and Booking.csv) from a directory.
+     *
+     * @param directory Data directory.
+     * @throws IOException If a file is missing or unreadable, or a row is malformed or has a negative value.
+     */
+    public DataLoader(Path directory) throws IOException {
+        this(directory, new Random());
+    }
+
+    /**
+     * Reads a data directory, drawing missing baggage values from the given random source.
+     *
+     * @param directory Data directory.
+     * @param rnd       Random source for baggage not given in the booking file, e.g. seeded for repeatable runs.
+     * @throws IOException If a file is missing or unreadable, or a row is malformed or has a negative value.
+     */
+    public DataLoader(Path directory, Random rnd) throws IOException {
+        flightsRead = readRows(dataFile(directory, "flightDetails.csv", "Flight.csv"),
+                row -> flights.addFlight(parseFlight(row, "", DataLoader::minuteOfDay)));
+        bookingsRead = readRows(dataFile(directory, "bookingDetails.csv", "Booking.csv"),
+                row -> bookings.addBooking(parseBooking(row, "", code -> code, rnd)));
+    }
+
+    public AllFlights getFlights() {
+        return flights;
+    }
+
+    public AllBookings getBookings() {
+        return bookings;
+    }
+
+    // How much of the flight file, whichever name it had, was read; DataDirectoryWatcher carries on from there.
+    public ReadPosition getFlightsRead() {
+        return flightsRead;
+    }
+
+    // How much of the booking file was read.
+    public ReadPosition getBookingsRead() {
+        return bookingsRead;
+    }
+
+    /**
+     * Parses a flight row.
+     *
+     * @param row        The row.
+     * @param codeSuffix Appended to the flight code, e.g. "@2024-06-01" for a day of a multi-day scenario.
+     * @param departure  Converts the departure column to a simulation minute.
+     * @return The flight.
+     * @throws IllegalArgumentException If a column is malformed or negative.
+     * @throws ArrayIndexOutOfBoundsException If the row has too few columns.
+     */
+    static FlightDetails parseFlight(String row, String codeSuffix, ToIntFunction<String> departure) {
+        String[] temp = row.split(",", 0);
+        for (int i = 5; i <= 10; i++) {
+            if (Integer.parseInt(temp[i]) < 0) {
+                throw new IllegalArgumentException("negative value in column " + (i + 1) + ".");
+            }
+        }
+        return new FlightDetails(temp[0] + codeSuffix, temp[3], temp[1], Integer.parseInt(temp[5]), Float.parseFloat(temp[6]),
+                Float.parseFloat(temp[7]), Float.parseFloat(temp[8]), Float.parseFloat(temp[9]), Float.parseFloat(temp[10]),
+                departure.applyAsInt(temp[11]));
+    }
+
+    /**
+     * Parses a booking row, drawing the baggage it does not give.
+     *
+     * @param row             The row.
+     * @param referenceSuffix Appended to the booking reference, e.g. "@2024-06-01".
+     * @param flightCode      Maps the flight code in the row to the code of the flight in the run.
+     * @param rnd             Random source for missing baggage.
+     * @return The booking.
+     * @throws IllegalArgumentException If a baggage column is malformed.
+     * @throws ArrayIndexOutOfBoundsException If the row has too few columns.
+     */
+    static BookingDetails parseBooking(String row, String referenceSuffix, UnaryOperator<String> flightCode, Random rnd) {
+        String[] temp = row.split(",", 0);
+        return new BookingDetails(temp[0] + referenceSuffix, temp[1], temp[2], flightCode.apply(temp[3]),
+                baggage(temp, 5, 60, rnd), baggage(temp, 6, 150, rnd), baggage(temp, 7, 150, rnd), baggage(temp, 8, 100, rnd));
+    }
+
+    // Converts an HH:MM departure to minutes since midnight.
+    static int minuteOfDay(String value) {
+        String[] time = value.trim().split(":");
+        return Integer.parseInt(time[0]) * 60 + Integer.parseInt(time[1]);
+    }
+
+    /**
+     * Passes every row of a data file to a handler, reporting a row the handler rejects as an IOException
+     * naming the file and line.
+     *
+     * @param file    The file.
+     * @param handler Parses and stores one row.
+     * @return How far the file was read.
+     * @throws IOException If the file cannot be read or a row is rejected.
+     */
+    static ReadPosition readRows(Path file, Consumer<String> handler) throws IOException {
+        ReadPosition position = new ReadPosition(file);
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buffer = new byte[65536];
+            ByteArrayOutputStream pending = new ByteArrayOutputStream(); // Start of a line cut by the buffer
+            long consumed = 0;
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                int lineStart = 0;
+                for (int i = 0; i < read; i++) {
+                    if (buffer[i] == '\n') {
+                        pending.write(buffer, lineStart, i - lineStart);
+                        consumed += pending.size() + 1;
+                        position.complete(consumed, readRow(position, pending, handler));
+                        lineStart = i + 1;
+                    }
+                }
+                pending.write(buffer, lineStart, read - lineStart);
+            }
+            if (pending.size() > 0) {
+                readRow(position, pending, handler); // Last line without a newline; the watcher reads it again once complete
+            }
+        }
+        return position;
+    }
+
+    // Hands one line to the handler without its trailing carriage return, and returns it.
+    private static String readRow(ReadPosition position, ByteArrayOutputStream line, Consumer<String> handler) throws IOException {
+        String row = new String(line.toByteArray(), StandardCharsets.UTF_8);
+        line.reset();
+        if (row.endsWith("\r")) row = row.substring(0, row.length() - 1);
+        int number = ++position.lines;
+        try {
+            handler.accept(row);
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException | IllegalStateException e) {
+            throw new IOException(position.file.getFileName() + " line " + number + ": " + describe(e), e);
+        }
+        return row;
+    }
+
+    // Returns the first of the given file names that exists, failing with the preferred name if neither does.
+    static Path dataFile(Path directory, String name, String alternative) throws NoSuchFileException {
+        Path file = directory.resolve(name);
+        if (Files.exists(file)) {
+            return file;
+        }
+        if (Files.exists(directory.resolve(alternative))) {
+            return directory.resolve(alternative);
+        }
+        throw new NoSuchFileException(file.toString(), null, "Data file not found, ensure the data folder is in its original directory");
+    }
+
+    // Reads a baggage column if the row has one, otherwise draws a random value between 1 and max.
+    private static float baggage(String[] temp, int column, float max, Random rnd) {
+        if (temp.length > column) {
+            return Float.parseFloat(temp[column]);
+        }
+        return Math.round((rnd.nextFloat() * (max - 1) + 1) * 10.0f) / 10.0f;
+    }
+
+    /**
+     * How much of a data file has been read: its path, the offset just past the last complete line, and a hash of
+     * each non-blank complete line, so a watcher can pick up appended or rewritten rows from there.
+     */
+    public static class ReadPosition {
+        private final Path file;
+        private long offset;
+        private int lines; // Lines handed to the handler, including a last line without a newline
+        private int[] lineHashes = new int[16];
+        private int hashCount;
+
+        ReadPosition(Path file) {
+            this.file = file;
+        }
+
+        // Moves past a complete line.
+        private void complete(long offset, String row) {
+            this.offset = offset;
+            row = row.trim();
+            if (row.isEmpty()) return;
+            if (hashCount == lineHashes.length) {
+                lineHashes = Arrays.copyOf(lineHashes, hashCount * 2);
+            }
+            lineHashes[hashCount++] = row.hashCode();
+        }
+
+        // The file read, e.g. data/Flight.csv when flightDetails.csv does not exist.
+        public Path getFile() { return file; }
+        public long getOffset() { return offset; }
+        public int getLines() { return lines; }
+        // Hashes of the trimmed non-blank complete lines, in file order.
+        public int[] getLineHashes() { return Arrays.copyOf(lineHashes, hashCount); }
+    }
+
+    private static String describe(RuntimeException e) {
+        if (e instanceof ArrayIndexOutOfBoundsException) {
+            return "too few columns.";
+        }
+        return e.getMessage();
+    }
+}
@@ -0,0 +1,176 @@
+package stage2;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Seeded generator of large synthetic Flight.csv/Booking.csv pairs for sizing runs and performance tests.
+ * Rows are written straight to disk as they are generated, so memory use stays constant regardless of size.
+ * The same seed and options always produce byte-identical files.
+ *
+ * Usage: java stage2.DatasetGenerator outputDir [--flights 5000] [--load-factor 0.85] [--departures uniform|peaked]
+ *        [--first 05:00] [--last 23:00] [--bag-weight-mean 17] [--bag-weight-sd 4] [--oversize 0.1] [--seed 1]
+ *
+ * Bookings carry explicit baggage columns (weight, length, height, width) after the check-in flag,
+ * which DataLoader uses instead of random baggage when present.
+ */
+public class DatasetGenerator {
+    // Carrier names with their flight code prefixes, as they appear in TestData/Flight.csv
+    private static final String[][] CARRIERS = {
+            {"BA", "British Airways"}, {"EZY", "easyJet"}, {"FR", "Ryanair"}, {"BE", "Flybe"}, {"LM", "Loganair"}, {"EK", "Emirates"}};
+    private static final String[] DESTINATIONS = {
+            "London Gatwick", "London Heathrow", "Belfast International", "Manchester", "Sofia", "Dubai", "Bristol",
+            "Southampton", "Birmingham", "Amsterdam", "Paris Charles de Gaulle", "Dublin", "Madrid", "Rome Fiumicino"};
+    // Aircraft types and seat counts
+    private static final String[][] AIRCRAFT = {
+            {"A319", "156"}, {"A320", "180"}, {"B738", "189"}, {"DH8D", "78"}, {"E145", "50"}, {"SF34", "34"}, {"B77W", "354"}};
+    private static final String[] FIRST_NAMES = {
+            "Aleshia", "Evan", "France", "Ulysses", "Tyisha", "Eric", "Marg", "Laquita", "Lorrie", "Yun", "Ahmed", "Priya", "Oliver", "Mei"};
+    private static final String[] LAST_NAMES = {
+            "Tomkiewicz", "Zigomalas", "Andrade", "Mcwalters", "Veness", "Rampy", "Grasmick", "Hisaw", "Manzella", "Kang", "Patel", "Smith"};
+    // Per-passenger allowances written for every flight: weight, length, height, width, excess fee
+    private static final int ALLOWED_WEIGHT = 23, ALLOWED_LENGTH = 90, ALLOWED_HEIGHT = 75, ALLOWED_WIDTH = 45, EXCESS_FEE = 35;
+
+    private int flights = 5000;
+    private double loadFactor = 0.85; // Mean fraction of seats booked per flight
+    private boolean peakedDepartures = false; // Morning and evening banks instead of a uniform spread
+    private int firstDeparture = 5 * 60, lastDeparture = 23 * 60; // Departure window in minutes of the day
+    private double bagWeightMean = 17, bagWeightSd = 4; // Normal distribution of in-limit bag weights
+    private double oversizeRatio = 0.1; // Fraction of bags exceeding at least one allowance
+    private long seed = 1;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: java stage2.DatasetGenerator outputDir [--flights n] [--load-factor f] [--departures uniform|peaked]"
+                    + " [--first HH:MM] [--last HH:MM] [--bag-weight-mean kg] [--bag-weight-sd kg] [--oversize ratio] [--seed n]");
+            return;
+        }
+        DatasetGenerator generator = new DatasetGenerator();
+        for (int i = 1; i + 1 < args.length; i += 2) {
+            generator.setOption(args[i], args[i + 1]);
+        }
+        long bookings = generator.generate(new File(args[0]));
+        System.out.println("Wrote " + generator.flights + " flights and " + bookings + " bookings to " + args[0]);
+    }
+
+    // Applies a single command line option.
+    private void setOption(String name, String value) {
+        switch (name) {
+            case "--flights": flights = Integer.parseInt(value); break;
+            case "--load-factor": loadFactor = Double.parseDouble(value); break;
+            case "--departures":
+                if (!value.equals("uniform") && !value.equals("peaked")) {
+                    throw new IllegalArgumentException("Unknown departures " + value + ", expected uniform or peaked");
+                }
+                peakedDepartures = value.equals("peaked");
+                break;
+            case "--first": firstDeparture = parseTime(value); break;
+            case "--last": lastDeparture = parseTime(value); break;
+            case "--bag-weight-mean": bagWeightMean = Double.parseDouble(value); break;
+            case "--bag-weight-sd": bagWeightSd = Double.parseDouble(value); break;
+            case "--oversize": oversizeRatio = Double.parseDouble(value); break;
+            case "--seed": seed = Long.parseLong(value); break;
+            default: throw new IllegalArgumentException("Unknown option " + name);
+        }
+    }
+
+    /**
+     * Writes Flight.csv and Booking.csv into the given directory.
+     *
+     * @param directory Output directory, created if missing.
+     * @return Number of bookings written.
+     * @throws IOException If either file cannot be written.
+     */
+    public long generate(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create output directory " + directory);
+        }
+        if (flights > 10_000 * CARRIERS.length) {
+            throw new IllegalArgumentException("At most " + 10_000 * CARRIERS.length + " flights can be given unique codes.");
+        }
+        Random rnd = new Random(seed);
+        long bookingIndex = 0;
+        try (BufferedWriter flightOut = new BufferedWriter(new FileWriter(new File(directory, "Flight.csv")), 1 << 16);
+             BufferedWriter bookingOut = new BufferedWriter(new FileWriter(new File(directory, "Booking.csv")), 1 << 16)) {
+            for (int f = 0; f < flights; f++) {
+                String[] carrier = CARRIERS[f % CARRIERS.length];
+                String[] aircraft = AIRCRAFT[rnd.nextInt(AIRCRAFT.length)];
+                String flightCode = carrier[0] + (1000 + f / CARRIERS.length);
+                int seats = Integer.parseInt(aircraft[1]);
+                int departure = nextDeparture(rnd);
+                flightOut.write(flightCode + "," + carrier[1] + ",Edinburgh," + DESTINATIONS[rnd.nextInt(DESTINATIONS.length)] + ","
+                        + aircraft[0] + "," + seats + "," + ALLOWED_WEIGHT + "," + ALLOWED_LENGTH + "," + ALLOWED_HEIGHT + ","
+                        + ALLOWED_WIDTH + "," + EXCESS_FEE + "," + String.format("%02d:%02d", departure / 60, departure % 60));
+                flightOut.newLine();
+
+                // Load factor varies by up to +/-10% around the mean, capped at the seat count
+                double flightLoad = loadFactor * (0.9 + 0.2 * rnd.nextDouble());
+                int booked = (int) Math.min(seats, Math.round(seats * flightLoad));
+                for (int b = 0; b < booked; b++) {
+                    writeBooking(bookingOut, rnd, bookingIndex++, flightCode);
+                }
+            }
+        }
+        return bookingIndex;
+    }
+
+    // Writes one booking row with a unique reference and generated baggage.
+    private void writeBooking(BufferedWriter out, Random rnd, long index, String flightCode) throws IOException {
+        float weight, length, height, width;
+        weight = (float) clamp(bagWeightMean + bagWeightSd * rnd.nextGaussian(), 1, ALLOWED_WEIGHT);
+        length = (float) (ALLOWED_LENGTH * (0.5 + 0.5 * rnd.nextDouble()));
+        height = (float) (ALLOWED_HEIGHT * (0.5 + 0.5 * rnd.nextDouble()));
+        width = (float) (ALLOWED_WIDTH * (0.5 + 0.5 * rnd.nextDouble()));
+        if (rnd.nextDouble() < oversizeRatio) {
+            // Push one allowance over its limit by 10-50%
+            double over = 1.1 + 0.4 * rnd.nextDouble();
+            switch (rnd.nextInt(4)) {
+                case 0: weight = (float) (ALLOWED_WEIGHT * over); break;
+                case 1: length = (float) (ALLOWED_LENGTH * over); break;
+                case 2: height = (float) (ALLOWED_HEIGHT * over); break;
+                default: width = (float) (ALLOWED_WIDTH * over); break;
+            }
+        }
+        out.write(reference(index) + "," + FIRST_NAMES[rnd.nextInt(FIRST_NAMES.length)] + ","
+                + LAST_NAMES[rnd.nextInt(LAST_NAMES.length)] + "," + flightCode + ",N,"
+                + round(weight) + "," + round(length) + "," + round(height) + "," + round(width));
+        out.newLine();
+    }
+
+    // Picks a departure minute from the configured distribution within the departure window.
+    private int nextDeparture(Random rnd) {
+        double minute;
+        if (peakedDepartures) {
+            // Two banks centred at 07:30 and 18:00, each with a one hour standard deviation
+            double centre = rnd.nextBoolean() ? 7.5 * 60 : 18 * 60;
+            minute = centre + 60 * rnd.nextGaussian();
+        } else {
+            minute = firstDeparture + rnd.nextDouble() * (lastDeparture - firstDeparture);
+        }
+        return (int) clamp(minute, firstDeparture, lastDeparture);
+    }
+
+    // Turns a sequence number into a unique 8-digit hex reference; the mixing step is a bijection on 32 bits.
+    private static String reference(long index) {
+        int x = (int) index * 0x9E3779B1;
+        x ^= x >>> 16;
+        return String.format("%08x", x);
+    }
+
+    private static double clamp(double value, double min, double max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    // Rounds to one decimal place, like the random baggage in DataLoader.
+    private static float round(float value) {
+        return Math.round(value * 10.0f) / 10.0f;
+    }
+
+    private static int parseTime(String time) {
+        String[] parts = time.split(":");
+        return Integer.parseInt(parts[0]) * 60 + Integer.parseInt(parts[1]);
+    }
+}
@@ -0,0 +1,305 @@
+package stage2;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a scenario spanning several days with only a window of days in memory.
+ *
+ * The scenario directory holds one subdirectory per date, named yyyy-MM-dd, each with that day's flight and
+ * booking CSV files in the usual format. A departure is either HH:MM on the directory's date or a full
+ * "yyyy-MM-dd HH:MM" for flights leaving after midnight. Day N of the run covers simulation minutes
+ * N * 1440 to (N + 1) * 1440 - 1, counted from the earliest date.
+ *
+ * The first day is read before the run starts. While a day runs, the following days (up to daysAhead) are read
+ * on a background thread and installed on the next tick: flights are added, bookings are added and scheduled to
+ * arrive from the start of their day. A day is released once every one of its passengers has arrived and its
+ * last flight has departed: passengers still queuing leave the queue, and those who had not yet reached a counter
+ * are counted as having missed their flight, like those already recycling after missing it. Its bookings and
+ * flights are then dropped from memory, or spilled to the booking archive if one is configured. Released bookings
+ * are marked so counters drop them, and released flights tell their observers, which drop them too. The log is
+ * flushed to disk at the same time. Flight totals already in the report are kept, and the day's booking totals are
+ * added to the released totals.
+ *
+ * Flight codes and booking references repeat from day to day, so each day's flights and bookings are stored
+ * as code@date and reference@date, and that day's bookings are pointed at its flights.
+ */
+@SuppressWarnings("deprecation")
+public class DayWindowLoader implements Observer {
+    private final List<LocalDate> dates = new ArrayList<>();
+    private final Path directory;
+    private final int daysAhead;
+    private final AllFlights flights;
+    private final AllBookings bookings;
+    private final List<Observer> flightObservers;
+    private Queue queue; // Set by start()
+    private Day first; // Read by the constructor, installed by start()
+    private final Random rnd = new Random(); // Used only on the reading thread
+    private final ExecutorService reader = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "Day-loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<Integer, Day> installed = new TreeMap<>(); // Days in memory, by day index
+    private Future<Day> pending; // Day being read in the background, null if none
+    private int pendingIndex;
+    private int nextDay; // Index of the next day to read
+    private int releasedBookings, releasedCheckedIn, releasedMissed; // Totals of the days already released
+    private float releasedExcessFees;
+
+    /**
+     * Creates a loader over a scenario directory and reads its first day. Call start() before the simulation
+     * starts, then register the loader on the timer.
+     *
+     * @param directory       Scenario directory with one yyyy-MM-dd subdirectory per day.
+     * @param daysAhead       Days after the current one to read ahead of time, at least 1.
+     * @param flights         Flight store the days are added to.
+     * @param bookings        Booking store the days are added to.
+     * @param flightObservers Observers to register on every loaded flight. The list is read as each day is
+     *                        installed, so observers added to it before then are registered too.
+     * @throws IOException If the directory cannot be listed, holds no day directories, or its first day cannot
+     *                     be read.
+     */
+    public DayWindowLoader(Path directory, int daysAhead, AllFlights flights, AllBookings bookings,
+                           List<Observer> flightObservers) throws IOException {
+        if (daysAhead < 1) {
+            throw new IllegalArgumentException("Days ahead must be at least 1.");
+        }
+        this.directory = directory;
+        this.daysAhead = daysAhead;
+        this.flights = flights;
+        this.bookings = bookings;
+        this.flightObservers = flightObservers;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, Files::isDirectory)) {
+            for (Path entry : entries) {
+                try {
+                    dates.add(LocalDate.parse(entry.getFileName().toString()));
+                } catch (DateTimeParseException e) {
+                    // Not a day directory
+                }
+            }
+        }
+        if (dates.isEmpty()) {
+            throw new IOException("No yyyy-MM-dd day directories in " + directory);
+        }
+        Collections.sort(dates);
+        first = read(0);
+    }
+
+    /**
+     * Installs the first day, scheduling its passengers on the queue, then starts reading ahead.
+     *
+     * @param queue Queue that each day's passengers are scheduled on.
+     */
+    public synchronized void start(Queue queue) {
+        if (this.queue != null) {
+            throw new IllegalStateException("The loader has already started.");
+        }
+        this.queue = queue;
+        queue.setMoreArrivalsExpected(dates.size() > 1);
+        install(first, 0);
+        first = null;
+        nextDay = 1;
+        readAhead(0);
+    }
+
+    /**
+     * On every timer tick, installs a day that has finished reading, starts reading the next one
+     * if the window has room, and releases finished days. If a day is due to start before it has been read,
+     * e.g. in a headless run far faster than real time, the tick waits for it.
+     *
+     * @param o   Unused.
+     * @param arg The timer that ticked.
+     */
+    @Override
+    public void update(Observable o, Object arg) {
+        if (arg instanceof Timer) {
+            tick(((Timer) arg).getCurrentTime());
+        }
+    }
+
+    private synchronized void tick(int time) {
+        if (pending != null && (pending.isDone() || pendingIndex <= time / Timer.MINUTES_PER_DAY)) {
+            try {
+                install(pending.get(), time);
+            } catch (ExecutionException e) {
+                log(time, "Failed to load the next day: " + e.getCause().getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            pending = null;
+        }
+        readAhead(time / Timer.MINUTES_PER_DAY);
+        release(time);
+    }
+
+    // Starts reading the next day in the background if it falls within the window.
+    private void readAhead(int today) {
+        if (pending == null && nextDay < dates.size() && nextDay <= today + daysAhead) {
+            int index = nextDay++;
+            pendingIndex = index;
+            pending = reader.submit(() -> read(index));
+        }
+    }
+
+    // Adds a day's flights and bookings to the stores and schedules its passengers.
+    private void install(Day day, int time) {
+        for (Iterator<FlightDetails> iterator = day.flights.iterator(); iterator.hasNext(); ) {
+            FlightDetails flight = iterator.next();
+            try {
+                flights.addFlight(flight);
+            } catch (IllegalStateException e) {
+                iterator.remove(); // Listed twice in the day's file
+                continue;
+            }
+            flightObservers.forEach(flight::registerObserver);
+            flight.notifyObservers();
+        }
+        List<BookingDetails> added = new ArrayList<>(day.bookings.size());
+        for (BookingDetails booking : day.bookings) {
+            try {
+                bookings.addBooking(booking);
+                added.add(booking);
+            } catch (IllegalStateException e) {
+                day.members.remove(booking); // Listed twice in the day's file
+            }
+        }
+        day.bookings = null;
+        day.schedule = queue.scheduleArrivals(added, day.index * Timer.MINUTES_PER_DAY);
+        installed.put(day.index, day);
+        if (day.index == dates.size() - 1) {
+            queue.setMoreArrivalsExpected(false);
+        }
+        log(time, "Loaded " + day.date + ": " + day.flights.size() + " flights, "
+                + added.size() + " bookings.");
+    }
+
+    // Releases every installed day whose passengers have all arrived and whose last flight has departed.
+    private void release(int time) {
+        for (Iterator<Day> iterator = installed.values().iterator(); iterator.hasNext(); ) {
+            Day day = iterator.next();
+            if (!day.schedule.isExhausted() || time <= day.lastDeparture) {
+                continue;
+            }
+            // Marked first, so a counter holding one of these passengers drops them instead of queuing them again
+            day.members.forEach(BookingDetails::release);
+            int removed = queue.discard(day.members::contains);
+            for (BookingDetails booking : day.members) {
+                releasedBookings++;
+                if (booking.getCheckInStatus()) {
+                    releasedCheckedIn++;
+                } else {
+                    booking.missFlight(); // Every flight of the day has left, so a passenger not checked in missed it
+                    releasedMissed++;
+                }
+                bookings.release(booking);
+            }
+            for (FlightDetails flight : day.flights) {
+                flights.removeFlight(flight.getFlightCode());
+                releasedExcessFees += flight.getTotalExcessFees();
+                flight.release(); // Observers such as the GUI and snapshot publisher drop it
+            }
+            log(time, "Released " + day.date + ": " + day.flights.size() + " flights, " + day.members.size()
+                    + " bookings, " + removed + " passengers still queuing.");
+            Log.INSTANCE.flushToDisk();
+            iterator.remove();
+        }
+    }
+
+    // Reads one day's files. Runs on the reading thread, except for the first day, read by the constructor.
+    private Day read(int index) throws IOException {
+        LocalDate date = dates.get(index);
+        Path dayDirectory = directory.resolve(date.toString());
+        Day day = new Day(index, date);
+        String suffix = "@" + date; // Codes and references are qualified by date so days never collide
+        Set<String> codes = new HashSet<>();
+        DataLoader.readRows(DataLoader.dataFile(dayDirectory, "flightDetails.csv", "Flight.csv"), row -> {
+            FlightDetails flight = DataLoader.parseFlight(row, suffix, value -> departureMinute(value, date, dates.get(0)));
+            day.flights.add(flight);
+            codes.add(flight.getFlightCode());
+            day.lastDeparture = Math.max(day.lastDeparture, (int) flight.getDepartureTime());
+        });
+        DataLoader.readRows(DataLoader.dataFile(dayDirectory, "bookingDetails.csv", "Booking.csv"), row -> {
+            BookingDetails booking = DataLoader.parseBooking(row, suffix,
+                    code -> codes.contains(code + suffix) ? code + suffix : code, rnd);
+            day.bookings.add(booking);
+            day.members.add(booking);
+        });
+        return day;
+    }
+
+    /**
+     * Converts a departure to a simulation minute: HH:MM on the given date, or "yyyy-MM-dd HH:MM".
+     *
+     * @param value     Departure column.
+     * @param date      Date of the day being read.
+     * @param firstDate Date of day 0 of the run.
+     * @return Minutes since midnight of the first date.
+     */
+    static int departureMinute(String value, LocalDate date, LocalDate firstDate) {
+        String time = value.trim();
+        int space = time.indexOf(' ');
+        if (space > 0) {
+            date = LocalDate.parse(time.substring(0, space));
+            time = time.substring(space + 1).trim();
+        }
+        String[] parts = time.split(":");
+        long days = ChronoUnit.DAYS.between(firstDate, date);
+        return (int) (days * Timer.MINUTES_PER_DAY) + Integer.parseInt(parts[0]) * 60 + Integer.parseInt(parts[1]);
+    }
+
+    // Returns the number of days currently held in memory.
+    public synchronized int getInstalledDays() {
+        return installed.size();
+    }
+
+    // Bookings, check-ins, missed flights and excess fees of the days released so far, no longer in the stores.
+    public AllFlights getFlights() { return flights; }
+    public AllBookings getBookings() { return bookings; }
+    public synchronized int getReleasedBookings() { return releasedBookings; }
+    public synchronized int getReleasedCheckedIn() { return releasedCheckedIn; }
+    public synchronized int getReleasedMissed() { return releasedMissed; }
+    public synchronized float getReleasedExcessFees() { return releasedExcessFees; }
+
+    private static void log(int time, String message) {
+        Log.INSTANCE.addMessage("[Day " + (time / Timer.MINUTES_PER_DAY + 1) + "] " + message);
+    }
+
+    // One day of the scenario: its flights, and its bookings until they are handed to the stores.
+    private static class Day {
+        private final int index;
+        private final LocalDate date;
+        private final List<FlightDetails> flights = new ArrayList<>();
+        private List<BookingDetails> bookings = new ArrayList<>();
+        private final Set<BookingDetails> members = Collections.newSetFromMap(new IdentityHashMap<>());
+        private int lastDeparture;
+        private ArrivalSchedule schedule;
+
+        Day(int index, LocalDate date) {
+            this.index = index;
+            this.date = date;
+        }
+    }
+}
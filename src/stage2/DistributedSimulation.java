@@ -0,0 +1,222 @@
+package stage2;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Coordinator of a simulation split across several JVMs. Each SimulationWorker runs its own Timer, Queue and
+ * Counters for a share of the flights; the coordinator keeps their clocks in step and merges their reports.
+ *
+ * Time is synchronised conservatively: the coordinator grants a window of simulated minutes with ADVANCE, and no
+ * worker starts the next window until every worker has reported DONE for the current one. Partitions share no
+ * flights or passengers, so a window of one minute (the default) keeps every process within a tick of the others;
+ * a larger --lookahead trades that for fewer round trips.
+ *
+ * Usage: java stage2.DistributedSimulation [--workers 4] [--counters 6] [--lookahead 1] [--until 1440]
+ *        [--port 0] [--bind 127.0.0.1] [--external] [--out distributed_report]
+ *
+ * --counters is the total for the whole simulation, as in a single-JVM run. Every worker gets one counter and the
+ * rest are shared out in proportion to each partition's bookings (see SimulationWorker.counterShare). The arrival
+ * rate is scaled by the same booking share, so the distributed run is a split of the same airport rather than one
+ * airport per worker.
+ *
+ * By default the workers are started as child processes on this host, reading the same data directory.
+ * With --external the coordinator only listens, and workers are started by hand (e.g. on other machines) with
+ * java stage2.SimulationWorker host port index workerCount [totalCounters].
+ */
+public class DistributedSimulation {
+    private final List<Socket> sockets = new ArrayList<>();
+    private final List<BufferedReader> readers = new ArrayList<>();
+    private final List<PrintWriter> writers = new ArrayList<>();
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int workers = 4, counters = 6, lookahead = 1, until = 24 * 60, port = 0;
+        String bind = "127.0.0.1", out = "distributed_report";
+        boolean external = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--workers": workers = Integer.parseInt(args[++i]); break;
+                case "--counters": counters = Integer.parseInt(args[++i]); break;
+                case "--lookahead": lookahead = Integer.parseInt(args[++i]); break;
+                case "--until": until = Integer.parseInt(args[++i]); break;
+                case "--port": port = Integer.parseInt(args[++i]); break;
+                case "--bind": bind = args[++i]; break;
+                case "--external": external = true; break;
+                case "--out": out = args[++i]; break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        if (workers < 1 || lookahead < 1) {
+            throw new IllegalArgumentException("--workers and --lookahead must be at least 1");
+        }
+        if (counters < workers) {
+            throw new IllegalArgumentException("--counters must be at least --workers, so every partition has a counter");
+        }
+
+        DistributedSimulation coordinator = new DistributedSimulation();
+        List<Process> children = new ArrayList<>();
+        try {
+            try (ServerSocket server = new ServerSocket(port, workers, InetAddress.getByName(bind))) {
+                System.out.println("Coordinator listening on " + bind + ":" + server.getLocalPort() + " for " + workers + " workers");
+                if (!external) {
+                    for (int i = 0; i < workers; i++) {
+                        children.add(startWorker(bind, server.getLocalPort(), i, workers, counters));
+                    }
+                }
+                coordinator.accept(server, workers);
+            }
+            long start = System.nanoTime();
+            SimulationReport report = coordinator.run(lookahead, until);
+            report.writeToDisk(out);
+            System.out.println(String.format("Finished in %.2f s; report written to %s.csv and %s.json",
+                    (System.nanoTime() - start) / 1e9, out, out));
+            coordinator.close();
+            for (Process child : children) {
+                child.waitFor();
+            }
+        } finally {
+            // After a failure the workers would wait for the coordinator forever
+            coordinator.close();
+            for (Process child : children) {
+                if (child.isAlive()) child.destroy();
+            }
+        }
+    }
+
+    // Starts one worker in a child JVM with the same classpath and JVM options, sharing this console.
+    private static Process startWorker(String host, int port, int index, int workers, int counters) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.addAll(Arrays.asList("-cp", System.getProperty("java.class.path"), SimulationWorker.class.getName(),
+                host, String.valueOf(port), String.valueOf(index), String.valueOf(workers), String.valueOf(counters)));
+        return new ProcessBuilder(command).inheritIO().start();
+    }
+
+    // Waits for every worker to connect and say hello, ordering the connections by partition index.
+    private void accept(ServerSocket server, int workers) throws IOException {
+        Socket[] byIndex = new Socket[workers];
+        BufferedReader[] readerByIndex = new BufferedReader[workers];
+        for (int connected = 0; connected < workers; connected++) {
+            Socket socket = server.accept();
+            socket.setTcpNoDelay(true);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            String hello = reader.readLine();
+            if (hello == null || !hello.startsWith("HELLO ")) {
+                throw new IllegalStateException("Unexpected greeting from worker: " + hello);
+            }
+            int index = Integer.parseInt(hello.substring("HELLO ".length()));
+            if (index < 0 || index >= workers || byIndex[index] != null) {
+                throw new IllegalStateException("Worker index " + index + " is out of range or already connected");
+            }
+            byIndex[index] = socket;
+            readerByIndex[index] = reader;
+        }
+        for (int i = 0; i < workers; i++) {
+            sockets.add(byIndex[i]);
+            readers.add(readerByIndex[i]);
+            writers.add(new PrintWriter(new OutputStreamWriter(byIndex[i].getOutputStream(), StandardCharsets.UTF_8)));
+        }
+    }
+
+    /**
+     * Advances every worker window by window until all are idle or the time limit is reached,
+     * then collects and merges their reports.
+     *
+     * @param lookahead Simulated minutes granted per window.
+     * @param until     Last simulated minute to run.
+     * @return The merged report.
+     * @throws IOException If a worker connection fails.
+     */
+    public SimulationReport run(int lookahead, int until) throws IOException {
+        int time = 0;
+        boolean allIdle = false;
+        while (time < until && !allIdle) {
+            int next = Math.min(until, time + lookahead);
+            broadcast("ADVANCE " + next);
+            allIdle = true;
+            int checkedIn = 0, queued = 0;
+            for (BufferedReader reader : readers) {
+                int[] done = parseDone(expect(reader, "DONE "));
+                if (done[0] != next) {
+                    throw new IllegalStateException("Worker reported time " + done[0] + " instead of " + next);
+                }
+                checkedIn += done[1];
+                queued += done[2];
+                allIdle &= done[3] == 1;
+            }
+            if (next / 60 != time / 60 || allIdle) {
+                System.out.println(String.format("[%02d:%02d] %d checked in, %d queued across %d workers",
+                        next / 60 % 24, next % 60, checkedIn, queued, readers.size()));
+            }
+            time = next;
+        }
+
+        broadcast("FINISH");
+        SimulationReport merged = new SimulationReport(new AllFlights());
+        for (BufferedReader reader : readers) {
+            String line;
+            while (!(line = expect(reader, "")).equals("END")) {
+                if (!line.startsWith("GROUP ")) {
+                    throw new IllegalStateException("Unexpected message from worker: " + line);
+                }
+                merged.mergeGroup(ReportAggregate.decode(line.substring("GROUP ".length())));
+            }
+        }
+        return merged;
+    }
+
+    // Reads "DONE t checkedIn queued idle" as its four numbers.
+    private static int[] parseDone(String line) {
+        String[] fields = line.split(" ");
+        if (fields.length != 5) {
+            throw new IllegalStateException("Expected DONE t checkedIn queued idle from worker but got: " + line);
+        }
+        try {
+            int[] values = new int[4];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = Integer.parseInt(fields[i + 1]);
+            }
+            return values;
+        } catch (NumberFormatException e) {
+            throw new IllegalStateException("Malformed DONE from worker: " + line);
+        }
+    }
+
+    private void broadcast(String message) {
+        for (PrintWriter writer : writers) {
+            writer.println(message);
+            writer.flush();
+        }
+    }
+
+    // Reads the next line from a worker, failing if the worker has gone or sent something else.
+    private static String expect(BufferedReader reader, String prefix) throws IOException {
+        String line = reader.readLine();
+        if (line == null) {
+            throw new IOException("Worker disconnected");
+        }
+        if (!line.startsWith(prefix)) {
+            throw new IllegalStateException("Expected " + prefix.trim() + " from worker but got: " + line);
+        }
+        return line;
+    }
+
+    private void close() throws IOException {
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+    }
+}
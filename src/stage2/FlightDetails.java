@@ -5,6 +5,7 @@ import java.util.List;
 import java.util.Observer;
 
 //Represent a flight, tracking details such as passengers, baggage, and flight status. And ensure baggage limits are enforced and manages observer notifications for state changes.
+//Check-in updates are synchronized because several counters may serve passengers of the same flight at once.
 @SuppressWarnings({"serial","deprecation"})
 public class FlightDetails implements Subject {
     // Identifier for the flight, typically combining airline code and flight number.
@@ -28,9 +29,11 @@ public class FlightDetails implements Subject {
     // Fee charged for baggage exceeding the allowed limits.
     private float excessFeeCharge;
     // Planned departure time of the flight.
-    private float departureTime;
+    private volatile float departureTime;
     // Indicates whether boarding is currently allowed.
     private boolean gateOpen;
+    // Set once the flight's day of a multi-day run is over and it has left the flight store.
+    private volatile boolean released;
     // current total number of checked-in passengers.
     private int numberOfPassengers;
     // Observers to be notified of changes in flight status.
@@ -63,6 +66,31 @@ public class FlightDetails implements Subject {
         this.gateOpen = true;
     }
 
+    //Returns an independent copy of the flight and its check-in totals, without observers, e.g. for a what-if branch.
+    public synchronized FlightDetails copy() {
+        FlightDetails copy = new FlightDetails(flightCode, destination, carrier, maxPassengers, allowedBaggageWeight,
+                allowedBaggageLength, allowedBaggageHeight, allowedBaggageWidth, excessFeeCharge, 0);
+        copy.departureTime = this.departureTime;
+        copy.totalBaggageWeight = this.totalBaggageWeight;
+        copy.totalBaggageVolume = this.totalBaggageVolume;
+        copy.totalExcessFees = this.totalExcessFees;
+        copy.gateOpen = this.gateOpen;
+        copy.numberOfPassengers = this.numberOfPassengers;
+        return copy;
+    }
+
+    //Marks the flight as released and tells its observers, who drop it, then forgets them.
+    public synchronized void release() {
+        this.released = true;
+        notifyObserversOfChange();
+        registeredObservers.clear();
+    }
+
+    //Returns true once the flight has been released, e.g. for an observer deciding whether to drop it.
+    public boolean isReleased() {
+        return released;
+    }
+
     //Calculates the allowed baggage volume based on its dimensions.
     private float calculateVolume() {
         return allowedBaggageLength * allowedBaggageHeight * allowedBaggageWidth;
@@ -70,44 +98,90 @@ public class FlightDetails implements Subject {
 
 
     //Add passengers and notify observers of the status change.
-    public void addPassenger() {
+    public synchronized void addPassenger() {
         this.numberOfPassengers += 1;
         notifyObserversOfChange();
     }
 
     //Check if the boarding gate is open. If the boarding time has passed, close the boarding gate and record it.
-    public boolean checkGateOpen(int currentTime, String currentTimeString) {
+    public synchronized boolean checkGateOpen(int currentTime, String currentTimeString) {
         if (currentTime >= this.departureTime && this.gateOpen) {
-            closeGate();
+            closeGate(currentTime);
             logFlightDeparture(currentTimeString);
         }
         return this.gateOpen;
     }
 
     //Check if the luggage is overweight or oversized. If it exceeds the limit, charge an additional fee.
-    public void checkBaggage(float weight, float length, float height, float width) {
+    public synchronized void checkBaggage(float weight, float length, float height, float width) {
         float volume = calculateVolume(length, height, width);
         updateTotalBaggage(weight, volume);
         enforceBaggageLimits(weight, volume);
     }
 
     //Check the luggage based on its volume, the logic is the same as above.
-    public void checkBaggageByVolume(float weight, float volume) {
+    public synchronized void checkBaggageByVolume(float weight, float volume) {
         updateTotalBaggage(weight, volume);
         enforceBaggageLimits(weight, volume);
     }
 
+    /**
+     * Assesses a batch of bags in one pass, for group check-ins and offline re-scoring.
+     * Volumes, limit violations and totals are computed in a single branch-free loop over primitive arrays
+     * that the JIT can vectorise, and the flight totals are updated once at the end instead of per bag.
+     * Unlike checkBaggage, an oversize bag is reported in the result rather than by throwing.
+     *
+     * @param weights Bag weights.
+     * @param lengths Bag lengths.
+     * @param heights Bag heights.
+     * @param widths  Bag widths.
+     * @return Per-bag volumes and violations together with the batch totals.
+     */
+    public synchronized BaggageBatchResult checkBaggageBatch(float[] weights, float[] lengths, float[] heights, float[] widths) {
+        int n = weights.length;
+        if (lengths.length != n || heights.length != n || widths.length != n) {
+            throw new IllegalArgumentException("Baggage arrays must all have the same length.");
+        }
+        float[] volumes = new float[n];
+        boolean[] overLimit = new boolean[n];
+        float weightLimit = this.allowedBaggageWeight;
+        float volumeLimit = this.allowedBaggageVolume;
+        float weightSum = 0, volumeSum = 0;
+        int overLimitCount = 0;
+        for (int i = 0; i < n; i++) {
+            float volume = lengths[i] * heights[i] * widths[i];
+            boolean over = weights[i] > weightLimit | volume > volumeLimit;
+            volumes[i] = volume;
+            overLimit[i] = over;
+            weightSum += weights[i];
+            volumeSum += volume;
+            overLimitCount += over ? 1 : 0;
+        }
+        float fees = overLimitCount * this.excessFeeCharge;
+        updateTotalBaggage(weightSum, volumeSum);
+        this.totalExcessFees += fees;
+        return new BaggageBatchResult(volumes, overLimit, overLimitCount, weightSum, volumeSum, fees);
+    }
+
     private void notifyObserversOfChange() {
-        for (Observer obs : registeredObservers) obs.update(null, this);
+        for (Observer obs : registeredObservers) SimulationEvents.dispatch(this, obs, null, this);
     }
 
-    private void closeGate() {
+    private void closeGate(int currentTime) {
         this.gateOpen = false;
+        SimulationEvents.GateClosed event = new SimulationEvents.GateClosed();
+        if (event.shouldCommit()) {
+            event.flight = this.flightCode;
+            event.minute = currentTime;
+            event.passengers = this.numberOfPassengers;
+            event.capacity = this.maxPassengers;
+            event.commit();
+        }
         notifyObserversOfChange();
     }
 
     private void logFlightDeparture(String timeString) {
-        Log.INSTANCE.addMessage(timeString + " Flight " + this.flightCode + " has taken off.");
+        Log.INSTANCE.addMessage(Log.Category.FLIGHT, Log.Level.INFO, timeString + " Flight " + this.flightCode + " has taken off.");
     }
 
     private float calculateVolume(float length, float height, float width) {
@@ -138,7 +212,7 @@ public class FlightDetails implements Subject {
 
     @Override
     public void notifyObservers() {
-        for(Observer obs : registeredObservers) obs.update(null, this);
+        for(Observer obs : registeredObservers) SimulationEvents.dispatch(this, obs, null, this);
     }
 
     // Defines an exception for when baggage exceeds allowed limits, providing a message to indicate the specific issue.
@@ -148,6 +222,30 @@ public class FlightDetails implements Subject {
         }
     }
 
+    // Outcome of checkBaggageBatch: per-bag volumes and violations, plus what the batch added to the flight totals.
+    public static class BaggageBatchResult {
+        private final float[] volumes;
+        private final boolean[] overLimit;
+        private final int overLimitCount;
+        private final float totalWeight, totalVolume, totalFees;
+
+        BaggageBatchResult(float[] volumes, boolean[] overLimit, int overLimitCount, float totalWeight, float totalVolume, float totalFees) {
+            this.volumes = volumes;
+            this.overLimit = overLimit;
+            this.overLimitCount = overLimitCount;
+            this.totalWeight = totalWeight;
+            this.totalVolume = totalVolume;
+            this.totalFees = totalFees;
+        }
+
+        public float[] getVolumes() { return volumes; }
+        public boolean[] getOverLimit() { return overLimit; }
+        public int getOverLimitCount() { return overLimitCount; }
+        public float getTotalWeight() { return totalWeight; }
+        public float getTotalVolume() { return totalVolume; }
+        public float getTotalFees() { return totalFees; }
+    }
+
     // Returns the current status of the gate, indicating whether it is open (true) or closed (false).
     public boolean getGateOpen(){
         return this.gateOpen;
@@ -169,6 +267,13 @@ public class FlightDetails implements Subject {
     public float getTotalExcessFees() { return totalExcessFees; }
     public int getNumberOfPassengers() { return numberOfPassengers; }
     public float getExcessFeeCharge() { return excessFeeCharge; }
+    public float getDepartureTime() { return departureTime; }
+
+    // Applies a schedule change. A flight whose gate has already closed stays departed.
+    public synchronized void setDepartureTime(int time) {
+        this.departureTime = time;
+        notifyObserversOfChange();
+    }
 
     // Calculates and returns the percentage of baggage compartment capacity utilized, considering both weight and volume.
     public float getBaggagePercent() {
@@ -183,7 +288,7 @@ public class FlightDetails implements Subject {
     // Logs a message with the current time. Used for tracking events or changes related to the flight.
     private void logMessage(String message, String currentTimeString){
         Log l = Log.INSTANCE;
-        l.addMessage(currentTimeString + " " + message);
+        l.addMessage(Log.Category.FLIGHT, Log.Level.INFO, currentTimeString + " " + message);
     }
 
 
@@ -7,6 +7,7 @@ import javax.swing.event.ChangeListener;
 
 import java.awt.*;
 import java.awt.event.*;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.List;
@@ -15,6 +16,9 @@ import java.util.Observer;
 
 public class GUI implements Observer, ChangeListener {
     class PassengerComponent extends JPanel {
+        private final BookingDetails booking;
+        private final JLabel flightText;
+        private final boolean missed;
         /**
          * Constructs a panel to display booking details for a passenger.
          * This panel displays the flight code, full name of the passenger,
@@ -25,12 +29,25 @@ public class GUI implements Observer, ChangeListener {
          * @param currentBookingDetails The booking details for the current passenger.
          */
         public PassengerComponent(BookingDetails currentBookingDetails) {
+            this(currentBookingDetails, currentBookingDetails.getMissedFlight());
+        }
+
+        /**
+         * Constructs the panel with an explicit missed flight state, used when showing a rewound minute
+         * in which the passenger had not yet missed their flight.
+         *
+         * @param currentBookingDetails The booking details for the passenger.
+         * @param missedFlight          Whether to show the passenger as having missed their flight.
+         */
+        public PassengerComponent(BookingDetails currentBookingDetails, boolean missedFlight) {
             // Set an empty border
             this.setBorder(createBorder(""));
             // Use a GridLayout with 4 columns
             this.setLayout(new GridLayout(0, 4));
             // Create and add components for displaying booking details
-            JLabel flightText = new JLabel(currentBookingDetails.getFlightCode(), SwingConstants.CENTER);
+            this.booking = currentBookingDetails;
+            this.missed = missedFlight;
+            flightText = new JLabel(currentBookingDetails.getFlightCode(), SwingConstants.CENTER);
             this.add(flightText);
             JLabel nameText = new JLabel(currentBookingDetails.getFullName(), SwingConstants.CENTER);
             this.add(nameText);
@@ -42,12 +59,26 @@ public class GUI implements Observer, ChangeListener {
             this.setMaximumSize(new Dimension(Integer.MAX_VALUE, 18));
             // Set a tooltip with the passenger's name and booking reference
             this.setToolTipText("<html>" + "Name: " + currentBookingDetails.getFullName() + "<br>" + "Booking Reference: " + currentBookingDetails.getReference().toUpperCase() + "</html>");
-            if (currentBookingDetails.getMissedFlight()) {
+            if (missedFlight) {
                 // Highlight in red and show missed flight status if applicable
                 flightText.setForeground(Color.red);
                 this.setToolTipText("<html>" + "Name: " + currentBookingDetails.getFullName() + "<br>" + "Booking Reference: " + currentBookingDetails.getReference().toUpperCase() + "<br>" + "MISSED FLIGHT" + "</html>");
                 this.setEnabled(false);
             }
+            else if (currentBookingDetails.isAtRisk()) {
+                setAtRisk(true);
+            }
+        }
+
+        /**
+         * Highlights the flight code in orange while the passenger is not expected to reach a counter before departure.
+         *
+         * @param atRisk Whether the passenger is at risk of missing their flight.
+         */
+        public void setAtRisk(boolean atRisk) {
+            if (missed) return; // already shown in red
+            flightText.setForeground(atRisk ? Color.orange.darker() : UIManager.getColor("Label.foreground"));
+            this.setToolTipText("<html>" + "Name: " + booking.getFullName() + "<br>" + "Booking Reference: " + booking.getReference().toUpperCase() + (atRisk ? "<br>" + "AT RISK OF MISSING FLIGHT" : "") + "</html>");
         }
     }
 
@@ -56,6 +87,7 @@ public class GUI implements Observer, ChangeListener {
         JLabel bagDetails; // Label to display the details of baggage being processed.
         JLabel feeDetails; // Label to display any extra fees associated with the baggage.
         Counter counter; // Reference to the CheckinCounter object this desk component represents.
+        JButton counterButton; // Button to open or close the desk, kept in step when the autoscaler toggles it.
 
         /**
          * Constructor for the DeskComponent class. It sets up the UI for a check-in desk, including
@@ -79,7 +111,7 @@ public class GUI implements Observer, ChangeListener {
             this.add(feeDetails); // Add the fees details label to the panel.
 
             // Create a button to toggle the open/close status of the desk.
-            JButton counterButton = new JButton("Close counter");
+            counterButton = new JButton("Close counter");
             this.add(counterButton);
             // Add action listener to the button to handle clicks.
             counterButton.addActionListener(new ActionListener() {
@@ -111,9 +143,19 @@ public class GUI implements Observer, ChangeListener {
          *                              served at this desk.
          */
         public void setcontents(BookingDetails currentBookingDetails) {
+            setcontents(currentBookingDetails, currentBookingDetails == null ? 0 : currentBookingDetails.getExcessFeeCharged());
+        }
+        /**
+         * Shows a booking with the fee given rather than the booking's live one, e.g. the fee recorded in a snapshot.
+         *
+         * @param currentBookingDetails The booking to show, or null if the desk is not serving anyone.
+         * @param bagFee                The excess baggage fee to show.
+         */
+        public void setcontents(BookingDetails currentBookingDetails, float bagFee) {
             // Re-enable the desk in case it was previously disabled. This is necessary to ensure
             // the desk can show current booking details after it has been re-opened.
             this.setEnabled(true);
+            counterButton.setText("Close Counter");
 
             // Check if there are booking details to display.
             if(currentBookingDetails != null) {
@@ -123,7 +165,6 @@ public class GUI implements Observer, ChangeListener {
 
                 // Check if there's any excess baggage fee charged and construct an appropriate message.
                 // The message varies depending on whether an extra fee is due.
-                Float bagFee = currentBookingDetails.getExcessFeeCharged();
                 String feeText = (bagFee == 0) ? "No baggage fee is due" : "A baggage fee of \u00a3" + bagFee + " is due";
                 feeDetails.setText(feeText); // Display the constructed fee message.
             } else {
@@ -150,6 +191,7 @@ public class GUI implements Observer, ChangeListener {
             this.setEnabled(false);//close desk and gray gui element
             bagDetails.setText("Counter Closed");
             feeDetails.setText(" ");
+            counterButton.setText("Open Counter");
         }
     }
 
@@ -179,13 +221,31 @@ public class GUI implements Observer, ChangeListener {
          * @param currentFlight The flight object from which to pull the latest information.
          */
         public void setcontents(FlightDetails currentFlight) {
-            checkedIn.setText(currentFlight.getNumberOfPassengers() + " checked in of " + currentFlight.getMaxPassengers());//set text for passenger info
-            holdPercent.setText("Hold is " + currentFlight.getBaggagePercent() + "% full");//set text for luggage info
-            this.setToolTipText("<html>" + "Flight: " + currentFlight.getFlightCode() +"<br>" + "Carrier: " + currentFlight.getCarrier() +"<br>" + "Destination: " + currentFlight.getDestination() +"<br>"+"Total fees collected: \u00a3"+currentFlight.getTotalExcessFees()+ "</html>");// set text for cursor hover
-            if(!currentFlight.getGateOpen()){
+            setcontents(currentFlight, currentFlight.getNumberOfPassengers(), currentFlight.getBaggagePercent(),
+                    currentFlight.getTotalExcessFees(), currentFlight.getGateOpen());
+        }
+        /**
+         * Updates the labels with the given values rather than the flight's live ones, so a rewound minute can be shown.
+         * A flight shown as open again after being shown departed gets its normal border back.
+         *
+         * @param currentFlight The flight, for its code, carrier, destination and capacity.
+         * @param passengers    Checked-in passengers to show.
+         * @param baggagePercent Hold utilization to show.
+         * @param fees          Total fees collected to show.
+         * @param gateOpen      Whether the gate is open.
+         */
+        public void setcontents(FlightDetails currentFlight, int passengers, float baggagePercent, float fees, boolean gateOpen) {
+            checkedIn.setText(passengers + " checked in of " + currentFlight.getMaxPassengers());//set text for passenger info
+            holdPercent.setText("Hold is " + baggagePercent + "% full");//set text for luggage info
+            this.setToolTipText("<html>" + "Flight: " + currentFlight.getFlightCode() +"<br>" + "Carrier: " + currentFlight.getCarrier() +"<br>" + "Destination: " + currentFlight.getDestination() +"<br>"+"Total fees collected: \u00a3"+fees+ "</html>");// set text for cursor hover
+            if(!gateOpen){
                 this.setBorder(createBorder(currentFlight.getFlightCode() + " DEPARTED")); // set border text when flight has departed
                 this.setEnabled(false);//disable component
             }
+            else if(!this.isEnabled()){
+                this.setBorder(createBorder(currentFlight.getFlightCode())); // rewound to before departure
+                this.setEnabled(true);
+            }
         }
     }
     static JFrame frame;
@@ -196,6 +256,29 @@ public class GUI implements Observer, ChangeListener {
     private SimulationTime t;
     private DeskComponent[] allDeskComponents;
     private HashMap<String,FlightComponent> allFlightComponents;
+    private HashMap<BookingDetails,PassengerComponent> queueComponents = new HashMap<>();
+    private volatile int passengerPanels; // queueComponents.size(), readable off the Swing event thread
+    private static final int PASSENGER_PANEL_BYTES = 4900; // A PassengerComponent with its labels, border and tooltip, measured
+    private JLabel memoryLabel; // Largest structures from the memory monitor, null until one is attached
+    private JPanel controlsPanel;
+    private JButton playButton;
+    private JButton pauseButton;
+    private RewindBuffer rewindBuffer; // Recent history to seek in, null when rewinding is disabled
+    private Timer rewindTimer;
+    private JSlider rewindSlider;
+    private javax.swing.Timer replayTimer; // Steps the rewind slider forward during a replay
+    private volatile boolean replaying; // While true, live updates are ignored and a past minute is shown
+    private boolean movingRewindSlider; // Set while the slider is moved by the clock rather than by the user
+    private boolean runningBeforeReplay;
+
+    /**
+     * Shows a warning dialog, e.g. when the data files cannot be read, and waits for it to be dismissed.
+     *
+     * @param message Text of the warning.
+     */
+    public static void showWarning(String message) {
+        JOptionPane.showMessageDialog(null, message, "Alert", JOptionPane.WARNING_MESSAGE);
+    }
 
     public GUI(SimulationTime t, List<Counter> allCounters, HashMap<String,FlightDetails> allFlights) {
         ToolTipManager.sharedInstance().setInitialDelay(0); // tooltips show immediately
@@ -243,11 +326,11 @@ public class GUI implements Observer, ChangeListener {
         });
 
         // Controls Panel
-        JPanel controlsPanel = new JPanel();
+        controlsPanel = new JPanel();
         controlsPanel.setLayout(new FlowLayout(FlowLayout.LEFT));
 
-        JButton playButton = new JButton("Play");
-        JButton pauseButton = new JButton("Pause");
+        playButton = new JButton("Play");
+        pauseButton = new JButton("Pause");
         setupControlButtons(playButton, pauseButton);
 
         JSlider speedSlider = setupSpeedSlider();
@@ -259,6 +342,7 @@ public class GUI implements Observer, ChangeListener {
         controlsPanel.add(pauseButton);
         controlsPanel.add(speedSlider);
         controlsPanel.add(clock);
+        controlsPanel.add(setupLogButton(checkFrame));
 
         // Adding tabbedPane and controlsPanel to the main frame
         checkFrame.add(tabbedPane, BorderLayout.CENTER);
@@ -292,6 +376,222 @@ public class GUI implements Observer, ChangeListener {
             pauseButton.setEnabled(false);
         });
     }
+
+    /**
+     * Creates a button that opens the log settings: a level and a rate limit per category, applied as soon as
+     * they are changed, beside the number of messages each category has dropped so far.
+     *
+     * @param owner Window the settings open over.
+     * @return The button.
+     */
+    private JButton setupLogButton(JFrame owner) {
+        JButton logButton = new JButton("Log levels");
+        logButton.addActionListener(e -> {
+            JPanel rows = new JPanel(new GridLayout(0, 4, 8, 4));
+            rows.setBorder(BorderFactory.createEmptyBorder(8, 8, 8, 8));
+            rows.add(new JLabel("Category"));
+            rows.add(new JLabel("Level"));
+            rows.add(new JLabel("Messages/s (0 = all)"));
+            rows.add(new JLabel("Dropped"));
+            for (Log.Category category : Log.Category.values()) {
+                JComboBox<Log.Level> level = new JComboBox<>(Log.Level.values());
+                level.setSelectedItem(category.getLevel());
+                level.addActionListener(event -> category.setLevel((Log.Level) level.getSelectedItem()));
+                JSpinner rate = new JSpinner(new SpinnerNumberModel(category.getRatePerSecond(), 0, 1000000, 50));
+                rate.addChangeListener(event -> category.setRatePerSecond((Integer) rate.getValue()));
+                rows.add(new JLabel(category.name().toLowerCase()));
+                rows.add(level);
+                rows.add(rate);
+                rows.add(new JLabel(category.getFiltered() + " below level, " + category.getSampled() + " sampled out"));
+            }
+            JDialog dialog = new JDialog(owner, "Log levels", false);
+            dialog.add(rows);
+            dialog.pack();
+            dialog.setLocationRelativeTo(owner);
+            dialog.setVisible(true);
+        });
+        return logButton;
+    }
+    /**
+     * Adds a "What if?" button to every desk. It forks the run twice in the background, once as it is and once with
+     * the desk opened or closed now, and shows both projections side by side when they finish.
+     *
+     * @param runner The what-if runner over the live simulation.
+     */
+    public void attachWhatIfRunner(WhatIfRunner runner) {
+        SwingUtilities.invokeLater(() -> {
+            for (DeskComponent desk : allDeskComponents) {
+                JButton whatIfButton = new JButton("What if?");
+                whatIfButton.addActionListener(e -> {
+                    int number = desk.counter.getCounterNumber();
+                    boolean open = desk.counter.getIsOpen();
+                    whatIfButton.setEnabled(false);
+                    runner.fork("As is", branch -> { })
+                            .thenCombine(runner.fork((open ? "Close" : "Open") + " desk " + number + " now",
+                                    branch -> branch.setCounterOpen(number, !open)), (asIs, changed) -> asIs + "\n" + changed)
+                            .whenComplete((text, error) -> SwingUtilities.invokeLater(() -> {
+                                whatIfButton.setEnabled(true);
+                                JOptionPane.showMessageDialog(frame, error == null ? text : "The what-if run failed: " + error.getMessage(),
+                                        "What if", JOptionPane.INFORMATION_MESSAGE);
+                            }));
+                });
+                desk.add(whatIfButton);
+                desk.revalidate();
+            }
+        });
+    }
+
+    // Returns the number of passenger panels in the queue tab.
+    public int getPassengerPanelCount() {
+        return passengerPanels;
+    }
+
+    // Returns the estimated bytes held by the passenger panels in the queue tab.
+    public long estimatePassengerPanelBytes() {
+        return (long) passengerPanels * PASSENGER_PANEL_BYTES;
+    }
+
+    /**
+     * Adds a label to the controls showing the three largest structures at each memory sample, in red while any
+     * structure is over its budget; the tooltip lists them all.
+     *
+     * @param monitor The memory monitor to follow.
+     */
+    public void attachMemoryMonitor(MemoryMonitor monitor) {
+        SwingUtilities.invokeLater(() -> {
+            memoryLabel = new JLabel("Memory: waiting for sample");
+            controlsPanel.add(memoryLabel);
+            controlsPanel.revalidate();
+            monitor.registerObserver(this);
+        });
+    }
+    /**
+     * Shows a memory sample in the memory label.
+     *
+     * @param sample The latest sample.
+     */
+    private void updateMemory(MemoryMonitor.Sample sample) {
+        List<MemoryMonitor.Usage> usages = new ArrayList<>(sample.getUsages());
+        usages.sort((a, b) -> Long.compare(b.getBytes(), a.getBytes()));
+        StringBuilder text = new StringBuilder("Memory:");
+        StringBuilder tooltip = new StringBuilder("<html>");
+        for (int i = 0; i < usages.size(); i++) {
+            MemoryMonitor.Usage usage = usages.get(i);
+            String line = String.format("%s %.1f MB", usage.getName(), usage.getBytes() / 1048576.0);
+            if (i < 3) text.append(i == 0 ? " " : ", ").append(line);
+            tooltip.append(line).append(" in ").append(usage.getEntries()).append(" entries")
+                    .append(usage.isOverBudget() ? " (over budget)" : "").append("<br>");
+        }
+        SwingUtilities.invokeLater(() -> {
+            memoryLabel.setText(text.toString());
+            memoryLabel.setToolTipText(tooltip.append("</html>").toString());
+            memoryLabel.setForeground(sample.isOverBudget() ? Color.red : UIManager.getColor("Label.foreground"));
+        });
+    }
+
+    /**
+     * Adds rewind controls: a slider over the minutes held by the buffer, a Replay button that plays the
+     * history forward from the chosen minute, and a Live button that returns to the running simulation.
+     * Moving the slider pauses the simulation and shows the chosen minute; Live restores the previous play state.
+     *
+     * @param buffer The rewind buffer capturing the simulation.
+     * @param timer  The simulation timer, for the current minute when returning to live.
+     */
+    public void attachRewindBuffer(RewindBuffer buffer, Timer timer) {
+        this.rewindBuffer = buffer;
+        this.rewindTimer = timer;
+        rewindSlider = new JSlider(0, 0, 0);
+        rewindSlider.addChangeListener(e -> {
+            if (!movingRewindSlider) seekTo(rewindSlider.getValue());
+        });
+        JButton replayButton = new JButton("Replay");
+        JButton liveButton = new JButton("Live");
+        replayTimer = new javax.swing.Timer(100, e -> {
+            if (rewindSlider.getValue() >= rewindBuffer.getNewestTime()) goLive();
+            else rewindSlider.setValue(rewindSlider.getValue() + 1);
+        });
+        replayButton.addActionListener(e -> {
+            seekTo(rewindSlider.getValue());
+            replayTimer.start();
+        });
+        liveButton.addActionListener(e -> goLive());
+        SwingUtilities.invokeLater(() -> {
+            controlsPanel.add(new JLabel("Rewind"));
+            controlsPanel.add(rewindSlider);
+            controlsPanel.add(replayButton);
+            controlsPanel.add(liveButton);
+            controlsPanel.revalidate();
+        });
+    }
+    /**
+     * Shows a past minute from the rewind buffer, pausing the simulation on the first seek.
+     *
+     * @param time The minute to show.
+     */
+    private void seekTo(int time) {
+        if (!replaying) {
+            runningBeforeReplay = !t.isPaused();
+            t.pause();
+            playButton.setEnabled(false);
+            pauseButton.setEnabled(false);
+            replaying = true;
+        }
+        RewindBuffer.Frame frame = rewindBuffer.seek(time);
+        if (frame != null) showFrame(frame);
+    }
+    /**
+     * Leaves replay: redraws every component from the live state and resumes if the simulation was running.
+     */
+    private void goLive() {
+        replayTimer.stop();
+        if (!replaying) return;
+        showFrame(rewindBuffer.captureNow(rewindTimer.getCurrentTime()));
+        replaying = false;
+        updateRewindSlider();
+        if (runningBeforeReplay) t.resume();
+        playButton.setEnabled(!runningBeforeReplay);
+        pauseButton.setEnabled(runningBeforeReplay);
+    }
+    /**
+     * Draws every queue, desk and flight component and the clock from a captured frame.
+     *
+     * @param frame The state to show.
+     */
+    private void showFrame(RewindBuffer.Frame frame) {
+        clock.setText(String.format("[%02d:%02d]", frame.getTime() / 60 % 24, frame.getTime() % 60));
+        queueContentPanel.removeAll();
+        queueComponents.clear();
+        List<BookingDetails> queued = frame.getQueue();
+        for (int i = 0; i < queued.size(); i++) {
+            PassengerComponent component = new PassengerComponent(queued.get(i), frame.isMissed(i));
+            queueComponents.put(queued.get(i), component);
+            queueContentPanel.add(component);
+        }
+        passengerPanels = queueComponents.size();
+        queueContentPanel.revalidate();
+        queueContentPanel.repaint();
+        for (int i = 0; i < frame.getCounterCount() && i < allDeskComponents.length; i++) {
+            if (frame.isCounterOpen(i)) allDeskComponents[i].setcontents(frame.getCounterBooking(i));
+            else allDeskComponents[i].closeCounter();
+        }
+        for (int i = 0; i < frame.getFlightCount(); i++) {
+            FlightDetails flight = frame.getFlight(i);
+            FlightComponent component = allFlightComponents.get(flight.getFlightCode());
+            if (component != null) component.setcontents(flight, frame.getPassengers(i), frame.getHoldPercent(i), frame.getFees(i), frame.isGateOpen(i));
+        }
+    }
+    /**
+     * Stretches the rewind slider over the minutes currently held by the buffer and moves it to the newest.
+     */
+    private void updateRewindSlider() {
+        movingRewindSlider = true;
+        rewindSlider.setMinimum(Math.max(0, rewindBuffer.getOldestTime()));
+        rewindSlider.setMaximum(Math.max(0, rewindBuffer.getNewestTime()));
+        rewindSlider.setValue(rewindSlider.getMaximum());
+        rewindSlider.setToolTipText(String.format("<html>%d KB held<br>%.1f \u00b5s per snapshot</html>",
+                rewindBuffer.getMemoryUsed() / 1024, rewindBuffer.getAverageCaptureMicros()));
+        movingRewindSlider = false;
+    }
     /**
      * Initializes and configures a slider component to control the simulation speed.
      * The slider allows the user to adjust the speed of the simulation through predefined
@@ -347,8 +647,11 @@ public class GUI implements Observer, ChangeListener {
      */
     @Override
     public void update(Observable o, Object arg) {//run specific method depending on object type, if unrecognised then do nothing
+        if(arg instanceof MemoryMonitor.Sample) updateMemory((MemoryMonitor.Sample) arg);//shown during replays too
+        if(replaying) return;//a rewound minute is being shown, goLive redraws the live state
         if(o instanceof Queue) updateQueue(o, arg);
-        else if(arg instanceof Counter) updateCounter(arg);
+        else if(arg instanceof QueueEstimator.RiskChange) updateRisk(((QueueEstimator.RiskChange) arg).getBooking());
+        else if(arg instanceof SimulationSnapshot) showSnapshot((SimulationSnapshot) arg);
         else if(arg instanceof FlightDetails) updateFlight(arg);
         else if(arg instanceof Timer) updateClock(arg);
     }
@@ -358,7 +661,7 @@ public class GUI implements Observer, ChangeListener {
      * The method first checks to ensure that the slider adjustment has stopped (to prevent
      * continuous adjustments while the slider is being moved). It then reads the current position
      * of the slider and maps it to a predefined simulation speed setting. Finally, it updates the
-     * simulation speed by calling the `adjustSpeed` method on the `SimTime` instance with the
+     * simulation speed by calling the `adjustSpeed` method on the `SimulationTime` instance with the
      * new speed setting.
      *
      * @param e The event object representing the change event.
@@ -378,41 +681,94 @@ public class GUI implements Observer, ChangeListener {
     /**
      * Updates the queue display with new or removed bookings.
      * This method is responsible for adding a visual representation of a passenger (BookingDetails) to the queue
-     * when a new booking is made, or removing the first passenger in line when they are processed. It ensures
-     * that the queue display in the UI accurately reflects the current state of the passenger queue.
+     * when a new booking is made, or removing that passenger's component when they leave any lane of the queue.
+     * Counters notify from their own threads, so the change is applied on the Swing event thread.
      *
      * @param o   The observable object, expected to be an instance of PassengerQueue.
-     * @param arg The argument passed by the notifyObservers method, expected to be a BookingDetails object or null.
+     * @param arg A BookingDetails that joined the queue, a Queue.Removal for one that left, or null to remove the first.
      */
     private void updateQueue(Observable o, Object arg) {
-        if(arg!=null) queueContentPanel.add(new PassengerComponent((BookingDetails) arg));
-        else queueContentPanel.remove(0);
-        queueContentPanel.revalidate(); //update JPanel contents
+        SwingUtilities.invokeLater(() -> {
+            if(replaying) return;//queued before the replay started
+            if(arg instanceof Queue.Removal) {
+                PassengerComponent removed = queueComponents.remove(((Queue.Removal) arg).getBooking());
+                if(removed != null) queueContentPanel.remove(removed);
+            }
+            else if(arg != null) {
+                PassengerComponent added = new PassengerComponent((BookingDetails) arg);
+                queueComponents.put((BookingDetails) arg, added);
+                queueContentPanel.add(added);
+            }
+            else if(queueContentPanel.getComponentCount() > 0) queueContentPanel.remove(0);
+            passengerPanels = queueComponents.size();
+            queueContentPanel.revalidate(); //update JPanel contents
+        });
     }
     /**
-     * Updates the specified check-in counter display with the booking it's currently processing.
-     * If the counter is open and has a booking, it displays the booking details. If the counter is closed,
-     * it updates the display to indicate that the counter is closed.
+     * Recolours a queued passenger whose at-risk flag has changed.
      *
-     * @param arg Expected to be a CheckinCounter object containing the current state and booking details.
+     * @param booking The passenger whose estimate now falls before or after their flight's departure.
      */
-    private void updateCounter(Object arg) {
-        Counter checkinCounter = (Counter)arg;//cast to CheckinCounter object
-        if (checkinCounter.getIsOpen()){
-            allDeskComponents[checkinCounter.getCounterNumber()-1].setcontents(checkinCounter.getBooking());//set countents of component
-        }
-        else {allDeskComponents[checkinCounter.getCounterNumber()-1].closeCounter();}//close counter
+    private void updateRisk(BookingDetails booking) {
+        boolean atRisk = booking.isAtRisk();
+        SwingUtilities.invokeLater(() -> {
+            PassengerComponent component = queueComponents.get(booking);
+            if(component != null) component.setAtRisk(atRisk);
+        });
+    }
+    /**
+     * Redraws the desks and flights that changed in a newly published snapshot, on the Swing event thread.
+     * The values come from the snapshot rather than the live counters and flights, so every component shows
+     * the same tick even while counter threads keep serving passengers.
+     *
+     * @param snapshot The snapshot published for the latest tick.
+     */
+    private void showSnapshot(SimulationSnapshot snapshot) {
+        if(snapshot.getChangedCounters().isEmpty() && snapshot.getChangedFlights().isEmpty()) return;
+        SwingUtilities.invokeLater(() -> {
+            if(replaying) return;//goLive redraws everything from the live state
+            for(SimulationSnapshot.CounterState counter : snapshot.getChangedCounters()) {
+                DeskComponent desk = allDeskComponents[counter.getCounterNumber()-1];
+                if(counter.isOpen()) desk.setcontents(counter.getBooking(), counter.getExcessFee());
+                else desk.closeCounter();
+            }
+            for(SimulationSnapshot.FlightState flight : snapshot.getChangedFlights()) {
+                FlightComponent component = allFlightComponents.get(flight.getFlightCode());
+                if(component != null) component.setcontents(flight.getFlight(), flight.getNumberOfPassengers(),
+                        flight.getBaggagePercent(), flight.getTotalExcessFees(), flight.getGateOpen());
+            }
+        });
     }
-
     /**
      * Updates the flight component display with current flight information.
      * This includes updating the number of checked-in passengers and the baggage hold usage for the specified flight.
+     * A released flight, whose day of a multi-day run is over, has its component removed instead.
      *
      * @param arg Expected to be a Flight object containing current flight details to display.
      */
     private void updateFlight(Object arg) {
         FlightDetails flight = (FlightDetails)arg;//cast to Flight object
-        allFlightComponents.get(flight.getFlightCode()).setcontents(flight);//set contents of flight component
+        if (flight.isReleased()) {
+            SwingUtilities.invokeLater(() -> {
+                FlightComponent removed = allFlightComponents.remove(flight.getFlightCode());
+                if (removed != null) {
+                    flightsContentPanel.remove(removed);
+                    flightsContentPanel.revalidate();
+                    flightsContentPanel.repaint();
+                }
+            });
+            return;
+        }
+        FlightComponent component = allFlightComponents.get(flight.getFlightCode());
+        if (component != null) component.setcontents(flight);//set contents of flight component
+        else SwingUtilities.invokeLater(() -> {//flight added during the run, create its component
+            if (!allFlightComponents.containsKey(flight.getFlightCode())) {
+                FlightComponent added = new FlightComponent(flight);
+                allFlightComponents.put(flight.getFlightCode(), added);
+                flightsContentPanel.add(added);
+                flightsContentPanel.revalidate();
+            }
+        });
     }
     /**
      * Updates the simulation clock display.
@@ -424,5 +780,8 @@ public class GUI implements Observer, ChangeListener {
     public void updateClock(Object arg){
         Timer timer = (Timer) arg;//cast to Timer object
         this.clock.setText(timer.getTimeString());//set clock text
+        if(rewindBuffer != null) SwingUtilities.invokeLater(() -> {
+            if(!replaying) updateRewindSlider();
+        });
     }
 }
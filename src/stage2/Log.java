@@ -3,30 +3,140 @@ package stage2;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Implements a singleton pattern using an enum to handle logging operations.
  * Allows accumulation of log messages and writing them to a specified log file.
+ *
+ * Every message belongs to a Category with its own level and rate limit, both changeable while the simulation
+ * runs. Callers that build their message check Category.isEnabled first, so a disabled category costs one branch
+ * and a counter increment instead of the string; the thread-local mute flag is only read while some thread is
+ * muted. A rate limit keeps every n-th message of its category, with n set from the rate of the previous second,
+ * so a burst is sampled across its length rather than cut off. Messages dropped either way are counted, and
+ * close() ends the log with the counts.
  */
 public enum Log {
 
     INSTANCE; // Singleton instance
 
+    // Importance of a message; a category logs messages at or above its level.
+    public enum Level { OFF, WARNING, INFO }
+
+    // Kind of message, each with its own level and rate limit.
+    public enum Category {
+        QUEUE, COUNTER, FLIGHT, SYSTEM;
+
+        private volatile int level = Level.INFO.ordinal();
+        private volatile int ratePerSecond; // 0 for no limit
+        private final LongAdder filtered = new LongAdder(); // Dropped for being below the level
+        private final LongAdder sampled = new LongAdder(); // Dropped by the rate limit
+        private long windowStart = System.nanoTime(); // Rate limit state, guarded by the category
+        private int seen;
+        private int kept;
+        private int stride = 1;
+
+        /**
+         * Returns true if a message of the given level would be logged, counting it as filtered otherwise.
+         *
+         * @param messageLevel WARNING or INFO.
+         * @return Whether to build and log the message.
+         */
+        public boolean isEnabled(Level messageLevel) {
+            if (messageLevel.ordinal() <= level) {
+                return true;
+            }
+            if (!INSTANCE.isMuted()) filtered.increment(); // A muted thread's messages belong to no log
+            return false;
+        }
+
+        public Level getLevel() { return Level.values()[level]; }
+        public void setLevel(Level level) { this.level = level.ordinal(); }
+        public int getRatePerSecond() { return ratePerSecond; }
+
+        // Keeps at most this many messages a second, sampled evenly; 0 removes the limit.
+        public void setRatePerSecond(int ratePerSecond) { this.ratePerSecond = Math.max(0, ratePerSecond); }
+
+        public long getFiltered() { return filtered.sum(); }
+        public long getSampled() { return sampled.sum(); }
+
+        // Applies the rate limit to a message that passed the level check.
+        private synchronized boolean admit() {
+            int limit = ratePerSecond;
+            if (limit == 0) {
+                return true;
+            }
+            long now = System.nanoTime();
+            long elapsed = now - windowStart;
+            if (elapsed >= 1_000_000_000L) {
+                // Keep one message in stride, so last second's rate would have fitted the limit
+                double perSecond = seen * 1e9 / elapsed;
+                stride = Math.max(1, (int) Math.ceil(perSecond / limit));
+                windowStart = now;
+                seen = 0;
+                kept = 0;
+            }
+            boolean keep = seen++ % stride == 0 && kept < limit;
+            if (keep) kept++;
+            else sampled.increment();
+            return keep;
+        }
+    }
+
     private StringBuilder logContent;
+    private boolean flushed; // Later flushes append, so a long run can flush as it goes without losing earlier messages
+    private int messages; // Messages held since the last flush
+    private final ThreadLocal<Boolean> muted = ThreadLocal.withInitial(() -> false);
+    private final AtomicInteger mutedThreads = new AtomicInteger(); // While 0, no thread needs its flag read
 
     // Initializes the StringBuilder used to store log messages.
     private Log() {
         logContent = new StringBuilder();
     }
 
+    /**
+     * Sets levels and rate limits from a description in the stage2.log format: entries separated by commas or
+     * new lines, each category:level[:messagesPerSecond], e.g. "queue:off,counter:warning,flight:info:100".
+     * Lines starting with # are ignored, so the same text can be kept in a file.
+     *
+     * @param spec Description of the categories to change; others keep their settings.
+     * @throws IllegalArgumentException If an entry names an unknown category or level, or a malformed rate.
+     */
+    public void configure(String spec) {
+        // Every entry is checked before any is applied, so a bad entry leaves the settings as they were
+        Map<Category, Level> levels = new EnumMap<>(Category.class);
+        Map<Category, Integer> rates = new EnumMap<>(Category.class);
+        for (String entry : spec.split("[,\\n]")) {
+            entry = entry.trim();
+            if (entry.isEmpty() || entry.startsWith("#")) continue;
+            String[] fields = entry.split(":");
+            try {
+                Category category = Category.valueOf(fields[0].trim().toUpperCase());
+                if (fields.length > 1) levels.put(category, Level.valueOf(fields[1].trim().toUpperCase()));
+                if (fields.length > 2) rates.put(category, Integer.parseInt(fields[2].trim()));
+            } catch (IllegalArgumentException e) { // Also covers NumberFormatException
+                throw new IllegalArgumentException("Log setting '" + entry + "' is not category:level[:messagesPerSecond] "
+                        + "with a category of queue, counter, flight or system and a level of off, warning or info.");
+            }
+        }
+        levels.forEach(Category::setLevel);
+        rates.forEach(Category::setRatePerSecond);
+    }
+
     /**
      * Writes the accumulated log messages to a file, then clears the buffer.
+     * The first flush of a run replaces the file; later flushes append to it.
      */
-    public void flushToDisk() {
-        try (FileWriter writer = new FileWriter(new File("simulation_log.txt"), false)) {
+    public synchronized void flushToDisk() {
+        try (FileWriter writer = new FileWriter(new File("simulation_log.txt"), flushed)) {
             writer.write(logContent.toString());
+            flushed = true;
             // Clear the StringBuilder after writing to disk
             logContent.setLength(0);
+            messages = 0;
         } catch (IOException e) {
             // Handling IOException
             System.err.println("Failed to write log to file: " + e.getMessage());
@@ -34,12 +144,81 @@ public enum Log {
     }
 
     /**
-     * Appends a log message to the log buffer, adding a newline character after each message.
+     * Ends the log with the number of messages each category dropped, whatever the levels, and flushes it.
+     * Called once when the run is over.
+     */
+    public synchronized void close() {
+        logContent.append(getSuppressedSummary()).append(System.lineSeparator());
+        flushToDisk();
+    }
+
+    // One line per category with its filtered and sampled counts, or a line saying nothing was dropped.
+    public String getSuppressedSummary() {
+        StringBuilder summary = new StringBuilder();
+        for (Category category : Category.values()) {
+            long filtered = category.getFiltered();
+            long sampled = category.getSampled();
+            if (filtered + sampled > 0) {
+                summary.append(summary.length() == 0 ? "Suppressed messages:" : "").append(System.lineSeparator())
+                        .append(String.format("  %-8s %d below level, %d sampled out", category.name().toLowerCase(), filtered, sampled));
+            }
+        }
+        return summary.length() == 0 ? "No messages were suppressed." : summary.toString();
+    }
+
+    /**
+     * Appends a system message at INFO level.
      *
      * @param message The message to log.
      */
     public void addMessage(String message) {
-        logContent.append(message).append(System.lineSeparator());
+        addMessage(Category.SYSTEM, Level.INFO, message);
+    }
+
+    /**
+     * Appends a log message to the log buffer, adding a newline character after each message, if its category
+     * logs the level and its rate limit keeps it.
+     * Synchronized because counters, the queue and the timer log from their own threads.
+     *
+     * @param category Kind of message.
+     * @param level    WARNING or INFO.
+     * @param message  The message to log.
+     */
+    public void addMessage(Category category, Level level, String message) {
+        if (isMuted() || !category.isEnabled(level) || !category.admit()) {
+            return;
+        }
+        synchronized (this) {
+            logContent.append(message).append(System.lineSeparator());
+            messages++;
+        }
+    }
+
+    // Returns the number of messages held in memory until the next flush.
+    public synchronized int getBufferedMessages() {
+        return messages;
+    }
+
+    // Estimated bytes held by the buffer: its capacity, which a flush does not shrink, at two bytes per char as on Java 8.
+    public synchronized long estimateBytes() {
+        return 16 + 2L * logContent.capacity();
     }
-}
 
+    /**
+     * Drops messages logged by the current thread, e.g. a what-if branch running beside the live simulation,
+     * so they do not end up in the run's log.
+     *
+     * @param mute True to drop this thread's messages, false to log them again.
+     */
+    public void setMuted(boolean mute) {
+        if (muted.get() != mute) {
+            muted.set(mute);
+            mutedThreads.addAndGet(mute ? 1 : -1);
+        }
+    }
+
+    // True if the current thread is muted; a single volatile read while no thread is.
+    private boolean isMuted() {
+        return mutedThreads.get() != 0 && muted.get();
+    }
+}
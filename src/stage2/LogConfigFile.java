@@ -0,0 +1,64 @@
+package stage2;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Observable;
+import java.util.Observer;
+
+/**
+ * Applies log levels and rate limits from a file in the Log.configure format, e.g.
+ *
+ *     # category:level[:messagesPerSecond]
+ *     queue:off
+ *     counter:info:200
+ *
+ * Registered on the Timer, it checks the file's modification time at most once a second of wall-clock time and
+ * applies the file again when it has changed, so levels can be edited while the simulation runs.
+ */
+@SuppressWarnings("deprecation")
+public class LogConfigFile implements Observer {
+    private final Path file;
+    private long lastModified = -1;
+    private long nextCheck; // System.nanoTime() of the next check
+
+    /**
+     * Creates the watcher and applies the file straight away.
+     *
+     * @param file Settings file.
+     */
+    public LogConfigFile(Path file) {
+        this.file = file;
+        reloadIfChanged();
+    }
+
+    /**
+     * Reloads the file if it has changed. Called on the timer thread.
+     *
+     * @param o   Unused; the timer passes null.
+     * @param arg The Timer that ticked.
+     */
+    @Override
+    public void update(Observable o, Object arg) {
+        if (System.nanoTime() - nextCheck >= 0) {
+            reloadIfChanged();
+        }
+    }
+
+    // Applies the file if its modification time differs from the last one applied; problems are reported, not thrown.
+    public synchronized void reloadIfChanged() {
+        nextCheck = System.nanoTime() + 1_000_000_000L;
+        try {
+            long modified = Files.getLastModifiedTime(file).toMillis();
+            if (modified == lastModified) {
+                return;
+            }
+            lastModified = modified;
+            Log.INSTANCE.configure(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+            Log.INSTANCE.addMessage(Log.Category.SYSTEM, Log.Level.WARNING, "Log settings applied from " + file);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Failed to apply log settings from " + file + ": " + e.getMessage());
+        }
+    }
+}
@@ -1,56 +1,254 @@
 package stage2;
 
-import java.util.LinkedList;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Observer;
+import java.util.TreeMap;
 
 /**
  * Entry point for the simulation program. Initializes and starts simulation components including timers,
  * passenger queues, check-in counters, and the GUI.
  */
+@SuppressWarnings("deprecation")
 public class Main {
     public static void main(String[] args) {
-        // Initialize the components needed for the simulation
-        Read_CSV csvReader = new Read_CSV();
-        AllBookings allBookings = csvReader.getBookings();
-        AllFlights allFlights = csvReader.getFlights();
-        SimulationTime simulationTime = new SimulationTime();
-        Timer simulationTimer = new Timer(simulationTime);
-        Queue passengerQueue = new Queue(simulationTimer, allBookings);
+        // Without a display, e.g. -Dstage2.headless=true on a server, run the engine to the end and print the result
+        if (Boolean.getBoolean("stage2.headless") || Boolean.getBoolean("java.awt.headless")) {
+            runHeadless();
+            return;
+        }
+
+        // Build the timer, queue and counters the headless engine runs, over the data directory or, e.g.
+        // -Dstage2.days=scenario, a multi-day scenario read -Dstage2.daysAhead days (default 1) ahead. Lanes, arrivals
+        // and stages after check-in follow -Dstage2.lanes, -Dstage2.arrivals and -Dstage2.stages, e.g.
+        // -Dstage2.stages=security:3:2:20,gate:4:1:40
+        SimulationEngine engine;
+        try {
+            engine = new SimulationEngine(SimulationConfig.fromSystemProperties());
+        } catch (IOException e) {
+            GUI.showWarning(e.getMessage());
+            System.exit(1);
+            return;
+        } catch (IllegalArgumentException e) {
+            GUI.showWarning("Invalid settings: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        Timer simulationTimer = engine.getTimer();
+        Queue passengerQueue = engine.getQueue();
+        List<Counter> checkinCounters = engine.getCounters();
+        AllFlights allFlights = engine.getFlights();
+        AllBookings allBookings = engine.getBookings();
+        configureLog(simulationTimer);
 
-        // Create and start check-in counters
-        List<Counter> checkinCounters = setupCheckinCounters(allFlights, simulationTimer, passengerQueue);
+        // Publish an immutable snapshot of the queue, counters and flights on every tick
+        SnapshotPublisher snapshots = new SnapshotPublisher(simulationTimer, checkinCounters, allFlights);
+        passengerQueue.registerObserver(snapshots);
+        checkinCounters.forEach(counter -> counter.registerObserver(snapshots));
+        allFlights.getAllFlights().forEach((key, value) -> value.registerObserver(snapshots));
+        simulationTimer.registerObserver(snapshots);
 
         // Initialize and register the GUI as an observer to various subjects
-        GUI simulationGUI = new GUI(simulationTime, checkinCounters, allFlights.getAllFlights());
-        registerObservers(simulationTimer, passengerQueue, allFlights, checkinCounters, simulationGUI);
+        GUI simulationGUI = new GUI(simulationTimer.getSimulationTime(), checkinCounters, allFlights.getAllFlights());
+        registerObservers(simulationTimer, passengerQueue, snapshots, simulationGUI);
+        engine.getFlightObservers().addAll(Arrays.asList(simulationGUI, snapshots)); // For flights added during the run
+        if (engine.getDays() != null) {
+            // The first day was read before the GUI existed; it needs to hear when those flights are released
+            allFlights.getAllFlights().values().forEach(flight -> flight.registerObserver(simulationGUI));
+        }
+
+        // Estimate when each queued passenger reaches a counter and flag those expected to miss their flight
+        QueueEstimator estimator = new QueueEstimator(allFlights, checkinCounters, 1.0);
+        passengerQueue.registerObserver(estimator);
+        checkinCounters.forEach(counter -> counter.registerObserver(estimator));
+        simulationTimer.registerObserver(estimator);
+        estimator.registerObserver(simulationGUI);
+
+        // Let operators try opening or closing a desk on background copies of the run, -Dstage2.whatIfThreads (default 2)
+        simulationGUI.attachWhatIfRunner(new WhatIfRunner(simulationTimer, passengerQueue, checkinCounters, allFlights,
+                Integer.getInteger("stage2.whatIfThreads", 2)));
+
+        // Keep recent minutes for the GUI to rewind to, capped by -Dstage2.rewindMB (0 disables)
+        RewindBuffer rewindBuffer = startRewindBuffer(simulationTimer, passengerQueue, checkinCounters, allFlights, simulationGUI);
+
+        // Estimate the memory of the largest structures every -Dstage2.memorySampleMinutes (default 5), against
+        // budgets in megabytes from e.g. -Dstage2.memoryBudgets=log:16,bookings:256
+        MemoryMonitor memory = startMemoryMonitor(simulationTimer, allBookings, passengerQueue);
+        memory.track("passengerPanels", simulationGUI::getPassengerPanelCount, simulationGUI::estimatePassengerPanelBytes,
+                memoryBudget("passengerPanels"));
+        if (rewindBuffer != null) {
+            memory.track("rewindBuffer", () -> rewindBuffer.getNewestTime() - rewindBuffer.getOldestTime() + 1,
+                    rewindBuffer::getMemoryUsed, memoryBudget("rewindBuffer"));
+        }
+        simulationGUI.attachMemoryMonitor(memory);
+
+        // Optionally move finished bookings out of the heap, e.g. -Dstage2.spill=archive
+        startBookingArchive(allBookings, checkinCounters);
+
+        // Optionally record per-tick summaries for the run history, e.g. -Dstage2.history=history
+        RunRecorder recorder = startRunRecorder(snapshots, allFlights, allBookings, checkinCounters);
+
+        // Optionally let counters open and close themselves, e.g. -Dstage2.autoscale=10 for a 10 minute p95 wait target
+        startAutoscaler(simulationTimer, passengerQueue, checkinCounters, allFlights);
+
+        // Optionally expose live state over localhost HTTP, e.g. -Dstage2.statusPort=8080
+        startStatusServer(snapshots, memory);
+
+        // Optionally apply late bookings and schedule changes from the data directory, e.g. -Dstage2.watch=true
+        startDataWatcher(engine.getDataLoader(), allFlights, allBookings, passengerQueue, simulationTimer,
+                engine.getFlightObservers());
 
         // Start simulation threads
-        startSimulation(passengerQueue, simulationTimer, checkinCounters);
+        startSimulation(passengerQueue, simulationTimer, checkinCounters, engine.getPipeline());
 
-        // Setup shutdown hook to ensure logs are saved when the program exits
-        setupShutdownHook();
+        // Setup shutdown hook to ensure logs and the end-of-day report the engine keeps are saved when the program exits
+        setupShutdownHook(engine.getReport(), recorder, engine.getPipeline());
     }
 
-    private static List<Counter> setupCheckinCounters(AllFlights flights, Timer timer, Queue pq) {
-        List<Counter> counters = new LinkedList<>();
-        for (int i = 1; i <= 6; i++) {
-            Counter counter = new Counter(i, flights, timer, pq);
-            counters.add(counter);
+    // Runs the data directory through the engine without loading any GUI class, then writes the log and report.
+    private static void runHeadless() {
+        try {
+            SimulationEngine engine = new SimulationEngine(SimulationConfig.fromSystemProperties());
+            configureLog(engine.getTimer());
+            MemoryMonitor memory = startMemoryMonitor(engine.getTimer(), engine.getBookings(), engine.getQueue());
+            SimulationResult result = engine.run();
+            System.out.println(result);
+            System.out.println(memory.sample(engine.getTimer()));
+            if (engine.getPipeline() != null) System.out.println(engine.getPipeline());
+            Log.INSTANCE.close();
+            result.getReport().writeToDisk();
+        } catch (IOException e) {
+            System.err.println("Failed to load data: " + e.getMessage());
+            System.exit(1);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid settings: " + e.getMessage());
+            System.exit(1);
         }
-        return counters;
     }
 
-    private static void registerObservers(Timer timer, Queue pq, AllFlights flights, List<Counter> counters, GUI gui) {
+    // Sets log levels per -Dstage2.log, e.g. "queue:off,counter:warning:200", then per -Dstage2.logConfig,
+    // a file of the same settings applied again whenever it changes during the run.
+    private static void configureLog(Timer timer) {
+        try {
+            Log.INSTANCE.configure(System.getProperty("stage2.log", ""));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Ignoring stage2.log: " + e.getMessage());
+        }
+        String file = System.getProperty("stage2.logConfig");
+        if (file != null) {
+            timer.registerObserver(new LogConfigFile(Paths.get(file)));
+        }
+    }
+
+    // Counters and flights reach the GUI through snapshots; the queue and clock are followed directly.
+    private static void registerObservers(Timer timer, Queue pq, SnapshotPublisher snapshots, GUI gui) {
         Thread pqThread = new Thread(pq);
         pqThread.start();
 
         timer.registerObserver(gui);
         pq.registerObserver(gui);
-        flights.getAllFlights().forEach((key, value) -> value.registerObserver(gui));
-        counters.forEach(counter -> counter.registerObserver(gui));
+        snapshots.registerObserver(gui);
+    }
+
+    private static RewindBuffer startRewindBuffer(Timer timer, Queue pq, List<Counter> counters, AllFlights flights, GUI gui) {
+        long capMegabytes = Long.getLong("stage2.rewindMB", 32);
+        if (capMegabytes <= 0) {
+            return null;
+        }
+        RewindBuffer buffer = new RewindBuffer(pq, counters, flights, Integer.getInteger("stage2.rewindKeyframe", 30), capMegabytes << 20);
+        timer.registerObserver(buffer);
+        gui.attachRewindBuffer(buffer, timer);
+        return buffer;
+    }
+
+    // Tracks the log, bookings and queue; callers add structures of their own, such as the GUI's panels.
+    private static MemoryMonitor startMemoryMonitor(Timer timer, AllBookings bookings, Queue pq) {
+        MemoryMonitor monitor = new MemoryMonitor(Math.max(1, Integer.getInteger("stage2.memorySampleMinutes", 5)));
+        monitor.track("log", Log.INSTANCE::getBufferedMessages, Log.INSTANCE::estimateBytes, memoryBudget("log"));
+        monitor.track("bookings", bookings::getLiveBookingCount, bookings::estimateBytes, memoryBudget("bookings"));
+        monitor.track("queue", () -> pq.queueSize() + pq.getScheduledCount(), pq::estimateBytes, memoryBudget("queue"));
+        timer.registerObserver(monitor);
+        return monitor;
     }
 
-    private static void startSimulation(Queue pq, Timer timer, List<Counter> counters) {
+    // Budget in bytes for a structure from -Dstage2.memoryBudgets, 0 for none.
+    private static long memoryBudget(String structure) {
+        return MemoryMonitor.parseBudgets(System.getProperty("stage2.memoryBudgets", "")).getOrDefault(structure, 0L);
+    }
+
+    // Retires each booking to an on-disk archive once a counter has checked it in or found its flight missed.
+    private static void startBookingArchive(AllBookings bookings, List<Counter> counters) {
+        String directory = System.getProperty("stage2.spill");
+        if (directory == null) {
+            return;
+        }
+        try {
+            BookingArchive archive = new BookingArchive(new File(directory, "bookings.seg"));
+            bookings.spillTo(archive);
+            // A passenger who missed their flight keeps recycling through the queue, so only check-ins are final;
+            // missed passengers are spilled when their day of a multi-day run is released
+            counters.forEach(counter -> counter.registerObserver((o, arg) -> {
+                BookingDetails booking = ((Counter) arg).getBooking();
+                if (booking != null && booking.getCheckInStatus()) {
+                    bookings.retire(booking);
+                }
+            }));
+        } catch (IOException e) {
+            System.err.println("Failed to create booking archive: " + e.getMessage());
+        }
+    }
+
+    private static void startAutoscaler(Timer timer, Queue pq, List<Counter> counters, AllFlights flights) {
+        Integer targetWait = Integer.getInteger("stage2.autoscale");
+        if (targetWait == null) {
+            return;
+        }
+        CounterAutoscaler autoscaler = new CounterAutoscaler(pq, counters, flights, targetWait,
+                Integer.getInteger("stage2.autoscaleMinOpen", 1), Integer.getInteger("stage2.autoscaleDwell", 10));
+        timer.registerObserver(autoscaler);
+        pq.registerObserver(autoscaler);
+        counters.forEach(counter -> counter.registerObserver(autoscaler));
+    }
+
+    private static void startStatusServer(SnapshotPublisher snapshots, MemoryMonitor memory) {
+        Integer port = Integer.getInteger("stage2.statusPort");
+        if (port == null) {
+            return;
+        }
+        try {
+            StatusServer statusServer = new StatusServer(port, Long.getLong("stage2.statusIntervalMs", 500), snapshots);
+            snapshots.registerObserver(statusServer);
+            statusServer.attachMemoryMonitor(memory);
+            statusServer.start();
+        } catch (IOException e) {
+            System.err.println("Failed to start status server: " + e.getMessage());
+        }
+    }
+
+    private static void startDataWatcher(DataLoader loader, AllFlights flights, AllBookings bookings, Queue pq, Timer timer,
+                                         List<Observer> flightObservers) {
+        if (!Boolean.getBoolean("stage2.watch")) {
+            return;
+        }
+        if (loader == null) {
+            System.err.println("stage2.watch applies to the data directory and is ignored for a multi-day scenario.");
+            return;
+        }
+        try {
+            // The files DataLoader read, from where it stopped, so rows appended while the run was set up still apply
+            DataDirectoryWatcher watcher = new DataDirectoryWatcher(loader.getFlightsRead(), loader.getBookingsRead(),
+                    flights, bookings, pq, timer, flightObservers);
+            watcher.start();
+        } catch (IOException e) {
+            System.err.println("Failed to watch data directory: " + e.getMessage());
+        }
+    }
+
+    private static void startSimulation(Queue pq, Timer timer, List<Counter> counters, PassengerPipeline pipeline) {
         try {
             Thread.sleep(1000); // Delay for GUI readiness
         } catch (InterruptedException e) {
@@ -58,10 +256,52 @@ public class Main {
         }
         timer.start();
         counters.forEach(Thread::start);
+        if (pipeline != null) pipeline.start();
+    }
+
+    // Configuration stored with each run: dataset sizes, counter count and every stage2.* system property.
+    private static Map<String, String> runConfig(AllFlights flights, AllBookings bookings, List<Counter> counters) {
+        Map<String, String> config = new TreeMap<>();
+        config.put("flights", String.valueOf(flights.getTotalFlights()));
+        config.put("bookings", String.valueOf(bookings.getnumofBookings()));
+        config.put("counters", String.valueOf(counters.size()));
+        System.getProperties().stringPropertyNames().stream()
+                .filter(name -> name.startsWith("stage2."))
+                .forEach(name -> config.put(name, System.getProperty(name)));
+        return config;
+    }
+
+    // Records the run when -Dstage2.history names the history store's directory; returns null otherwise.
+    private static RunRecorder startRunRecorder(SnapshotPublisher snapshots, AllFlights flights, AllBookings bookings,
+                                                List<Counter> counters) {
+        String directory = System.getProperty("stage2.history", "");
+        if (directory.isEmpty()) {
+            return null;
+        }
+        RunRecorder recorder = new RunRecorder(runConfig(flights, bookings, counters), flights, bookings);
+        snapshots.registerObserver(recorder);
+        return recorder;
+    }
+
+    // Appends the run to the history store in -Dstage2.history, if the run was recorded.
+    private static void saveRunHistory(RunRecorder recorder) {
+        if (recorder == null) {
+            return;
+        }
+        try {
+            recorder.save(new RunHistoryStore(new File(System.getProperty("stage2.history"))));
+        } catch (IOException e) {
+            System.err.println("Failed to save run history: " + e.getMessage());
+        }
     }
 
-    private static void setupShutdownHook() {
-        Runtime.getRuntime().addShutdownHook(new Thread(() -> Log.INSTANCE.flushToDisk(), "Shutdown-thread"));
+    private static void setupShutdownHook(SimulationReport report, RunRecorder recorder, PassengerPipeline pipeline) {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            if (pipeline != null) Log.INSTANCE.addMessage("Stages after check-in:" + System.lineSeparator() + pipeline);
+            Log.INSTANCE.close();
+            report.writeToDisk();
+            saveRunHistory(recorder);
+        }, "Shutdown-thread"));
     }
 }
 
@@ -0,0 +1,254 @@
+package stage2;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Keeps an estimate of the bytes and entries held by each of the simulation's large structures, e.g. the log
+ * buffer, the bookings, the queue and the GUI's passenger panels, so a growing heap can be traced to its cause.
+ *
+ * Each structure reports its entry count and estimated retained bytes through suppliers that read counters it
+ * already keeps, multiplied by a per-entry size measured for that structure; nothing is walked, so a sample costs
+ * a few lock acquisitions however large the structures are. Registered on the Timer, the monitor samples every
+ * few minutes, records a StructureMemory JFR event per structure, and passes the Sample to its observers.
+ *
+ * A structure can be given a budget. When a sample first finds it over budget an alarm is logged and printed;
+ * it fires again only after the structure has come back under.
+ */
+@SuppressWarnings("deprecation")
+public class MemoryMonitor implements Observer, Subject {
+    private final int interval;
+    private final List<Account> accounts = new ArrayList<>();
+    private final List<Observer> observers = new LinkedList<>();
+    private volatile Sample latest;
+
+    // A tracked structure and whether it was over budget at the last sample.
+    private static class Account {
+        final String name;
+        final IntSupplier entries;
+        final LongSupplier bytes;
+        final long budget;
+        boolean over;
+
+        Account(String name, IntSupplier entries, LongSupplier bytes, long budget) {
+            this.name = name;
+            this.entries = entries;
+            this.bytes = bytes;
+            this.budget = budget;
+        }
+    }
+
+    /**
+     * Creates a monitor that samples every interval minutes once registered on the Timer.
+     *
+     * @param interval Minutes between samples.
+     * @throws IllegalArgumentException If interval is less than 1.
+     */
+    public MemoryMonitor(int interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("Sample interval must be at least one minute.");
+        }
+        this.interval = interval;
+    }
+
+    /**
+     * Parses budgets in the stage2.memoryBudgets format, structure:megabytes separated by commas,
+     * e.g. "log:16,bookings:256". Malformed entries are skipped with a warning.
+     *
+     * @param spec Budget description, may be empty.
+     * @return Budget in bytes per structure name.
+     */
+    public static Map<String, Long> parseBudgets(String spec) {
+        Map<String, Long> budgets = new HashMap<>();
+        for (String part : spec.split(",")) {
+            if (part.trim().isEmpty()) continue;
+            String[] fields = part.trim().split(":");
+            try {
+                budgets.put(fields[0], Long.parseLong(fields[1]) << 20);
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                System.err.println("Ignoring memory budget '" + part.trim() + "', expected structure:megabytes.");
+            }
+        }
+        return budgets;
+    }
+
+    /**
+     * Adds a structure to the samples.
+     *
+     * @param name    Name shown in samples and alarms, e.g. "bookings".
+     * @param entries Returns the number of entries the structure holds.
+     * @param bytes   Returns the structure's estimated retained bytes.
+     * @param budget  Bytes above which an alarm fires, or 0 for none.
+     */
+    public synchronized void track(String name, IntSupplier entries, LongSupplier bytes, long budget) {
+        accounts.add(new Account(name, entries, bytes, budget));
+    }
+
+    /**
+     * Samples every interval minutes. Called on the timer thread.
+     *
+     * @param o   Unused; the timer passes null.
+     * @param arg The Timer that ticked.
+     */
+    @Override
+    public void update(Observable o, Object arg) {
+        if (arg instanceof Timer && ((Timer) arg).getCurrentTime() % interval == 0) {
+            sample((Timer) arg);
+        }
+    }
+
+    /**
+     * Reads every tracked structure now, raises alarms for those newly over budget and notifies observers.
+     *
+     * @param timer Simulation timer, for the minute the sample is taken at.
+     * @return The sample.
+     */
+    public Sample sample(Timer timer) {
+        Sample sample;
+        List<String> alarms = new ArrayList<>();
+        synchronized (this) {
+            long start = System.nanoTime();
+            List<Usage> usages = new ArrayList<>(accounts.size());
+            for (Account account : accounts) {
+                Usage usage = new Usage(account.name, account.entries.getAsInt(), account.bytes.getAsLong(), account.budget);
+                if (usage.isOverBudget() && !account.over) {
+                    alarms.add(String.format("Memory alarm: %s holds about %.1f MB in %d entries, over its %.1f MB budget.",
+                            usage.getName(), usage.getBytes() / 1048576.0, usage.getEntries(), usage.getBudget() / 1048576.0));
+                }
+                account.over = usage.isOverBudget();
+                usages.add(usage);
+            }
+            sample = new Sample(timer.getCurrentTime(), usages, System.nanoTime() - start);
+            latest = sample;
+        }
+        for (Usage usage : sample.getUsages()) {
+            SimulationEvents.StructureMemory event = new SimulationEvents.StructureMemory();
+            if (event.shouldCommit()) {
+                event.structure = usage.getName();
+                event.entries = usage.getEntries();
+                event.bytes = usage.getBytes();
+                event.overBudget = usage.isOverBudget();
+                event.commit();
+            }
+        }
+        for (String alarm : alarms) {
+            Log.INSTANCE.addMessage(Log.Category.SYSTEM, Log.Level.WARNING, timer.getTimeString() + " " + alarm);
+            System.err.println(alarm);
+        }
+        notifyObservers(sample);
+        return sample;
+    }
+
+    // Returns the most recent sample, or null before the first.
+    public Sample getLatest() { return latest; }
+
+    @Override
+    public synchronized void registerObserver(Observer observer) {
+        observers.add(observer);
+    }
+
+    @Override
+    public synchronized void removeObserver(Observer observer) {
+        observers.remove(observer);
+    }
+
+    @Override
+    public void notifyObservers() {
+        notifyObservers(latest);
+    }
+
+    private void notifyObservers(Sample sample) {
+        List<Observer> targets;
+        synchronized (this) {
+            targets = new ArrayList<>(observers);
+        }
+        targets.forEach(observer -> SimulationEvents.dispatch(this, observer, null, sample));
+    }
+
+    // One structure's entries and estimated bytes at a sample.
+    public static class Usage {
+        private final String name;
+        private final int entries;
+        private final long bytes;
+        private final long budget;
+
+        Usage(String name, int entries, long bytes, long budget) {
+            this.name = name;
+            this.entries = entries;
+            this.bytes = bytes;
+            this.budget = budget;
+        }
+
+        public String getName() { return name; }
+        public int getEntries() { return entries; }
+        public long getBytes() { return bytes; }
+        // Budget in bytes, 0 for none.
+        public long getBudget() { return budget; }
+        public boolean isOverBudget() { return budget > 0 && bytes > budget; }
+    }
+
+    // Every tracked structure at one minute.
+    public static class Sample {
+        private final int minute;
+        private final List<Usage> usages;
+        private final long sampleNanos;
+
+        Sample(int minute, List<Usage> usages, long sampleNanos) {
+            this.minute = minute;
+            this.usages = Collections.unmodifiableList(usages);
+            this.sampleNanos = sampleNanos;
+        }
+
+        public int getMinute() { return minute; }
+        public List<Usage> getUsages() { return usages; }
+        // Time taken to read the structures.
+        public long getSampleNanos() { return sampleNanos; }
+
+        public long getTotalBytes() {
+            return usages.stream().mapToLong(Usage::getBytes).sum();
+        }
+
+        public boolean isOverBudget() {
+            return usages.stream().anyMatch(Usage::isOverBudget);
+        }
+
+        public String toJson() {
+            StringBuilder json = new StringBuilder("{\"minute\":").append(minute)
+                    .append(",\"sampleMicros\":").append(sampleNanos / 1000)
+                    .append(",\"totalBytes\":").append(getTotalBytes())
+                    .append(",\"structures\":[");
+            for (int i = 0; i < usages.size(); i++) {
+                Usage usage = usages.get(i);
+                if (i > 0) json.append(',');
+                json.append("{\"name\":\"").append(usage.getName())
+                        .append("\",\"entries\":").append(usage.getEntries())
+                        .append(",\"bytes\":").append(usage.getBytes())
+                        .append(",\"budget\":").append(usage.getBudget())
+                        .append(",\"overBudget\":").append(usage.isOverBudget()).append('}');
+            }
+            return json.append("]}").toString();
+        }
+
+        // One line per structure, largest first.
+        @Override
+        public String toString() {
+            List<Usage> sorted = new ArrayList<>(usages);
+            sorted.sort((a, b) -> Long.compare(b.getBytes(), a.getBytes()));
+            StringBuilder text = new StringBuilder(String.format("Estimated memory at minute %d: %.1f MB", minute, getTotalBytes() / 1048576.0));
+            for (Usage usage : sorted) {
+                text.append(String.format("%n  %-16s %10d entries %10.1f MB%s", usage.getName(), usage.getEntries(),
+                        usage.getBytes() / 1048576.0, usage.getBudget() == 0 ? ""
+                                : String.format(" of %.1f MB%s", usage.getBudget() / 1048576.0, usage.isOverBudget() ? " OVER BUDGET" : "")));
+            }
+            return text.toString();
+        }
+    }
+}
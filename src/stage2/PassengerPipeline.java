@@ -0,0 +1,170 @@
+package stage2;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The stages passengers go through after check-in, e.g. security and then the gate, joined by bounded buffers.
+ *
+ * The counters hand each checked-in passenger to the first stage and every stage hands them to the next. A full
+ * buffer holds back the stage or counters in front of it, so the stage that limits the day shows up as the busiest
+ * one, with the stages before it blocked and the stages after it idle.
+ *
+ * In an interactive run every stage serves on its own thread, ticked by the timer like the counters; SimulationEngine
+ * ticks the stages itself, first to last, so a passenger handed on can be taken by the next stage in the same minute.
+ *
+ * Utilization is measured over the minutes each stage had passengers, and for check-in over the open counter-minutes
+ * between the first and last minute any counter served or was blocked, so every stage, check-in included, is busy
+ * minutes over available minutes and a stage that is idle because the one before it is slow does not look like
+ * the bottleneck.
+ */
+public class PassengerPipeline {
+    private final List<ProcessingStage> stages;
+    private final List<Counter> counters;
+
+    /**
+     * Joins the stages in order and connects the counters to the first one.
+     *
+     * @param stages   Stages in the order passengers go through them.
+     * @param counters Check-in counters that feed the first stage.
+     * @throws IllegalArgumentException If there are no stages.
+     */
+    public PassengerPipeline(List<ProcessingStage> stages, List<Counter> counters) {
+        if (stages.isEmpty()) {
+            throw new IllegalArgumentException("A pipeline needs at least one stage.");
+        }
+        this.stages = new ArrayList<>(stages);
+        this.counters = counters;
+        for (int i = 0; i + 1 < stages.size(); i++) {
+            stages.get(i).setNext(stages.get(i + 1));
+        }
+        counters.forEach(counter -> counter.setDownstream(stages.get(0)));
+    }
+
+    /**
+     * Builds the stages from a description in the stage2.stages format: stages separated by commas, each
+     * name:servers:minutes:buffer with an optional :fifo (default) or :departure for earliest departure first.
+     *
+     * Example: "security:3:2:20,gate:4:1:40:departure".
+     *
+     * @param spec    Stage description.
+     * @param flights Flights the passengers are booked on.
+     * @param timer   Simulation timer.
+     * @return The stages in order.
+     * @throws IllegalArgumentException If the description is malformed.
+     */
+    public static List<ProcessingStage> parseStages(String spec, AllFlights flights, Timer timer) {
+        List<ProcessingStage> stages = new ArrayList<>();
+        for (String part : spec.split(",")) {
+            String[] fields = part.trim().split(":");
+            if (fields.length < 4 || fields.length > 5) {
+                throw new IllegalArgumentException("Stage '" + part.trim() + "' is not name:servers:minutes:buffer[:fifo|departure].");
+            }
+            ProcessingStage.Order order = ProcessingStage.Order.FIFO;
+            if (fields.length == 5) {
+                try {
+                    order = ProcessingStage.Order.valueOf(fields[4].toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Stage " + fields[0] + " has unknown order '" + fields[4] + "'.");
+                }
+            }
+            try {
+                stages.add(new ProcessingStage(fields[0], Integer.parseInt(fields[1]), Integer.parseInt(fields[2]),
+                        Integer.parseInt(fields[3]), order, flights, timer));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Stage " + fields[0] + " has a malformed number: " + e.getMessage());
+            }
+        }
+        return stages;
+    }
+
+    // Starts a thread per stage, for a run driven by the timer thread.
+    public void start() {
+        stages.forEach(Thread::start);
+    }
+
+    // Ticks every stage on the calling thread, first to last, for a driver that steps the simulation itself.
+    public void tick() {
+        stages.forEach(ProcessingStage::tick);
+    }
+
+    // Returns true once no passenger is held at a counter or waiting in or being served by any stage.
+    public boolean isEmpty() {
+        for (Counter counter : counters) {
+            if (counter.hasHandOff()) return false;
+        }
+        for (ProcessingStage stage : stages) {
+            if (!stage.isEmpty()) return false;
+        }
+        return true;
+    }
+
+    public List<ProcessingStage> getStages() { return Collections.unmodifiableList(stages); }
+
+    // Passengers who finished the last stage after their flight had left, plus those turned away on the way.
+    public int getMissedFlights() {
+        int missed = stages.get(stages.size() - 1).getMissedAtGate();
+        for (ProcessingStage stage : stages) {
+            missed += stage.getTurnedAway();
+        }
+        return missed;
+    }
+
+    /**
+     * Returns the stage with the highest share of busy server-minutes, counting the check-in counters as a stage
+     * named "check-in".
+     *
+     * @return Name of the busiest stage.
+     */
+    public String getBottleneck() {
+        String busiest = "check-in";
+        double highest = checkInUtilization();
+        for (ProcessingStage stage : stages) {
+            if (stage.getUtilization() > highest) {
+                busiest = stage.getStageName();
+                highest = stage.getUtilization();
+            }
+        }
+        return busiest;
+    }
+
+    // Share of the open counter-minutes in the check-in active window spent serving.
+    private double checkInUtilization() {
+        long open = checkInOpenMinutes();
+        return open == 0 ? 0 : (double) counters.stream().mapToLong(Counter::getBusyMinutes).sum() / open;
+    }
+
+    // Share of the open counter-minutes in the check-in active window spent blocked by the first stage.
+    private double checkInBlockedShare() {
+        long open = checkInOpenMinutes();
+        return open == 0 ? 0 : (double) counters.stream().mapToLong(Counter::getBlockedMinutes).sum() / open;
+    }
+
+    // Open counter-minutes from the first minute any counter served or was blocked to the last.
+    private long checkInOpenMinutes() {
+        int from = Integer.MAX_VALUE;
+        int to = -1;
+        for (Counter counter : counters) {
+            if (counter.getFirstActiveMinute() < 0) continue;
+            from = Math.min(from, counter.getFirstActiveMinute());
+            to = Math.max(to, counter.getLastActiveMinute());
+        }
+        long open = 0;
+        for (Counter counter : counters) {
+            if (to >= 0) open += counter.getOpenMinutes(from, to);
+        }
+        return open;
+    }
+
+    // One line per stage, check-in first, and the bottleneck.
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder(String.format("check-in (%d counters): %.0f%% busy, %.0f%% blocked%n",
+                counters.size(), checkInUtilization() * 100, checkInBlockedShare() * 100));
+        for (ProcessingStage stage : stages) {
+            text.append(stage).append(System.lineSeparator());
+        }
+        return text.append("Bottleneck: ").append(getBottleneck()).toString();
+    }
+}
@@ -0,0 +1,259 @@
+package stage2;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * A stage passengers go through after check-in, e.g. security or the boarding gate, with its own servers and a
+ * bounded buffer in front of them.
+ *
+ * Each server takes a passenger from the buffer, serves them for a fixed number of minutes and then hands them to
+ * the next stage. When the next stage's buffer is full the server keeps the passenger and is blocked until there is
+ * room, so a slow stage fills the buffers in front of it and in turn blocks the stages and counters upstream.
+ * Passengers whose flight has departed by the time a server would take them are turned away without being served.
+ * The last stage boards passengers, or counts them as missed if their flight left while they were in the pipeline.
+ *
+ * Like Counter, a stage serves on tick(): called every minute either by its own thread, which waits on the timer,
+ * or by a driver such as SimulationEngine.
+ */
+public class ProcessingStage extends Thread {
+    // Order a stage takes passengers from its buffer in.
+    public enum Order { FIFO, DEPARTURE }
+
+    private final String stageName;
+    private final int serviceMinutes;
+    private final int capacity;
+    private final Order order;
+    private final AllFlights flights;
+    private final Timer timer;
+    private ProcessingStage next; // Null for the last stage
+    private final java.util.Queue<Entry> buffer;
+    private final BookingDetails[] serving; // Passenger at each server, null when the server is free
+    private final int[] doneAt; // Minute each server finishes its passenger
+    private long sequence;
+
+    // Statistics since the stage was created
+    private int lastTick = -1;
+    private long busyMinutes; // Server-minutes spent serving
+    private long blockedMinutes; // Server-minutes spent holding a served passenger for want of room downstream
+    private int passed; // Passengers handed on, or finished at the last stage
+    private int turnedAway;
+    private int missedAtGate;
+    private long bufferWaitTotal;
+    private int peakBuffer;
+    private int firstIn = -1;
+    private int lastOut = -1;
+
+    // A passenger waiting in the buffer, with what the order needs to sort them.
+    private static class Entry {
+        final BookingDetails booking;
+        final int enteredAt;
+        final double departure;
+        final long sequence;
+
+        Entry(BookingDetails booking, int enteredAt, double departure, long sequence) {
+            this.booking = booking;
+            this.enteredAt = enteredAt;
+            this.departure = departure;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * Creates a stage.
+     *
+     * @param name           Name used in logs and statistics, e.g. "security".
+     * @param servers        Passengers served at the same time.
+     * @param serviceMinutes Minutes each passenger takes, at least 1.
+     * @param capacity       Passengers the buffer in front of the servers holds.
+     * @param order          FIFO, or earliest departure first.
+     * @param flights        Flights the passengers are booked on.
+     * @param timer          Simulation timer.
+     * @throws IllegalArgumentException If servers, serviceMinutes or capacity is less than 1.
+     */
+    public ProcessingStage(String name, int servers, int serviceMinutes, int capacity, Order order, AllFlights flights, Timer timer) {
+        super("Stage-" + name);
+        if (servers < 1 || serviceMinutes < 1 || capacity < 1) {
+            throw new IllegalArgumentException("Stage " + name + " needs at least one server, one minute and one buffer place.");
+        }
+        this.stageName = name;
+        this.serviceMinutes = serviceMinutes;
+        this.capacity = capacity;
+        this.order = order;
+        this.flights = flights;
+        this.timer = timer;
+        this.serving = new BookingDetails[servers];
+        this.doneAt = new int[servers];
+        this.buffer = order == Order.FIFO ? new ArrayDeque<>(capacity)
+                : new PriorityQueue<>(capacity, Comparator.<Entry>comparingDouble(e -> e.departure).thenComparingLong(e -> e.sequence));
+    }
+
+    // Connects the stage passengers go to next.
+    void setNext(ProcessingStage next) {
+        this.next = next;
+    }
+
+    /**
+     * Adds a passenger to the buffer if there is room. Called by the stage or counter upstream, which keeps the
+     * passenger and tries again on a later tick when this returns false.
+     *
+     * @param booking Passenger handed on.
+     * @param now     Current minute.
+     * @return True if the passenger was taken.
+     */
+    public synchronized boolean offer(BookingDetails booking, int now) {
+        if (buffer.size() >= capacity) {
+            return false;
+        }
+        FlightDetails flight = flights.getFlight(booking.getFlightCode());
+        buffer.add(new Entry(booking, now, flight == null ? 0 : flight.getDepartureTime(), sequence++));
+        peakBuffer = Math.max(peakBuffer, buffer.size());
+        if (firstIn < 0) firstIn = now;
+        return true;
+    }
+
+    // Serves the buffer on every tick when the stage runs on its own thread.
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                synchronized (timer) {
+                    timer.wait();
+                }
+                tick();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Hands finished passengers on and starts serving the next ones in the buffer. Further calls in the same
+     * minute do nothing, so a thread and a driver never serve a minute twice.
+     */
+    public synchronized void tick() {
+        int now = timer.getCurrentTime();
+        if (now == lastTick) {
+            return;
+        }
+        lastTick = now;
+        for (int s = 0; s < serving.length; s++) {
+            if (serving[s] != null && now >= doneAt[s]) {
+                if (!handOn(serving[s], now)) {
+                    blockedMinutes++;
+                    continue;
+                }
+                serving[s] = null;
+            }
+            if (serving[s] == null) {
+                serving[s] = takeNext(now);
+                doneAt[s] = now + serviceMinutes;
+            }
+            if (serving[s] != null) busyMinutes++;
+        }
+    }
+
+    // Passes a served passenger to the next stage, or boards them at the last one.
+    private boolean handOn(BookingDetails booking, int now) {
+        if (next != null) {
+            if (!next.offer(booking, now)) return false;
+        } else if (departed(booking, now)) {
+            missedAtGate++;
+            if (Log.Category.FLIGHT.isEnabled(Log.Level.WARNING)) logActivity(booking.getFullName() + " reached " + stageName + " after flight " + booking.getFlightCode() + " departed.");
+        }
+        passed++;
+        lastOut = now;
+        return true;
+    }
+
+    // Takes the next passenger to serve, turning away those whose flight has already gone.
+    private BookingDetails takeNext(int now) {
+        Entry entry;
+        while ((entry = buffer.poll()) != null) {
+            if (departed(entry.booking, now)) {
+                turnedAway++;
+                if (Log.Category.FLIGHT.isEnabled(Log.Level.WARNING)) logActivity(entry.booking.getFullName() + " was turned away at " + stageName + ", flight " + entry.booking.getFlightCode() + " has departed.");
+                continue;
+            }
+            bufferWaitTotal += now - entry.enteredAt;
+            return entry.booking;
+        }
+        return null;
+    }
+
+    private boolean departed(BookingDetails booking, int now) {
+        FlightDetails flight = flights.getFlight(booking.getFlightCode());
+        return flight == null || now > flight.getDepartureTime();
+    }
+
+    // Logs a missed flight in the stage; callers check Log.Category.FLIGHT first.
+    private void logActivity(String message) {
+        Log.INSTANCE.addMessage(Log.Category.FLIGHT, Log.Level.WARNING, timer.getTimeString() + " [" + stageName + "] " + message);
+    }
+
+    // Returns true if no passenger is waiting in the buffer or at a server.
+    public synchronized boolean isEmpty() {
+        if (!buffer.isEmpty()) return false;
+        for (BookingDetails booking : serving) {
+            if (booking != null) return false;
+        }
+        return true;
+    }
+
+    public String getStageName() { return stageName; }
+    public int getServers() { return serving.length; }
+    public int getServiceMinutes() { return serviceMinutes; }
+    public int getCapacity() { return capacity; }
+    public Order getOrder() { return order; }
+    public synchronized int getBufferSize() { return buffer.size(); }
+    public synchronized int getPeakBuffer() { return peakBuffer; }
+    public synchronized int getPassed() { return passed; }
+    public synchronized int getTurnedAway() { return turnedAway; }
+    // Passengers the last stage finished after their flight had departed.
+    public synchronized int getMissedAtGate() { return missedAtGate; }
+
+    // Share of server-minutes spent serving between the first arrival and the last departure, from 0 to 1.
+    public synchronized double getUtilization() {
+        return activeMinutes() == 0 ? 0 : (double) busyMinutes / ((long) activeMinutes() * serving.length);
+    }
+
+    // Share of server-minutes spent blocked by a full buffer downstream, over the same minutes.
+    public synchronized double getBlockedShare() {
+        return activeMinutes() == 0 ? 0 : (double) blockedMinutes / ((long) activeMinutes() * serving.length);
+    }
+
+    // Minutes from the first passenger arriving to the last leaving, or to now while passengers remain.
+    private int activeMinutes() {
+        if (firstIn < 0) return 0;
+        return (isEmpty() ? lastOut : lastTick) - firstIn + 1;
+    }
+
+    // Mean minutes a passenger waited in the buffer before a server took them.
+    public synchronized double getMeanBufferWait() {
+        int served = passed + count(serving);
+        return served == 0 ? 0 : (double) bufferWaitTotal / served;
+    }
+
+    // Passengers handed on per hour over the same minutes.
+    public synchronized double getThroughputPerHour() {
+        return activeMinutes() == 0 ? 0 : passed * 60.0 / activeMinutes();
+    }
+
+    private static int count(BookingDetails[] serving) {
+        int count = 0;
+        for (BookingDetails booking : serving) {
+            if (booking != null) count++;
+        }
+        return count;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%s (%d x %d min, %s): %d passed, %.0f/h, %.0f%% busy, %.0f%% blocked, buffer peak %d/%d, "
+                        + "mean wait %.1f min, %d turned away%s", stageName, serving.length, serviceMinutes,
+                order.name().toLowerCase(), passed, getThroughputPerHour(), getUtilization() * 100, getBlockedShare() * 100,
+                peakBuffer, capacity, getMeanBufferWait(), turnedAway, next == null ? ", " + missedAtGate + " missed their flight" : "");
+    }
+}
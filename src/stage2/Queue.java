@@ -1,85 +1,282 @@
 package stage2;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
 
 /**
  * Manages a queue of passengers for a simulation.
  * This class is responsible for adding and removing passengers from a queue,
  * and it communicates with observers when changes occur.
+ * Passengers can be split into lanes (per carrier or per flight); each counter serves a home lane
+ * and steals from the busiest other lane when its own is empty.
  * Extends Observable to allow observation and implements Runnable for thread functionality.
  */
 @SuppressWarnings("deprecation")
 public class Queue extends Observable implements Subject, Runnable {
-    private java.util.Queue<BookingDetails> passengerLine = new LinkedList<>();
+    // Lane used when passengers are not split, and the home lane of counters created without one.
+    public static final String SHARED_LANE = "shared";
+    private final Map<String, Lane> lanes = new ConcurrentHashMap<>();
+    private final Function<BookingDetails, String> laneOf;
+    private final AtomicInteger totalSize = new AtomicInteger();
+    private final AtomicInteger missedSize = new AtomicInteger(); // Waiting passengers who have already missed their flight
     private List<Observer> observerList = new ArrayList<>();
-    private List<BookingDetails> unprocessedBookingDetails = new ArrayList<>();
+    private final List<ArrivalSchedule> schedules = new ArrayList<>(); // One per loaded day, dropped once exhausted
+    private final ArrivalProcess arrivalProcess;
     private Timer simTimer;
     private Random rnd = new Random();
     private Boolean allEnqueued = false;
+    private volatile boolean moreArrivalsExpected; // Set while later days are still to be scheduled
 
-    // Constructor: Initializes queue with a timer and a list of bookings.
+    // Constructor: Initializes queue with a timer and a list of bookings, arriving 6 per minute in random order.
     public Queue(Timer timer, AllBookings bookings) {
+        this(timer, bookings, new ArrivalProcess.FixedRate(6));
+    }
+
+    // Constructor: Initializes queue with a timer, a list of bookings and the process deciding when they arrive.
+    public Queue(Timer timer, AllBookings bookings, ArrivalProcess arrivalProcess) {
+        this(timer, bookings, arrivalProcess, booking -> SHARED_LANE);
+    }
+
+    // Constructor: As above, with passengers split into lanes named by laneOf, e.g. Queue.byCarrier(flights).
+    public Queue(Timer timer, AllBookings bookings, ArrivalProcess arrivalProcess, Function<BookingDetails, String> laneOf) {
         this.simTimer = timer;
-        this.unprocessedBookingDetails.addAll(bookings.getAllBookings().values());
+        this.laneOf = laneOf;
+        this.arrivalProcess = arrivalProcess;
+        scheduleArrivals(bookings.getAllBookings().values(), 0);
+    }
+
+    // Copy of another queue for a what-if branch; see fork().
+    private Queue(Queue source, Timer timer, UnaryOperator<BookingDetails> copy) {
+        this.simTimer = timer;
+        this.laneOf = source.laneOf;
+        this.arrivalProcess = source.arrivalProcess;
+        for (Map.Entry<String, Lane> entry : source.lanes.entrySet()) {
+            Lane lane = new Lane();
+            for (BookingDetails bookingDetails : entry.getValue().line) {
+                BookingDetails copied = copy.apply(bookingDetails);
+                lane.offer(copied);
+                totalSize.incrementAndGet();
+                if (copied.getMissedFlight()) missedSize.incrementAndGet();
+            }
+            lanes.put(entry.getKey(), lane);
+        }
+        for (ArrivalSchedule schedule : source.schedules) {
+            schedules.add(new ArrivalSchedule(schedule, copy));
+        }
+        this.allEnqueued = source.allEnqueued;
+    }
+
+    /**
+     * Copies the queue for a what-if branch driven by another timer, with no observers. Waiting passengers are
+     * copied now; passengers still to arrive are copied as they arrive in the branch. Days a multi-day run has
+     * not scheduled yet are not included.
+     *
+     * @param timer Timer of the branch.
+     * @param copy  Returns the branch's copy of a booking.
+     * @return The copied queue.
+     */
+    public synchronized Queue fork(Timer timer, UnaryOperator<BookingDetails> copy) {
+        return new Queue(this, timer, copy);
+    }
+
+    /**
+     * Schedules further bookings, e.g. the next day of a multi-day run, with the queue's arrival process.
+     * Their lanes are created straight away so counters can serve them.
+     *
+     * @param bookings Bookings to schedule.
+     * @param origin   First minute of the bookings' day; none of them arrives earlier.
+     * @return The schedule, to check when every booking in it has arrived.
+     */
+    public synchronized ArrivalSchedule scheduleArrivals(Collection<BookingDetails> bookings, int origin) {
+        bookings.forEach(this::laneFor);
+        ArrivalSchedule schedule = new ArrivalSchedule(bookings, arrivalProcess, rnd, origin);
+        if (!schedule.isExhausted()) {
+            schedules.add(schedule);
+            allEnqueued = false;
+        }
+        return schedule;
+    }
+
+    // Keeps the queue thread running after every scheduled passenger has arrived, while more days are to come.
+    public void setMoreArrivalsExpected(boolean expected) {
+        this.moreArrivalsExpected = expected;
+    }
+
+    // Lane assignment that gives each carrier its own lane. Flights are looked up live, so later additions are found.
+    public static Function<BookingDetails, String> byCarrier(AllFlights flights) {
+        return booking -> {
+            FlightDetails flight = flights.getFlight(booking.getFlightCode());
+            return flight == null ? SHARED_LANE : flight.getCarrier();
+        };
+    }
+
+    // Lane assignment that gives each flight its own lane.
+    public static Function<BookingDetails, String> byFlight() {
+        return BookingDetails::getFlightCode;
     }
 
-    // Logs a message with the current simulation time.
-    private synchronized void logActivity(String message) {
-        Log.INSTANCE.addMessage(simTimer.getTimeString() + " " + message);
+    // Lane assignment named in the stage2.lanes format: "shared" (default), "carrier" or "flight".
+    public static Function<BookingDetails, String> laneAssignment(String lanes, AllFlights flights) {
+        if (lanes.equals("carrier")) return byCarrier(flights);
+        if (lanes.equals("flight")) return byFlight();
+        return booking -> SHARED_LANE;
+    }
+
+    // Logs a message with the current simulation time. The timer read is lock-free, so no monitor is nested here.
+    // Callers check Log.Category.QUEUE first, so a disabled category builds no string.
+    private void logActivity(String message) {
+        Log.INSTANCE.addMessage(Log.Category.QUEUE, Log.Level.INFO, simTimer.getTimeString() + " " + message);
+    }
+
+    // Returns the lane a booking belongs to, creating it if needed.
+    private Lane laneFor(BookingDetails bookingDetails) {
+        return lanes.computeIfAbsent(laneOf.apply(bookingDetails), name -> new Lane());
+    }
+
+    // Adds a booking to the back of its lane.
+    private void offer(BookingDetails bookingDetails) {
+        laneFor(bookingDetails).offer(bookingDetails);
+        totalSize.incrementAndGet();
+        if (bookingDetails.getMissedFlight()) missedSize.incrementAndGet();
     }
 
     // Adds a booking directly to the queue and notifies observers.
-    public synchronized void enqueue(BookingDetails bookingDetails) {
-        passengerLine.offer(bookingDetails);
-        logActivity(bookingDetails.getFullName() + " joined the queue.");
+    public void enqueue(BookingDetails bookingDetails) {
+        bookingDetails.setQueueJoinTime(simTimer.getCurrentTime());
+        offer(bookingDetails);
+        if (Log.Category.QUEUE.isEnabled(Log.Level.INFO)) logActivity(bookingDetails.getFullName() + " joined the queue.");
         notifyObservers(bookingDetails);
     }
 
-    // Randomly selects a booking to add to the queue until all are enqueued.
-    public synchronized void addRandomBooking() {
-        if (!allEnqueued && !unprocessedBookingDetails.isEmpty()) {
-            BookingDetails bookingDetails = unprocessedBookingDetails.remove(rnd.nextInt(unprocessedBookingDetails.size()));
-            passengerLine.add(bookingDetails);
-            logActivity(bookingDetails.getFullName() + " joined the queue.");
-            notifyObservers(bookingDetails);
-        } else if (unprocessedBookingDetails.isEmpty()) {
+    // Adds every booking whose scheduled arrival time has been reached, in O(1) per arrival.
+    public synchronized void admitArrivals() {
+        int now = simTimer.getCurrentTime();
+        for (Iterator<ArrivalSchedule> iterator = schedules.iterator(); iterator.hasNext(); ) {
+            ArrivalSchedule arrivals = iterator.next();
+            while (arrivals.hasArrival(now)) {
+                BookingDetails bookingDetails = arrivals.takeNext();
+                bookingDetails.setQueueJoinTime(now);
+                offer(bookingDetails);
+                if (Log.Category.QUEUE.isEnabled(Log.Level.INFO)) logActivity(bookingDetails.getFullName() + " joined the queue.");
+                notifyObservers(bookingDetails);
+            }
+            if (arrivals.isExhausted()) iterator.remove();
+        }
+        if (!allEnqueued && schedules.isEmpty()) {
             allEnqueued = true;
             logActivity("All passengers have joined the queue");
         }
     }
 
-    // Removes the first booking in the queue and notifies observers.
-    public synchronized BookingDetails removeFirst() {
-        BookingDetails removed = passengerLine.poll();
-        if (removed != null) {
-            logActivity(removed.getFullName() + " left the queue.");
-            notifyObservers();
+    /**
+     * Takes the next passenger for a counter: the head of its home lane, or, if that lane is empty,
+     * the head of the busiest other lane. Lanes are lock-free, so owners and thieves never block each other.
+     * Passengers who have already missed their flight are returned as well, for the counter to recycle.
+     *
+     * @param homeLane The counter's home lane, or null for a counter that always serves the busiest lane.
+     * @return The next passenger, or null if every lane is empty.
+     */
+    public BookingDetails takeNext(String homeLane) {
+        Lane home = homeLane == null ? null : lanes.get(homeLane);
+        BookingDetails next = home == null ? null : home.poll();
+        // Another counter may empty the chosen lane first, so retry a bounded number of times.
+        for (int attempt = 0; next == null && attempt < lanes.size(); attempt++) {
+            Lane busiest = busiestLane();
+            if (busiest == null) {
+                break;
+            }
+            next = busiest.poll();
+        }
+        if (next != null) {
+            totalSize.decrementAndGet();
+            if (next.getMissedFlight()) {
+                missedSize.decrementAndGet();
+            } else {
+                if (Log.Category.QUEUE.isEnabled(Log.Level.INFO)) logActivity(next.getFullName() + " left the queue.");
+                notifyObservers(new Removal(next));
+            }
         }
-        return removed;
+        return next;
     }
 
-    // Moves the first booking to the back of the queue and notifies observers.
-    public synchronized void recycleBooking() {
-        if (!passengerLine.isEmpty()) {
-            BookingDetails temp = passengerLine.poll();
-            passengerLine.offer(temp);
-            logActivity("Recycled to the end: " + temp.getFullName());
-            notifyObservers(temp);
+    // Returns the lane with the most waiting passengers, or null if all are empty.
+    private Lane busiestLane() {
+        Lane busiest = null;
+        for (Lane lane : lanes.values()) {
+            if (lane.size() > 0 && (busiest == null || lane.size() > busiest.size())) {
+                busiest = lane;
+            }
         }
+        return busiest;
     }
 
-    // Main loop for the thread, enqueuing passengers at intervals.
-    public void run() {
-        for (int i = 0; i < 6; i++) {
-            addRandomBooking();
+    // Moves a passenger taken with takeNext to the back of their lane and notifies observers.
+    public void recycle(BookingDetails bookingDetails) {
+        offer(bookingDetails);
+        SimulationEvents.PassengerRecycled event = new SimulationEvents.PassengerRecycled();
+        if (event.shouldCommit()) {
+            event.booking = bookingDetails.getReference();
+            event.flight = bookingDetails.getFlightCode();
+            event.queueSize = queueSize();
+            event.commit();
+        }
+        if (Log.Category.QUEUE.isEnabled(Log.Level.INFO)) logActivity("Recycled to the end: " + bookingDetails.getFullName());
+        notifyObservers(new Removal(bookingDetails));
+        notifyObservers(bookingDetails);
+    }
+
+    /**
+     * Reports that a passenger taken with takeNext has left the simulation instead of being served or recycled,
+     * e.g. because their day of a multi-day run was released. takeNext only reports passengers who have not
+     * missed their flight, so observers hear of the others here.
+     *
+     * @param bookingDetails The passenger taken.
+     */
+    public void drop(BookingDetails bookingDetails) {
+        if (bookingDetails.getMissedFlight()) {
+            if (Log.Category.QUEUE.isEnabled(Log.Level.INFO)) logActivity(bookingDetails.getFullName() + " left the queue.");
+            notifyObservers(new Removal(bookingDetails));
+        }
+    }
+
+    /**
+     * Removes every waiting passenger matching the filter, e.g. those of a day being released,
+     * and notifies observers of each removal. A passenger a counter takes at the same time is left to the counter.
+     *
+     * @param filter Passengers to remove.
+     * @return The number of passengers removed.
+     */
+    public int discard(Predicate<BookingDetails> filter) {
+        List<BookingDetails> removed = new ArrayList<>();
+        for (Lane lane : lanes.values()) {
+            for (BookingDetails bookingDetails : lane.line) {
+                if (filter.test(bookingDetails) && lane.remove(bookingDetails)) {
+                    totalSize.decrementAndGet();
+                    if (bookingDetails.getMissedFlight()) missedSize.decrementAndGet();
+                    removed.add(bookingDetails);
+                }
+            }
+        }
+        for (BookingDetails bookingDetails : removed) {
+            if (Log.Category.QUEUE.isEnabled(Log.Level.INFO)) logActivity(bookingDetails.getFullName() + " was removed from the queue.");
+            notifyObservers(new Removal(bookingDetails));
         }
-        while (!passengerLine.isEmpty()) {
+        return removed.size();
+    }
+
+    // Main loop for the thread, enqueuing passengers as their arrival times are reached.
+    public void run() {
+        admitArrivals();
+        while (!allEnqueued || queueSize() > 0 || moreArrivalsExpected) {
             synchronized (simTimer) {
                 try {
                     simTimer.wait();
-                    for (int i = 0; i < 6; i++) {
-                        addRandomBooking();
-                    }
+                    admitArrivals();
                 } catch (InterruptedException e) {
                     Thread.currentThread().interrupt();
                 }
@@ -102,27 +299,132 @@ public class Queue extends Observable implements Subject, Runnable {
     // Notifies all observers without specific booking information.
     @Override
     public void notifyObservers() {
-        observerList.forEach(observer -> observer.update(this, null));
+        observerList.forEach(observer -> SimulationEvents.dispatch(this, observer, this, null));
     }
 
     // Notifies all observers with specific booking information.
     public void notifyObservers(BookingDetails bookingDetails) {
-        observerList.forEach(observer -> observer.update(this, bookingDetails));
+        observerList.forEach(observer -> SimulationEvents.dispatch(this, observer, this, bookingDetails));
     }
 
-    // Returns the number of bookings in the queue.
+    // Notifies all observers that a booking has left the queue.
+    private void notifyObservers(Removal removal) {
+        observerList.forEach(observer -> SimulationEvents.dispatch(this, observer, this, removal));
+    }
+
+    // Returns true once every scheduled passenger has arrived at the queue and no later day is still to be scheduled.
+    public synchronized boolean hasAdmittedAll() {
+        return allEnqueued && !moreArrivalsExpected;
+    }
+
+    // Returns the number of bookings in the queue, across all lanes.
     public int queueSize() {
-        return passengerLine.size();
+        return totalSize.get();
+    }
+
+    // Returns the number of bookings in the queue who can still be checked in, leaving out those recycling
+    // after missing their flight.
+    public int servableSize() {
+        return totalSize.get() - missedSize.get();
+    }
+
+    // Returns the number of bookings scheduled to arrive that have not yet joined the queue.
+    public synchronized int getScheduledCount() {
+        int scheduled = 0;
+        for (ArrivalSchedule schedule : schedules) {
+            scheduled += schedule.remaining();
+        }
+        return scheduled;
+    }
+
+    /**
+     * Estimates the bytes held by the queue itself: a lane node per waiting passenger and the arrival schedules.
+     * The bookings are counted by AllBookings.
+     *
+     * @return Estimated bytes.
+     */
+    public synchronized long estimateBytes() {
+        long bytes = 24L * queueSize() + 64L * lanes.size();
+        for (ArrivalSchedule schedule : schedules) {
+            bytes += schedule.estimateBytes();
+        }
+        return bytes;
+    }
+
+    // Returns the number of bookings waiting in one lane.
+    public int laneSize(String lane) {
+        Lane found = lanes.get(lane);
+        return found == null ? 0 : found.size();
+    }
+
+    // Returns the names of all lanes, in a stable order for assigning counters.
+    public List<String> getLaneNames() {
+        List<String> names = new ArrayList<>(lanes.keySet());
+        Collections.sort(names);
+        return names;
     }
 
-    // Peeks at the first booking in the queue without removing it.
+    // Peeks at the first booking of the busiest lane without removing it.
     public BookingDetails firstInLine() {
-        return passengerLine.peek();
+        Lane busiest = busiestLane();
+        return busiest == null ? null : busiest.peek();
     }
 
-    // Provides access to the internal queue.
-    public synchronized java.util.Queue<BookingDetails> getPassengerQueue() {
-        return this.passengerLine;
+    // Returns a copy of every queued booking, lane by lane.
+    public java.util.Queue<BookingDetails> getPassengerQueue() {
+        java.util.Queue<BookingDetails> copy = new LinkedList<>();
+        for (String name : getLaneNames()) {
+            copy.addAll(lanes.get(name).line);
+        }
+        return copy;
+    }
+
+    // Observer argument sent when a booking leaves the queue, so views can remove that specific booking.
+    public static class Removal {
+        private final BookingDetails booking;
+
+        Removal(BookingDetails booking) {
+            this.booking = booking;
+        }
+
+        public BookingDetails getBooking() {
+            return booking;
+        }
+    }
+
+    // One line of passengers. Polling is a lock-free CAS, and the size is kept separately so it is O(1).
+    private static class Lane {
+        private final ConcurrentLinkedQueue<BookingDetails> line = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+
+        void offer(BookingDetails bookingDetails) {
+            line.offer(bookingDetails);
+            size.incrementAndGet();
+        }
+
+        BookingDetails poll() {
+            BookingDetails polled = line.poll();
+            if (polled != null) {
+                size.decrementAndGet();
+            }
+            return polled;
+        }
+
+        boolean remove(BookingDetails bookingDetails) {
+            if (!line.remove(bookingDetails)) {
+                return false;
+            }
+            size.decrementAndGet();
+            return true;
+        }
+
+        BookingDetails peek() {
+            return line.peek();
+        }
+
+        int size() {
+            return size.get();
+        }
     }
 }
 
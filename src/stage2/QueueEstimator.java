@@ -0,0 +1,301 @@
+package stage2;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.TreeSet;
+
+/**
+ * Keeps an estimated time to counter for every queued passenger and flags those expected to miss their flight.
+ *
+ * Each passenger joining the queue gets the next sequence number, and a Fenwick tree over sequence numbers counts
+ * who is still waiting, so a passenger's position is a prefix sum and the passenger at a given position is a
+ * binary descent, both O(log n). Passengers are assumed to be served in the order they joined, by every open
+ * counter at serviceRate passengers a minute each; with lanes this is an approximation.
+ *
+ * A flight can still board the passengers up to position (departure - now) * rate, so its at-risk passengers are
+ * always a suffix of its queued passengers. Each flight keeps the sequence number where that suffix starts, and a
+ * refresh moves the boundary and flips only the passengers between the old and new boundary. Joining the queue
+ * refreshes that passenger's flight; ticks and counters opening or closing refresh every flight. Leaving the queue
+ * can only improve other estimates, so those flights are refreshed on the next tick.
+ */
+@SuppressWarnings("deprecation")
+public class QueueEstimator implements Observer, Subject {
+    private final AllFlights flights;
+    private final List<Counter> counters;
+    private final double serviceRate; // Passengers served per minute by one open counter
+    private final List<Observer> observers = new ArrayList<>();
+    private final Map<BookingDetails, Integer> sequenceOf = new IdentityHashMap<>();
+    private final Map<String, FlightLine> lines = new HashMap<>();
+    private BookingDetails[] bySequence = new BookingDetails[1024];
+    private FlightLine[] lineOf = new FlightLine[1024]; // Line each sequence number was added to, even if later rebooked
+    private int[] tree = new int[1025]; // Fenwick tree over sequence numbers, 1-based
+    private int nextSequence = 1;
+    private int queued;
+    private int openCounters;
+    private int currentTime;
+    private boolean stale; // Passengers have left since the last full refresh
+
+    /**
+     * Creates an estimator; register it on the queue, the counters and the timer.
+     *
+     * @param flights     Flights the passengers are booked on.
+     * @param counters    Check-in counters, to count how many are open.
+     * @param serviceRate Passengers one open counter serves per minute.
+     */
+    public QueueEstimator(AllFlights flights, List<Counter> counters, double serviceRate) {
+        if (serviceRate <= 0) {
+            throw new IllegalArgumentException("Service rate must be positive.");
+        }
+        this.flights = flights;
+        this.counters = counters;
+        this.serviceRate = serviceRate;
+        this.openCounters = countOpen();
+    }
+
+    /**
+     * Follows queue joins and departures, counters opening and closing, and the clock.
+     *
+     * @param o   The Queue for queue changes, otherwise null.
+     * @param arg A BookingDetails that joined, a Queue.Removal, a Counter or the Timer.
+     */
+    @Override
+    public void update(Observable o, Object arg) {
+        if (arg instanceof Queue.Removal) {
+            remove(((Queue.Removal) arg).getBooking());
+        } else if (o instanceof Queue && arg instanceof BookingDetails) {
+            add((BookingDetails) arg);
+        } else if (arg instanceof Counter) {
+            counterChanged();
+        } else if (arg instanceof Timer) {
+            tick(((Timer) arg).getCurrentTime());
+        }
+    }
+
+    // Adds a passenger at the back of the queue and refreshes their flight.
+    private synchronized void add(BookingDetails booking) {
+        if (sequenceOf.containsKey(booking)) {
+            return;
+        }
+        if (nextSequence >= bySequence.length) {
+            makeRoom();
+        }
+        int sequence = nextSequence++;
+        sequenceOf.put(booking, sequence);
+        bySequence[sequence] = booking;
+        update(sequence, 1);
+        queued++;
+        FlightLine line = lines.computeIfAbsent(booking.getFlightCode(), FlightLine::new);
+        lineOf[sequence] = line;
+        line.sequences.add(sequence);
+        refresh(line);
+        setAtRisk(booking, sequence >= line.boundary); // Joined behind a boundary that did not move
+    }
+
+    // Removes a passenger who has reached a counter; they are no longer at risk while being served.
+    private synchronized void remove(BookingDetails booking) {
+        Integer sequence = sequenceOf.remove(booking);
+        if (sequence == null) {
+            return;
+        }
+        bySequence[sequence] = null;
+        lineOf[sequence].sequences.remove(sequence);
+        lineOf[sequence] = null;
+        update(sequence, -1);
+        queued--;
+        setAtRisk(booking, false);
+        stale = true;
+    }
+
+    private synchronized void counterChanged() {
+        int open = countOpen();
+        if (open != openCounters) {
+            openCounters = open;
+            refreshAll();
+        }
+    }
+
+    private synchronized void tick(int time) {
+        currentTime = time;
+        refreshAll();
+    }
+
+    private int countOpen() {
+        int open = 0;
+        for (Counter counter : counters) {
+            if (counter.getIsOpen()) open++;
+        }
+        return open;
+    }
+
+    private void refreshAll() {
+        for (FlightLine line : lines.values()) {
+            refresh(line);
+        }
+        stale = false;
+    }
+
+    // Moves a flight's at-risk boundary to match the current time, rate and queue, flipping the passengers in between.
+    private void refresh(FlightLine line) {
+        int boundary = Integer.MAX_VALUE;
+        if (!line.sequences.isEmpty()) {
+            FlightDetails flight = flights.getFlight(line.flightCode);
+            double rate = openCounters * serviceRate;
+            if (flight != null) {
+                double minutesLeft = flight.getDepartureTime() - currentTime;
+                // Passengers up to this position are served before departure; later ones are at risk
+                long boardable = !flight.getGateOpen() || rate == 0 || minutesLeft <= 0 ? 0 : (long) Math.floor(minutesLeft * rate);
+                boundary = boardable >= queued ? Integer.MAX_VALUE : sequenceAt((int) boardable + 1);
+            }
+        }
+        if (boundary < line.boundary) {
+            for (int sequence : line.sequences.subSet(boundary, true, line.boundary, false)) {
+                setAtRisk(bySequence[sequence], true);
+            }
+        } else if (boundary > line.boundary) {
+            for (int sequence : line.sequences.subSet(line.boundary, true, boundary, false)) {
+                setAtRisk(bySequence[sequence], false);
+            }
+        }
+        line.boundary = boundary;
+    }
+
+    private void setAtRisk(BookingDetails booking, boolean atRisk) {
+        if (booking.isAtRisk() != atRisk) {
+            booking.setAtRisk(atRisk);
+            notifyObservers(new RiskChange(booking));
+        }
+    }
+
+    /**
+     * Returns the estimated minute a queued passenger reaches a counter, in O(log n).
+     *
+     * @param booking A queued passenger.
+     * @return Estimated simulation minute, -1 if the passenger is not queued, or Integer.MAX_VALUE if no counter is open.
+     */
+    public synchronized int estimateServiceTime(BookingDetails booking) {
+        Integer sequence = sequenceOf.get(booking);
+        if (sequence == null) {
+            return -1;
+        }
+        if (openCounters == 0) {
+            return Integer.MAX_VALUE;
+        }
+        return currentTime + (int) Math.ceil(prefix(sequence) / (openCounters * serviceRate));
+    }
+
+    // Returns the number of passengers currently flagged for a flight.
+    public synchronized int getAtRiskCount(String flightCode) {
+        if (stale) refreshAll();
+        FlightLine line = lines.get(flightCode);
+        return line == null || line.boundary == Integer.MAX_VALUE ? 0 : line.sequences.tailSet(line.boundary, true).size();
+    }
+
+    // Returns the number of passengers the estimator is tracking.
+    public synchronized int getQueuedCount() { return queued; }
+
+    private void update(int index, int delta) {
+        for (int i = index; i < tree.length; i += i & -i) tree[i] += delta;
+    }
+
+    private int prefix(int index) {
+        int sum = 0;
+        for (int i = index; i > 0; i -= i & -i) sum += tree[i];
+        return sum;
+    }
+
+    // Returns the sequence number of the passenger at the given 1-based position.
+    private int sequenceAt(int position) {
+        int index = 0;
+        for (int step = Integer.highestOneBit(tree.length - 1); step > 0; step >>= 1) {
+            if (index + step < tree.length && tree[index + step] < position) {
+                index += step;
+                position -= tree[index];
+            }
+        }
+        return index + 1;
+    }
+
+    // Renumbers the waiting passengers from 1 when most sequence numbers belong to passengers who have left,
+    // otherwise doubles the capacity. Either way the tree is rebuilt in O(n).
+    private void makeRoom() {
+        int capacity = queued * 2 >= bySequence.length - 1 ? bySequence.length * 2 : bySequence.length;
+        BookingDetails[] renumbered = new BookingDetails[capacity];
+        FlightLine[] renumberedLines = new FlightLine[capacity];
+        int sequence = 1;
+        for (int old = 1; old < nextSequence; old++) {
+            BookingDetails booking = bySequence[old];
+            if (booking != null) {
+                renumbered[sequence] = booking;
+                renumberedLines[sequence] = lineOf[old];
+                sequenceOf.put(booking, sequence++);
+            }
+        }
+        bySequence = renumbered;
+        lineOf = renumberedLines;
+        nextSequence = sequence;
+        tree = new int[capacity + 1];
+        for (int i = 1; i < tree.length; i++) {
+            if (i < nextSequence) tree[i]++;
+            int parent = i + (i & -i);
+            if (parent < tree.length) tree[parent] += tree[i];
+        }
+        for (FlightLine line : lines.values()) {
+            line.sequences.clear();
+            line.boundary = Integer.MAX_VALUE;
+        }
+        for (int i = 1; i < nextSequence; i++) {
+            FlightLine line = lineOf[i];
+            if (bySequence[i].isAtRisk()) line.boundary = Math.min(line.boundary, i);
+            line.sequences.add(i);
+        }
+    }
+
+    @Override
+    public void registerObserver(Observer observer) {
+        observers.add(observer);
+    }
+
+    @Override
+    public void removeObserver(Observer observer) {
+        observers.remove(observer);
+    }
+
+    @Override
+    public void notifyObservers() {
+        observers.forEach(observer -> SimulationEvents.dispatch(this, observer, null, this));
+    }
+
+    private void notifyObservers(RiskChange change) {
+        observers.forEach(observer -> SimulationEvents.dispatch(this, observer, null, change));
+    }
+
+    // Queued passengers of one flight and where its at-risk suffix starts (Integer.MAX_VALUE when nobody is at risk).
+    private static class FlightLine {
+        private final String flightCode;
+        private final NavigableSet<Integer> sequences = new TreeSet<>();
+        private int boundary = Integer.MAX_VALUE;
+
+        FlightLine(String flightCode) {
+            this.flightCode = flightCode;
+        }
+    }
+
+    // Observer argument sent when a queued passenger becomes, or stops being, at risk of missing their flight.
+    public static class RiskChange {
+        private final BookingDetails booking;
+
+        RiskChange(BookingDetails booking) {
+            this.booking = booking;
+        }
+
+        public BookingDetails getBooking() {
+            return booking;
+        }
+    }
+}
@@ -0,0 +1,467 @@
+package stage2;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Analytical estimate of queue waits and missed flights, for answers in microseconds instead of a full run.
+ *
+ * Arrival minutes are drawn once from an ArrivalProcess, as the queue would, and binned into windows of a fixed
+ * length. Each window is treated as a multi-server queue at that window's arrival rate: Erlang C gives the chance
+ * of waiting and the mean wait of an M/M/c queue, scaled by the Allen-Cunneen factor (Ca^2 + Cs^2) / 2. A counter
+ * takes exactly one tick per passenger, so Cs^2 is 0, and Ca^2 is the variance-to-mean ratio of the window's
+ * per-minute arrival counts (1 for Poisson arrivals, 0 for a fixed rate). A window arriving faster than the counters
+ * can serve builds a backlog that is carried into the next windows and drained as a fluid, delaying everyone
+ * who arrives meanwhile; that window's own arrivals wait evenly spread between the backlog's delay at its start and
+ * its end. A window arriving exactly as fast as the counters serve grows no fluid backlog but drains nothing
+ * either, so its arrivals are spread over at least half the time the counters would need if it all came at once.
+ *
+ * A passenger misses their flight when their wait is longer than the time from arriving to departure. Those times
+ * are kept per window as a histogram of 5-minute buckets, so an estimate costs O(windows * (counters + buckets))
+ * however many bookings there are. Passengers who miss their flight and queue again are not modelled.
+ *
+ * Usage: java stage2.QueueingModel [--counters 6] [--window 15] [--target 10] [--validate 0.25]
+ */
+public class QueueingModel {
+    private static final int SLACK_BUCKET = 5; // Minutes per slack histogram bucket
+
+    private final AllFlights flights;
+    private final int windowMinutes;
+    private final double serviceRate;
+    private final BookingDetails[] bookings; // Bookings that arrive, with their arrival minute in times
+    private final int[] times;
+    private int[] arrivals; // Per window
+    private double[] dispersion; // Ca^2 per window
+    private int[][] slack; // Per window; bucket 0 holds passengers arriving at or after departure
+
+    /**
+     * Draws arrival times for the bookings and bins them into windows.
+     *
+     * @param flights       Flights, for departure times.
+     * @param bookings      Bookings to estimate for.
+     * @param process       Arrival process, e.g. ArrivalProcess.fromProperty(flights).
+     * @param windowMinutes Length of each window.
+     * @param serviceRate   Passengers one open counter serves per minute.
+     * @param seed          Seed for the arrival draw, so estimates can be repeated.
+     */
+    public QueueingModel(AllFlights flights, AllBookings bookings, ArrivalProcess process, int windowMinutes,
+                         double serviceRate, long seed) {
+        if (windowMinutes < 1 || serviceRate <= 0) {
+            throw new IllegalArgumentException("Window length and service rate must be positive.");
+        }
+        this.flights = flights;
+        this.windowMinutes = windowMinutes;
+        this.serviceRate = serviceRate;
+        // Shuffled and timed the way ArrivalSchedule does it
+        Random rnd = new Random(seed);
+        BookingDetails[] shuffled = bookings.getAllBookings().values().toArray(new BookingDetails[0]);
+        Collections.shuffle(Arrays.asList(shuffled), rnd);
+        int[] assigned = new int[shuffled.length];
+        process.assignTimes(shuffled, assigned, rnd);
+        int count = 0;
+        for (int time : assigned) {
+            if (time >= 0) count++;
+        }
+        this.bookings = new BookingDetails[count];
+        this.times = new int[count];
+        for (int i = 0, j = 0; i < shuffled.length; i++) {
+            if (assigned[i] >= 0) {
+                this.bookings[j] = shuffled[i];
+                this.times[j++] = assigned[i];
+            }
+        }
+        bin();
+    }
+
+    // Builds a model over a subset of another model's timed bookings.
+    private QueueingModel(QueueingModel source, BookingDetails[] bookings, int[] times) {
+        this.flights = source.flights;
+        this.windowMinutes = source.windowMinutes;
+        this.serviceRate = source.serviceRate;
+        this.bookings = bookings;
+        this.times = times;
+        bin();
+    }
+
+    // Counts arrivals, per-minute dispersion and slack before departure for every window.
+    private void bin() {
+        int lastTime = 0;
+        for (int time : times) {
+            lastTime = Math.max(lastTime, time);
+        }
+        int windows = times.length == 0 ? 0 : lastTime / windowMinutes + 1;
+        int[] perMinute = new int[windows * windowMinutes];
+        int[] buckets = new int[windows];
+        int[] slackBucket = new int[times.length];
+        arrivals = new int[windows];
+        for (int i = 0; i < times.length; i++) {
+            int window = times[i] / windowMinutes;
+            arrivals[window]++;
+            perMinute[times[i]]++;
+            FlightDetails flight = flights.getFlight(bookings[i].getFlightCode());
+            double minutesLeft = flight == null ? 0 : flight.getDepartureTime() - times[i];
+            slackBucket[i] = minutesLeft <= 0 ? 0 : 1 + (int) ((minutesLeft - 1) / SLACK_BUCKET);
+            buckets[window] = Math.max(buckets[window], slackBucket[i] + 1);
+        }
+        slack = new int[windows][];
+        for (int w = 0; w < windows; w++) {
+            slack[w] = new int[buckets[w]];
+        }
+        for (int i = 0; i < times.length; i++) {
+            slack[times[i] / windowMinutes][slackBucket[i]]++;
+        }
+        dispersion = new double[windows];
+        for (int w = 0; w < windows; w++) {
+            double mean = arrivals[w] / (double) windowMinutes;
+            double variance = 0;
+            for (int t = w * windowMinutes; t < (w + 1) * windowMinutes; t++) {
+                variance += (perMinute[t] - mean) * (perMinute[t] - mean);
+            }
+            dispersion[w] = mean == 0 ? 1 : variance / windowMinutes / mean;
+        }
+    }
+
+    /**
+     * Estimates waits and missed flights with the given number of open counters.
+     *
+     * @param counters Open counters, at least 1.
+     * @return Per-window estimates.
+     */
+    public Estimate estimate(int counters) {
+        if (counters < 1) {
+            throw new IllegalArgumentException("At least one counter is needed.");
+        }
+        long start = System.nanoTime();
+        double capacity = counters * serviceRate;
+        double backlog = 0;
+        List<Window> windows = new ArrayList<>(arrivals.length);
+        for (int w = 0; w < arrivals.length; w++) {
+            double rate = arrivals[w] / (double) windowMinutes;
+            double startBacklog = backlog;
+            backlog = Math.max(0, backlog + (rate - capacity) * windowMinutes);
+            boolean saturated = rate > 0 && rate >= capacity;
+            // A saturated window's own arrivals are covered by the spread below, so only the backlog it inherits counts
+            double backlogDelay = saturated ? startBacklog / capacity : (startBacklog + backlog) / 2 / capacity;
+            double waitProbability = backlogDelay > 0 || saturated ? 1 : 0;
+            double queueWait = 0;
+            double tailRate = Double.POSITIVE_INFINITY; // Decay of P(wait > x) beyond the backlog delay
+            double longestWait = Math.max(0, arrivals[w] - 1) / capacity; // If the whole window arrived at once
+            double spread = longestWait; // Waits beyond the backlog delay fall within this
+            if (saturated) {
+                // Erlang C is 1 and its mean wait unbounded. The fluid backlog grows evenly through the window, so its
+                // arrivals wait evenly from the inherited delay up to the end one; at exactly full load it does not
+                // grow, yet nothing drains either, so the spread is at least the mean of the all-at-once bound
+                spread = Math.max((backlog - startBacklog) / capacity, longestWait / 2);
+                queueWait = spread / 2;
+            } else if (rate > 0) {
+                double erlangC = erlangC(counters, rate / serviceRate);
+                // A burst, e.g. everyone arriving in the window's first minute, gives a huge Ca^2, but the window's
+                // own arrivals can never wait longer on average than if they had all come at once
+                queueWait = Math.min(erlangC * dispersion[w] / 2 / (capacity - rate), longestWait / 2);
+                waitProbability = Math.max(waitProbability, erlangC);
+                if (queueWait > 0) tailRate = erlangC / queueWait; // Exponential tail with that mean
+            }
+            double expectedMissed = 0;
+            for (int b = 0; b < slack[w].length; b++) {
+                if (slack[w][b] == 0) continue;
+                double minutesLeft = b == 0 ? 0 : (b - 0.5) * SLACK_BUCKET;
+                double missProbability;
+                if (minutesLeft <= backlogDelay) {
+                    missProbability = 1;
+                } else if (minutesLeft - backlogDelay > spread) {
+                    missProbability = 0;
+                } else if (saturated) {
+                    missProbability = 1 - (minutesLeft - backlogDelay) / spread;
+                } else {
+                    missProbability = waitProbability * Math.exp(-tailRate * (minutesLeft - backlogDelay));
+                }
+                expectedMissed += slack[w][b] * missProbability;
+            }
+            windows.add(new Window(w * windowMinutes, arrivals[w], rate / capacity, waitProbability,
+                    backlogDelay + queueWait, backlog, expectedMissed));
+        }
+        return new Estimate(counters, windows, System.nanoTime() - start);
+    }
+
+    /**
+     * Finds the fewest counters that keep every window's mean wait within a target, by binary search.
+     *
+     * @param targetWait  Longest acceptable mean wait in any window, in minutes.
+     * @param maxCounters Most counters available.
+     * @return The number of counters, or -1 if even maxCounters misses the target.
+     */
+    public int countersNeeded(double targetWait, int maxCounters) {
+        if (maxCounters < 1 || estimate(maxCounters).getMaxWait() > targetWait) {
+            return -1;
+        }
+        int low = 1, high = maxCounters;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (estimate(mid).getMaxWait() <= targetWait) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Checks the model against a simulation of a random sample of the bookings. The sample arrives at the same
+     * minutes the model drew, with the counters scaled down by the same fraction, and runs on copies of the flights
+     * and bookings through SimulationEngine. The model is evaluated on the same sample, so the difference is the
+     * model's error, not sampling noise in the arrival rate.
+     *
+     * @param counters       Counters for the full dataset.
+     * @param sampleFraction Share of bookings to simulate, up to 1.
+     * @param seed           Seed for choosing the sample.
+     * @return Per-window estimated and simulated values.
+     */
+    public Validation validate(int counters, double sampleFraction, long seed) {
+        if (sampleFraction <= 0 || sampleFraction > 1) {
+            throw new IllegalArgumentException("Sample fraction must be in (0, 1].");
+        }
+        Random rnd = new Random(seed);
+        List<BookingDetails> chosen = new ArrayList<>();
+        List<Integer> chosenTimes = new ArrayList<>();
+        for (int i = 0; i < bookings.length; i++) {
+            if (sampleFraction == 1 || rnd.nextDouble() < sampleFraction) {
+                chosen.add(bookings[i]);
+                chosenTimes.add(times[i]);
+            }
+        }
+        int sampledCounters = Math.max(1, (int) Math.round(counters * sampleFraction));
+        BookingDetails[] sample = chosen.toArray(new BookingDetails[0]);
+        int[] sampleTimes = chosenTimes.stream().mapToInt(Integer::intValue).toArray();
+        Estimate estimate = new QueueingModel(this, sample, sampleTimes).estimate(sampledCounters);
+
+        // The run changes check-in and passenger totals, so it works on copies
+        AllFlights flightCopies = new AllFlights();
+        for (FlightDetails flight : flights.getAllFlights().values()) {
+            flightCopies.addFlight(new FlightDetails(flight.getFlightCode(), flight.getDestination(), flight.getCarrier(),
+                    flight.getMaxPassengers(), flight.getAllowedBaggageWeight(), flight.getAllowedBaggageLength(),
+                    flight.getAllowedBaggageHeight(), flight.getAllowedBaggageWidth(), flight.getExcessFeeCharge(),
+                    (int) flight.getDepartureTime()));
+        }
+        AllBookings bookingCopies = new AllBookings();
+        BookingDetails[] copies = new BookingDetails[sample.length];
+        Map<String, Integer> trace = new HashMap<>();
+        for (int i = 0; i < sample.length; i++) {
+            BookingDetails booking = sample[i];
+            copies[i] = new BookingDetails(booking.getReference(), booking.getFirstName(), booking.getLastName(), booking.getFlightCode(),
+                    booking.getBaggageWeight(), booking.getBaggageLength(), booking.getBaggageHeight(), booking.getBaggageWidth());
+            bookingCopies.addBooking(copies[i]);
+            trace.put(booking.getReference(), sampleTimes[i]);
+        }
+        SimulationResult result = new SimulationEngine(new SimulationConfig().setCounters(sampledCounters)
+                .setArrivalProcess(new ArrivalProcess.Trace(trace)), flightCopies, bookingCopies).run();
+
+        int windows = estimate.getWindows().size();
+        double[] waitTotals = new double[windows];
+        int[] checkedIn = new int[windows];
+        int[] missed = new int[windows];
+        for (int i = 0; i < copies.length; i++) {
+            int window = sampleTimes[i] / windowMinutes;
+            if (copies[i].getCheckInStatus()) {
+                waitTotals[window] += copies[i].getQueueWaitTime();
+                checkedIn[window]++;
+            } else if (copies[i].getMissedFlight()) {
+                missed[window]++;
+            }
+        }
+        double[] meanWaits = new double[windows];
+        for (int w = 0; w < windows; w++) {
+            meanWaits[w] = checkedIn[w] == 0 ? Double.NaN : waitTotals[w] / checkedIn[w];
+        }
+        return new Validation(sampleFraction, estimate, result, meanWaits, checkedIn, missed);
+    }
+
+    /**
+     * Probability that an arrival has to wait in an M/M/c queue, from the Erlang B recurrence, in O(servers).
+     *
+     * @param servers Number of servers.
+     * @param load    Offered load in erlangs (arrival rate / service rate per server), below servers.
+     * @return Erlang C probability.
+     */
+    static double erlangC(int servers, double load) {
+        double erlangB = 1;
+        for (int k = 1; k <= servers; k++) {
+            erlangB = load * erlangB / (k + load * erlangB);
+        }
+        return erlangB / (1 - load / servers * (1 - erlangB));
+    }
+
+    public int getWindowMinutes() { return windowMinutes; }
+    public int getArrivingPassengers() { return times.length; }
+
+    public static void main(String[] args) throws IOException {
+        int counters = 6;
+        int window = 15;
+        double target = -1;
+        double validate = 0;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--counters": counters = Integer.parseInt(args[++i]); break;
+                case "--window": window = Integer.parseInt(args[++i]); break;
+                case "--target": target = Double.parseDouble(args[++i]); break;
+                case "--validate": validate = Double.parseDouble(args[++i]); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        DataLoader loader = new DataLoader(Paths.get("data"));
+        AllFlights flights = loader.getFlights();
+        QueueingModel model = new QueueingModel(flights, loader.getBookings(), ArrivalProcess.fromProperty(flights), window, 1.0, 1);
+        Estimate estimate = model.estimate(counters);
+        System.out.println("window,arrivals,utilisation,wait_probability,mean_wait,backlog,expected_missed");
+        for (Window row : estimate.getWindows()) {
+            System.out.println(String.format("%02d:%02d,%d,%.2f,%.2f,%.1f,%.0f,%.1f", row.getStart() / 60, row.getStart() % 60, row.getArrivals(),
+                    row.getUtilisation(), row.getWaitProbability(), row.getMeanWait(), row.getBacklog(), row.getExpectedMissed()));
+        }
+        System.out.println(estimate);
+        if (target >= 0) {
+            int needed = model.countersNeeded(target, 1000);
+            System.out.println(needed < 0 ? "More than 1000 counters are needed for a " + target + " minute wait."
+                    : needed + " counters keep every window's mean wait within " + target + " minutes.");
+        }
+        if (validate > 0) {
+            System.out.println(model.validate(counters, validate, 1));
+        }
+    }
+
+    // Estimated figures for one window.
+    public static class Window {
+        private final int start;
+        private final int arrivals;
+        private final double utilisation;
+        private final double waitProbability;
+        private final double meanWait;
+        private final double backlog;
+        private final double expectedMissed;
+
+        Window(int start, int arrivals, double utilisation, double waitProbability, double meanWait, double backlog,
+               double expectedMissed) {
+            this.start = start;
+            this.arrivals = arrivals;
+            this.utilisation = utilisation;
+            this.waitProbability = waitProbability;
+            this.meanWait = meanWait;
+            this.backlog = backlog;
+            this.expectedMissed = expectedMissed;
+        }
+
+        // First minute of the window.
+        public int getStart() { return start; }
+        public int getArrivals() { return arrivals; }
+        // Arrival rate over the counters' capacity; 1 or more means the queue grows.
+        public double getUtilisation() { return utilisation; }
+        public double getWaitProbability() { return waitProbability; }
+        // Expected minutes from joining the queue to reaching a counter.
+        public double getMeanWait() { return meanWait; }
+        // Passengers still queuing from overload at the end of the window.
+        public double getBacklog() { return backlog; }
+        public double getExpectedMissed() { return expectedMissed; }
+    }
+
+    // Estimate for one counter count.
+    public static class Estimate {
+        private final int counters;
+        private final List<Window> windows;
+        private final long elapsedNanos;
+
+        Estimate(int counters, List<Window> windows, long elapsedNanos) {
+            this.counters = counters;
+            this.windows = Collections.unmodifiableList(windows);
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public int getCounters() { return counters; }
+        public List<Window> getWindows() { return windows; }
+        public long getElapsedNanos() { return elapsedNanos; }
+
+        // Mean wait over every arriving passenger.
+        public double getMeanWait() {
+            double total = 0;
+            int passengers = 0;
+            for (Window window : windows) {
+                total += window.getMeanWait() * window.getArrivals();
+                passengers += window.getArrivals();
+            }
+            return passengers == 0 ? 0 : total / passengers;
+        }
+
+        public double getMaxWait() {
+            return windows.stream().mapToDouble(Window::getMeanWait).max().orElse(0);
+        }
+
+        public double getExpectedMissed() {
+            return windows.stream().mapToDouble(Window::getExpectedMissed).sum();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d counters: mean wait %.1f min, worst window %.1f min, %.1f missed flights expected (%.0f us)",
+                    counters, getMeanWait(), getMaxWait(), getExpectedMissed(), elapsedNanos / 1e3);
+        }
+    }
+
+    // Model estimate and simulated outcome for the same sample, window by window.
+    public static class Validation {
+        private final double sampleFraction;
+        private final Estimate estimate;
+        private final SimulationResult result;
+        private final double[] simulatedWaits;
+        private final int[] checkedIn;
+        private final int[] missed;
+
+        Validation(double sampleFraction, Estimate estimate, SimulationResult result, double[] simulatedWaits,
+                   int[] checkedIn, int[] missed) {
+            this.sampleFraction = sampleFraction;
+            this.estimate = estimate;
+            this.result = result;
+            this.simulatedWaits = simulatedWaits;
+            this.checkedIn = checkedIn;
+            this.missed = missed;
+        }
+
+        public double getSampleFraction() { return sampleFraction; }
+        // The model's estimate for the sample and the scaled counter count.
+        public Estimate getEstimate() { return estimate; }
+        public SimulationResult getSimulationResult() { return result; }
+
+        // Simulated mean wait of the window's passengers who checked in, NaN if none did.
+        public double getSimulatedWait(int window) { return simulatedWaits[window]; }
+        public int getSimulatedMissed(int window) { return missed[window]; }
+
+        // Mean absolute difference between estimated and simulated window waits, weighted by check-ins.
+        public double getMeanAbsoluteWaitError() {
+            double total = 0;
+            int passengers = 0;
+            for (int w = 0; w < simulatedWaits.length; w++) {
+                if (checkedIn[w] > 0) {
+                    total += Math.abs(estimate.getWindows().get(w).getMeanWait() - simulatedWaits[w]) * checkedIn[w];
+                    passengers += checkedIn[w];
+                }
+            }
+            return passengers == 0 ? 0 : total / passengers;
+        }
+
+        // Estimated missed flights minus simulated ones.
+        public double getMissedError() {
+            return estimate.getExpectedMissed() - Arrays.stream(missed).sum();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Sample of %.0f%% with %d counters: wait error %.1f min per passenger, missed flights %.1f estimated vs %d simulated",
+                    sampleFraction * 100, estimate.getCounters(), getMeanAbsoluteWaitError(), estimate.getExpectedMissed(),
+                    Arrays.stream(missed).sum());
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package stage2;
+
+/**
+ * Running totals for one report group (a flight, a carrier or a destination).
+ * Updated incrementally as passengers are processed, so reading a row never rescans bookings.
+ */
+public class ReportAggregate {
+    private final String groupType; // "flight", "carrier" or "destination"
+    private final String groupName; // Flight code, carrier name or destination name
+    private int passengers; // Passengers checked in for this group
+    private int missedFlights; // Passengers who reached a counter after their gate closed
+    private float excessFees; // Total excess baggage fees charged
+    private float baggageWeight, baggageVolume; // Checked-in baggage totals
+    private float weightCapacity, volumeCapacity; // Hold capacity of every flight in the group
+    private long totalQueueWait; // Sum of queue waits in simulated minutes
+    private int queueWaitSamples; // Number of waits recorded
+
+    //Creates an empty aggregate for the given group.
+    public ReportAggregate(String groupType, String groupName) {
+        this.groupType = groupType;
+        this.groupName = groupName;
+    }
+
+    //Adds a flight's hold capacity to this group.
+    public void addCapacity(FlightDetails flight) {
+        this.weightCapacity += flight.getMaxBaggageWeightCapacity();
+        this.volumeCapacity += flight.getMaxBaggageVolumeCapacity();
+    }
+
+    //Records a successful check-in and the booking's baggage, fee and wait.
+    public void addCheckIn(BookingDetails booking) {
+        this.passengers++;
+        this.excessFees += booking.getExcessFeeCharged();
+        this.baggageWeight += booking.getBaggageWeight();
+        this.baggageVolume += booking.getBaggageLength() * booking.getBaggageHeight() * booking.getBaggageWidth();
+        if (booking.getQueueWaitTime() >= 0) {
+            this.totalQueueWait += booking.getQueueWaitTime();
+            this.queueWaitSamples++;
+        }
+    }
+
+    //Records a passenger who missed their flight.
+    public void addMissedFlight() {
+        this.missedFlights++;
+    }
+
+    //Folds another aggregate's totals into this one, used when rebuilding or rolling flights up to carriers.
+    public void merge(ReportAggregate other) {
+        this.passengers += other.passengers;
+        this.missedFlights += other.missedFlights;
+        this.excessFees += other.excessFees;
+        this.baggageWeight += other.baggageWeight;
+        this.baggageVolume += other.baggageVolume;
+        this.weightCapacity += other.weightCapacity;
+        this.volumeCapacity += other.volumeCapacity;
+        this.totalQueueWait += other.totalQueueWait;
+        this.queueWaitSamples += other.queueWaitSamples;
+    }
+
+    //Encodes every total on one tab-separated line, so aggregates can be sent between processes and merged.
+    public String encode() {
+        return groupType + "\t" + groupName + "\t" + passengers + "\t" + missedFlights + "\t" + excessFees + "\t"
+                + baggageWeight + "\t" + baggageVolume + "\t" + weightCapacity + "\t" + volumeCapacity + "\t"
+                + totalQueueWait + "\t" + queueWaitSamples;
+    }
+
+    //Rebuilds an aggregate from a line written by encode.
+    public static ReportAggregate decode(String line) {
+        String[] fields = line.split("\t", -1);
+        if (fields.length != 11) {
+            throw new IllegalArgumentException("Malformed aggregate: " + line);
+        }
+        ReportAggregate aggregate = new ReportAggregate(fields[0], fields[1]);
+        aggregate.passengers = Integer.parseInt(fields[2]);
+        aggregate.missedFlights = Integer.parseInt(fields[3]);
+        aggregate.excessFees = Float.parseFloat(fields[4]);
+        aggregate.baggageWeight = Float.parseFloat(fields[5]);
+        aggregate.baggageVolume = Float.parseFloat(fields[6]);
+        aggregate.weightCapacity = Float.parseFloat(fields[7]);
+        aggregate.volumeCapacity = Float.parseFloat(fields[8]);
+        aggregate.totalQueueWait = Long.parseLong(fields[9]);
+        aggregate.queueWaitSamples = Integer.parseInt(fields[10]);
+        return aggregate;
+    }
+
+    // Getter methods for report output
+    public String getGroupType() { return groupType; }
+    public String getGroupName() { return groupName; }
+    public int getPassengers() { return passengers; }
+    public int getMissedFlights() { return missedFlights; }
+    public float getExcessFees() { return excessFees; }
+
+    // Hold utilization, computed the same way as FlightDetails.getBaggagePercent.
+    public float getBaggagePercent() {
+        if (weightCapacity == 0 || volumeCapacity == 0) {
+            return 0;
+        }
+        return Math.round(10.0f * Math.max(100f * baggageWeight / weightCapacity, 100f * baggageVolume / volumeCapacity)) / 10.0f;
+    }
+
+    // Average queue wait in simulated minutes, or 0 if nobody has been checked in yet.
+    public float getAverageQueueWait() {
+        return queueWaitSamples == 0 ? 0 : (float) totalQueueWait / queueWaitSamples;
+    }
+}
@@ -0,0 +1,405 @@
+package stage2;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.Set;
+
+/**
+ * Bounded in-memory history of recent simulation state, so the GUI can seek back to a past minute and play it again.
+ *
+ * On every tick the queue, counter and flight state is captured. Every keyframeInterval minutes a full Frame is
+ * stored; the minutes in between are stored as Deltas against the previous minute: the queue positions removed and
+ * inserted, and only the counters and flights that changed. Seeking replays at most one keyframe interval of deltas.
+ * Keyframes and their deltas are dropped oldest first once the estimated size passes the memory cap.
+ */
+@SuppressWarnings("deprecation")
+public class RewindBuffer implements Observer {
+    private static final int REFERENCE_BYTES = 8; // Conservative size of an object reference in the estimates
+    private final Queue queue;
+    private final List<Counter> counters;
+    private final AllFlights flights;
+    private final int keyframeInterval;
+    private final long memoryCap;
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private FlightDetails[] flightOrder = new FlightDetails[0]; // Flights in the order their state is stored, shared by frames
+    private int flightsVersion = -1; // AllFlights version flightOrder was built from
+    private boolean flightsDropped; // Set when released flights leave flightOrder, so the next capture is a keyframe
+    private Frame last; // Most recently captured state, which the next delta is computed against
+    private long bytesUsed;
+    private long captureNanos;
+    private int captures;
+
+    /**
+     * Creates an empty buffer; register it on the Timer to start capturing.
+     *
+     * @param queue            Passenger queue to capture.
+     * @param counters         Check-in counters to capture.
+     * @param flights          Flights to capture, including any added during the run.
+     * @param keyframeInterval Minutes between full keyframes.
+     * @param memoryCap        Estimated bytes to keep before dropping the oldest keyframe.
+     */
+    public RewindBuffer(Queue queue, List<Counter> counters, AllFlights flights, int keyframeInterval, long memoryCap) {
+        if (keyframeInterval < 1) {
+            throw new IllegalArgumentException("Keyframe interval must be at least one minute.");
+        }
+        this.queue = queue;
+        this.counters = counters;
+        this.flights = flights;
+        this.keyframeInterval = keyframeInterval;
+        this.memoryCap = memoryCap;
+    }
+
+    /**
+     * Captures the state at the start of each minute.
+     *
+     * @param o   Unused; the timer passes null.
+     * @param arg The Timer that ticked.
+     */
+    @Override
+    public void update(Observable o, Object arg) {
+        if (arg instanceof Timer) {
+            capture(((Timer) arg).getCurrentTime());
+        }
+    }
+
+    /**
+     * Captures the current state as the given minute, as a keyframe or as a delta against the previous capture.
+     *
+     * @param time Simulation minute being captured.
+     */
+    public synchronized void capture(int time) {
+        long start = System.nanoTime();
+        Frame frame = captureNow(time);
+        if (last == null || segments.isEmpty() || time - segments.peekLast().keyframe.time >= keyframeInterval
+                || time <= last.time || flightsDropped) {
+            flightsDropped = false;
+            Segment segment = new Segment(frame);
+            segments.addLast(segment);
+            bytesUsed += segment.bytes;
+        } else {
+            Delta delta = new Delta(last, frame);
+            Segment segment = segments.peekLast();
+            segment.deltas.add(delta);
+            segment.bytes += delta.bytes;
+            bytesUsed += delta.bytes;
+        }
+        last = frame;
+        while (bytesUsed > memoryCap && segments.size() > 1) {
+            bytesUsed -= segments.removeFirst().bytes;
+        }
+        captureNanos += System.nanoTime() - start;
+        captures++;
+    }
+
+    /**
+     * Reads the live state without storing it, e.g. to redraw the GUI when returning from a replay.
+     *
+     * @param time Simulation minute to label the frame with.
+     * @return The current state.
+     */
+    public synchronized Frame captureNow(int time) {
+        if (flights.getVersion() != flightsVersion) {
+            flightsVersion = flights.getVersion();
+            // Flights still held keep their indexes and flights added during the run go after them. Flights are
+            // matched by identity, as a day can be released and another installed between two captures.
+            Set<FlightDetails> live = Collections.newSetFromMap(new IdentityHashMap<>());
+            live.addAll(flights.getAllFlights().values());
+            List<FlightDetails> order = new ArrayList<>(live.size());
+            for (FlightDetails flight : flightOrder) {
+                if (live.remove(flight)) order.add(flight);
+            }
+            if (order.size() < flightOrder.length) {
+                flightsDropped = true;
+            }
+            List<FlightDetails> added = new ArrayList<>(live);
+            added.sort((a, b) -> a.getFlightCode().compareTo(b.getFlightCode()));
+            order.addAll(added);
+            if (order.size() != flightOrder.length || !added.isEmpty()) {
+                flightOrder = order.toArray(new FlightDetails[0]);
+            }
+        }
+        Frame frame = new Frame(time, queue.getPassengerQueue().toArray(new BookingDetails[0]), counters.size(), flightOrder);
+        for (int i = 0; i < frame.queue.length; i++) {
+            frame.missed[i] = frame.queue[i].getMissedFlight();
+        }
+        for (int i = 0; i < counters.size(); i++) {
+            frame.counterOpen[i] = counters.get(i).getIsOpen();
+            frame.counterBooking[i] = counters.get(i).getBooking();
+        }
+        for (int i = 0; i < frame.flights.length; i++) {
+            FlightDetails flight = frame.flights[i];
+            frame.passengers[i] = flight.getNumberOfPassengers();
+            frame.holdPercent[i] = flight.getBaggagePercent();
+            frame.fees[i] = flight.getTotalExcessFees();
+            frame.gateOpen[i] = flight.getGateOpen();
+        }
+        return frame;
+    }
+
+    /**
+     * Reconstructs the state at the given minute from the nearest earlier keyframe and the deltas after it.
+     *
+     * @param time Simulation minute to seek to.
+     * @return The state at that minute, or null if it is older than the buffer or not captured yet.
+     */
+    public synchronized Frame seek(int time) {
+        Segment found = null;
+        for (Segment segment : segments) {
+            if (segment.keyframe.time <= time) found = segment;
+        }
+        if (found == null) {
+            return null;
+        }
+        Frame frame = found.keyframe;
+        for (Delta delta : found.deltas) {
+            if (delta.time > time) break;
+            frame = delta.applyTo(frame);
+        }
+        return frame.time == time ? frame : null;
+    }
+
+    // Returns the oldest minute that can still be sought, or -1 if nothing has been captured.
+    public synchronized int getOldestTime() {
+        return segments.isEmpty() ? -1 : segments.peekFirst().keyframe.time;
+    }
+
+    // Returns the newest captured minute, or -1 if nothing has been captured.
+    public synchronized int getNewestTime() {
+        return last == null ? -1 : last.time;
+    }
+
+    // Returns the estimated bytes held by keyframes and deltas.
+    public synchronized long getMemoryUsed() { return bytesUsed; }
+
+    // Returns the average time spent capturing one tick, in microseconds.
+    public synchronized double getAverageCaptureMicros() {
+        return captures == 0 ? 0 : captureNanos / 1e3 / captures;
+    }
+
+    // A keyframe and the deltas for the minutes after it, evicted together.
+    private static class Segment {
+        private final Frame keyframe;
+        private final List<Delta> deltas = new ArrayList<>();
+        private long bytes;
+
+        Segment(Frame keyframe) {
+            this.keyframe = keyframe;
+            this.bytes = keyframe.estimateBytes();
+        }
+    }
+
+    /**
+     * Full state at one minute. Bookings and flights are shared references; the values shown for them
+     * (missed flag, passengers, hold, fees, gate) are copied, so they reflect the captured minute.
+     */
+    public static class Frame {
+        private final int time;
+        private final BookingDetails[] queue;
+        private final boolean[] missed;
+        private final boolean[] counterOpen;
+        private final BookingDetails[] counterBooking;
+        private final FlightDetails[] flights;
+        private final int[] passengers;
+        private final float[] holdPercent;
+        private final float[] fees;
+        private final boolean[] gateOpen;
+
+        Frame(int time, BookingDetails[] queue, int counterCount, FlightDetails[] flights) {
+            this.time = time;
+            this.queue = queue;
+            this.missed = new boolean[queue.length];
+            this.counterOpen = new boolean[counterCount];
+            this.counterBooking = new BookingDetails[counterCount];
+            this.flights = flights;
+            this.passengers = new int[flights.length];
+            this.holdPercent = new float[flights.length];
+            this.fees = new float[flights.length];
+            this.gateOpen = new boolean[flights.length];
+        }
+
+        // Copy of another frame at a new time, with room for the given queue length and flight list.
+        Frame(int time, Frame previous, int queueLength, FlightDetails[] flights) {
+            this.time = time;
+            this.queue = new BookingDetails[queueLength];
+            this.missed = new boolean[queueLength];
+            this.counterOpen = previous.counterOpen.clone();
+            this.counterBooking = previous.counterBooking.clone();
+            this.flights = flights;
+            this.passengers = Arrays.copyOf(previous.passengers, flights.length);
+            this.holdPercent = Arrays.copyOf(previous.holdPercent, flights.length);
+            this.fees = Arrays.copyOf(previous.fees, flights.length);
+            this.gateOpen = Arrays.copyOf(previous.gateOpen, flights.length);
+        }
+
+        long estimateBytes() {
+            return 64 + queue.length * (REFERENCE_BYTES + 1L) + counterOpen.length * (REFERENCE_BYTES + 1L)
+                    + flights.length * (REFERENCE_BYTES + 13L);
+        }
+
+        // Getter methods for displaying the frame
+        public int getTime() { return time; }
+        public List<BookingDetails> getQueue() { return Collections.unmodifiableList(Arrays.asList(queue)); }
+        public boolean isMissed(int position) { return missed[position]; }
+        public int getCounterCount() { return counterOpen.length; }
+        public boolean isCounterOpen(int counter) { return counterOpen[counter]; }
+        public BookingDetails getCounterBooking(int counter) { return counterBooking[counter]; }
+        public int getFlightCount() { return flights.length; }
+        public FlightDetails getFlight(int flight) { return flights[flight]; }
+        public int getPassengers(int flight) { return passengers[flight]; }
+        public float getHoldPercent(int flight) { return holdPercent[flight]; }
+        public float getFees(int flight) { return fees[flight]; }
+        public boolean isGateOpen(int flight) { return gateOpen[flight]; }
+    }
+
+    // Changes from one minute to the next: queue removals and insertions by position, changed counters and flights.
+    private static class Delta {
+        private final int time;
+        private final int queueLength;
+        private final int[] removed; // Positions in the previous queue, ascending
+        private final int[] insertedAt; // Positions in the new queue, ascending
+        private final BookingDetails[] inserted;
+        private final boolean[] insertedMissed;
+        private final int[] changedCounters;
+        private final boolean[] counterOpen;
+        private final BookingDetails[] counterBooking;
+        private final FlightDetails[] flights;
+        private final int[] changedFlights;
+        private final int[] passengers;
+        private final float[] holdPercent;
+        private final float[] fees;
+        private final boolean[] gateOpen;
+        private final long bytes;
+
+        Delta(Frame previous, Frame next) {
+            this.time = next.time;
+            this.queueLength = next.queue.length;
+
+            // Bookings kept in place are the longest run of previous bookings whose positions in the new queue keep
+            // increasing; every other previous booking is a removal and every other new booking an insertion.
+            // Joins, check-ins and passengers recycled to the back all give small deltas this way.
+            Map<BookingDetails, Integer> newPosition = new IdentityHashMap<>(next.queue.length * 2);
+            for (int j = 0; j < next.queue.length; j++) newPosition.put(next.queue[j], j);
+            int[] tails = new int[previous.queue.length]; // Previous index ending the best run of each length
+            int[] before = new int[previous.queue.length]; // Previous index before each one in its run
+            int[] positions = new int[previous.queue.length]; // Position of each previous booking in the new queue
+            int longest = 0;
+            for (int i = 0; i < previous.queue.length; i++) {
+                Integer found = newPosition.get(previous.queue[i]);
+                int position = found == null || next.missed[found] != previous.missed[i] ? -1 : found;
+                positions[i] = position;
+                if (position < 0) continue;
+                int low = 0, high = longest;
+                if (longest > 0 && positions[tails[longest - 1]] < position) {
+                    low = longest; // Usual case: the queue kept its order, so the run just grows
+                }
+                while (low < high) {
+                    int mid = (low + high) >>> 1;
+                    if (positions[tails[mid]] < position) low = mid + 1; else high = mid;
+                }
+                before[i] = low > 0 ? tails[low - 1] : -1;
+                tails[low] = i;
+                if (low == longest) longest++;
+            }
+            boolean[] kept = new boolean[previous.queue.length];
+            boolean[] keptNew = new boolean[next.queue.length];
+            for (int i = longest > 0 ? tails[longest - 1] : -1; i >= 0; i = before[i]) {
+                kept[i] = true;
+                keptNew[positions[i]] = true;
+            }
+            int[] insertedAt = new int[next.queue.length];
+            int insertions = 0;
+            for (int j = 0; j < next.queue.length; j++) if (!keptNew[j]) insertedAt[insertions++] = j;
+            int removals = 0;
+            for (boolean k : kept) if (!k) removals++;
+            this.removed = new int[removals];
+            for (int p = 0, r = 0; p < kept.length; p++) if (!kept[p]) removed[r++] = p;
+            this.insertedAt = Arrays.copyOf(insertedAt, insertions);
+            this.inserted = new BookingDetails[insertions];
+            this.insertedMissed = new boolean[insertions];
+            for (int n = 0; n < insertions; n++) {
+                inserted[n] = next.queue[this.insertedAt[n]];
+                insertedMissed[n] = next.missed[this.insertedAt[n]];
+            }
+
+            int counterChanges = 0;
+            int[] counterIndexes = new int[next.counterOpen.length];
+            for (int c = 0; c < next.counterOpen.length; c++) {
+                if (next.counterOpen[c] != previous.counterOpen[c] || next.counterBooking[c] != previous.counterBooking[c]) {
+                    counterIndexes[counterChanges++] = c;
+                }
+            }
+            this.changedCounters = Arrays.copyOf(counterIndexes, counterChanges);
+            this.counterOpen = new boolean[counterChanges];
+            this.counterBooking = new BookingDetails[counterChanges];
+            for (int n = 0; n < counterChanges; n++) {
+                counterOpen[n] = next.counterOpen[changedCounters[n]];
+                counterBooking[n] = next.counterBooking[changedCounters[n]];
+            }
+
+            // Within a segment the flight list only grows, so a delta keeps the previous array unless flights were added
+            this.flights = next.flights.length == previous.flights.length ? previous.flights : next.flights;
+            int flightChanges = 0;
+            int[] flightIndexes = new int[next.flights.length];
+            for (int f = 0; f < next.flights.length; f++) {
+                if (f >= previous.flights.length || next.passengers[f] != previous.passengers[f]
+                        || next.holdPercent[f] != previous.holdPercent[f] || next.fees[f] != previous.fees[f]
+                        || next.gateOpen[f] != previous.gateOpen[f]) {
+                    flightIndexes[flightChanges++] = f;
+                }
+            }
+            this.changedFlights = Arrays.copyOf(flightIndexes, flightChanges);
+            this.passengers = new int[flightChanges];
+            this.holdPercent = new float[flightChanges];
+            this.fees = new float[flightChanges];
+            this.gateOpen = new boolean[flightChanges];
+            for (int n = 0; n < flightChanges; n++) {
+                int f = changedFlights[n];
+                passengers[n] = next.passengers[f];
+                holdPercent[n] = next.holdPercent[f];
+                fees[n] = next.fees[f];
+                gateOpen[n] = next.gateOpen[f];
+            }
+
+            this.bytes = 96 + removals * 4L + insertions * (REFERENCE_BYTES + 5L)
+                    + counterChanges * (REFERENCE_BYTES + 5L) + flightChanges * 17L
+                    + (flights == previous.flights ? 0 : flights.length * (long) REFERENCE_BYTES);
+        }
+
+        Frame applyTo(Frame previous) {
+            Frame frame = new Frame(time, previous, queueLength, flights);
+            int r = 0, n = 0, p = 0;
+            for (int j = 0; j < queueLength; j++) {
+                if (n < insertedAt.length && insertedAt[n] == j) {
+                    frame.queue[j] = inserted[n];
+                    frame.missed[j] = insertedMissed[n++];
+                } else {
+                    while (r < removed.length && removed[r] == p) {
+                        r++;
+                        p++;
+                    }
+                    frame.queue[j] = previous.queue[p];
+                    frame.missed[j] = previous.missed[p++];
+                }
+            }
+            for (int c = 0; c < changedCounters.length; c++) {
+                frame.counterOpen[changedCounters[c]] = counterOpen[c];
+                frame.counterBooking[changedCounters[c]] = counterBooking[c];
+            }
+            for (int c = 0; c < changedFlights.length; c++) {
+                int f = changedFlights[c];
+                frame.passengers[f] = passengers[c];
+                frame.holdPercent[f] = holdPercent[c];
+                frame.fees[f] = fees[c];
+                frame.gateOpen[f] = gateOpen[c];
+            }
+            return frame;
+        }
+    }
+}
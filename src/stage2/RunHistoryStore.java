@@ -0,0 +1,462 @@
+package stage2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only, file-based history of simulation runs.
+ *
+ * Each run is appended to runs.seg as one binary record: its configuration, the final totals of every flight and
+ * a summary of every tick. A fixed-size entry per run is appended to runs.idx with the run id, start time, segment
+ * position and run-wide totals. The index is loaded into memory on open; since runs are appended in order, ids and
+ * start times are both sorted and lookups by id or date range are binary searches. Per-flight trend queries read
+ * only the flight section of each matching run from a memory-mapped window of the segment file, moved along as
+ * the query reaches records outside it, so the segment can grow well past 2 GB.
+ *
+ * Several runs may share one directory, e.g. from separate JVMs: an append holds an exclusive lock on runs.idx
+ * and first loads the entries others have appended since, so ids and index entries never interleave. Runs
+ * appended elsewhere show up in queries after this store's next append.
+ */
+public class RunHistoryStore {
+    private static final int MAGIC = 0x52554e31; // "RUN1"
+    private static final int INDEX_ENTRY_SIZE = 48;
+    private static final int FLIGHT_FIXED_BYTES = 20; // passengers, max passengers, missed, hold percent, fees
+    private static final int MAP_WINDOW = 64 << 20; // Most of the segment file mapped at once
+    // File locks are held per JVM, so stores in the same JVM also take turns through this
+    private static final Object APPEND_LOCK = new Object();
+    private final File segmentFile;
+    private final File indexFile;
+    private long[] ids = new long[16];
+    private long[] startTimes = new long[16];
+    private long[] offsets = new long[16];
+    private int[] lengths = new int[16];
+    private RunSummary[] summaries = new RunSummary[16];
+    private int runCount;
+    private MappedByteBuffer mapped; // Window of the segment file reused by trend queries
+    private long mappedStart; // Segment position of the window's first byte
+
+    /**
+     * Opens (or creates) a history store in the given directory and loads its index.
+     * A partly written index entry or one pointing past the end of the segment file, left by a crash, is dropped.
+     *
+     * @param directory Directory holding runs.seg and runs.idx.
+     * @throws IOException If the files cannot be read.
+     */
+    public RunHistoryStore(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create history directory " + directory);
+        }
+        this.segmentFile = new File(directory, "runs.seg");
+        this.indexFile = new File(directory, "runs.idx");
+        synchronized (APPEND_LOCK) {
+            try (FileChannel index = new RandomAccessFile(indexFile, "rw").getChannel()) {
+                index.lock(); // Released when the channel is closed
+                loadIndex(index);
+            }
+        }
+    }
+
+    // Loads the index entries after those already held. Called with the index file locked, so an entry that is
+    // partly written or points past the end of the segment file was left by a crash; it and any after it are dropped.
+    private void loadIndex(FileChannel index) throws IOException {
+        long segmentLength = segmentFile.length();
+        long held = (long) runCount * INDEX_ENTRY_SIZE;
+        long entries = index.size() / INDEX_ENTRY_SIZE - runCount;
+        if (entries > 0) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) (entries * INDEX_ENTRY_SIZE));
+            index.read(buffer, held);
+            buffer.flip();
+            for (long i = 0; i < entries; i++) {
+                long id = buffer.getLong(), startedAt = buffer.getLong(), offset = buffer.getLong();
+                int length = buffer.getInt();
+                RunSummary summary = new RunSummary(id, startedAt, buffer.getInt(), buffer.getInt(), buffer.getFloat(), buffer.getInt(), buffer.getInt());
+                if (offset + length > segmentLength) {
+                    break;
+                }
+                addToIndex(id, startedAt, offset, length, summary);
+            }
+        }
+        if (index.size() > (long) runCount * INDEX_ENTRY_SIZE) {
+            index.truncate((long) runCount * INDEX_ENTRY_SIZE);
+        }
+    }
+
+    private void addToIndex(long id, long startedAt, long offset, int length, RunSummary summary) {
+        if (runCount == ids.length) {
+            int size = runCount * 2;
+            ids = Arrays.copyOf(ids, size);
+            startTimes = Arrays.copyOf(startTimes, size);
+            offsets = Arrays.copyOf(offsets, size);
+            lengths = Arrays.copyOf(lengths, size);
+            summaries = Arrays.copyOf(summaries, size);
+        }
+        ids[runCount] = id;
+        startTimes[runCount] = startedAt;
+        offsets[runCount] = offset;
+        lengths[runCount] = length;
+        summaries[runCount] = summary;
+        runCount++;
+    }
+
+    /**
+     * Appends one run. The segment record is written and forced to disk before its index entry,
+     * so the index never refers to a record that is not fully stored. Both are written under a lock on the index
+     * file, after loading any runs appended by other stores sharing the directory.
+     *
+     * @param startedAt Run start time in epoch milliseconds; must not be earlier than the previous run.
+     * @param config    Run configuration as key/value pairs.
+     * @param flights   Final totals of every flight.
+     * @param ticks     Per-tick summaries in tick order.
+     * @return The id assigned to the run.
+     * @throws IOException If the run cannot be written.
+     */
+    public synchronized long append(long startedAt, Map<String, String> config, List<FlightTotals> flights, List<TickSummary> ticks) throws IOException {
+        int passengers = 0, missed = 0;
+        float fees = 0;
+        for (FlightTotals flight : flights) {
+            passengers += flight.passengers;
+            missed += flight.missedFlights;
+            fees += flight.excessFees;
+        }
+        synchronized (APPEND_LOCK) {
+            try (FileChannel index = new RandomAccessFile(indexFile, "rw").getChannel()) {
+                index.lock(); // Released when the channel is closed
+                loadIndex(index);
+                if (runCount > 0 && startedAt < startTimes[runCount - 1]) {
+                    startedAt = startTimes[runCount - 1]; // Keep the date index sorted even if the clock moved back
+                }
+                long id = runCount == 0 ? 1 : ids[runCount - 1] + 1;
+                byte[] record = encode(id, config, flights, ticks);
+
+                long offset;
+                try (FileChannel segment = new RandomAccessFile(segmentFile, "rw").getChannel()) {
+                    offset = segment.size();
+                    segment.write(ByteBuffer.wrap(record), offset);
+                    segment.force(false);
+                }
+                RunSummary summary = new RunSummary(id, startedAt, passengers, missed, fees, ticks.size(), flights.size());
+                ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+                entry.putLong(id).putLong(startedAt).putLong(offset).putInt(record.length)
+                        .putInt(passengers).putInt(missed).putFloat(fees).putInt(ticks.size()).putInt(flights.size());
+                entry.flip();
+                index.write(entry, (long) runCount * INDEX_ENTRY_SIZE);
+                index.force(false);
+                addToIndex(id, startedAt, offset, record.length, summary);
+                return id;
+            }
+        }
+    }
+
+    // Encodes one run as a segment record.
+    private static byte[] encode(long id, Map<String, String> config, List<FlightTotals> flights, List<TickSummary> ticks)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeLong(id);
+        out.writeInt(config.size());
+        for (Map.Entry<String, String> entry : config.entrySet()) {
+            writeString(out, entry.getKey());
+            writeString(out, entry.getValue());
+        }
+        out.writeInt(flights.size());
+        for (FlightTotals flight : flights) {
+            writeString(out, flight.flightCode);
+            writeString(out, flight.carrier);
+            writeString(out, flight.destination);
+            out.writeInt(flight.passengers);
+            out.writeInt(flight.maxPassengers);
+            out.writeInt(flight.missedFlights);
+            out.writeFloat(flight.baggagePercent);
+            out.writeFloat(flight.excessFees);
+        }
+        out.writeInt(ticks.size());
+        for (TickSummary tick : ticks) {
+            out.writeInt(tick.time);
+            out.writeInt(tick.queueDepth);
+            out.writeInt(tick.openCounters);
+            out.writeInt(tick.checkedIn);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    // Returns the number of stored runs.
+    public synchronized int getRunCount() {
+        return runCount;
+    }
+
+    // Returns the summary of one run, or null if there is no such run.
+    public synchronized RunSummary getRun(long id) {
+        int i = Arrays.binarySearch(ids, 0, runCount, id);
+        return i < 0 ? null : summaries[i];
+    }
+
+    // Returns the summaries of runs started in [from, to), in epoch milliseconds, oldest first.
+    public synchronized List<RunSummary> runsBetween(long from, long to) {
+        List<RunSummary> runs = new ArrayList<>();
+        for (int i = firstAtOrAfter(from); i < runCount && startTimes[i] < to; i++) {
+            runs.add(summaries[i]);
+        }
+        return runs;
+    }
+
+    /**
+     * Returns one flight's final totals for every run started in [from, to), oldest first.
+     * Only the flight section of each run is decoded; tick summaries are skipped.
+     *
+     * @param flightCode Flight to trace.
+     * @param from       Start of the date range in epoch milliseconds, inclusive.
+     * @param to         End of the date range in epoch milliseconds, exclusive.
+     * @return Totals per run that included the flight.
+     * @throws IOException If the segment file cannot be read.
+     */
+    public synchronized List<FlightTotals> flightTrend(String flightCode, long from, long to) throws IOException {
+        List<FlightTotals> trend = new ArrayList<>();
+        int first = firstAtOrAfter(from);
+        if (first >= runCount || startTimes[first] >= to) {
+            return trend;
+        }
+        byte[] code = flightCode.getBytes(StandardCharsets.UTF_8);
+        for (int i = first; i < runCount && startTimes[i] < to; i++) {
+            ByteBuffer view = mappedRecord(i);
+            skipConfig(view);
+            int flightCount = view.getInt();
+            for (int f = 0; f < flightCount; f++) {
+                // Compare the stored code in place and skip non-matching flights without decoding them
+                int start = view.position();
+                if (matches(view, code)) {
+                    view.position(start);
+                    trend.add(readFlight(view, ids[i]));
+                    break;
+                }
+                view.position(start);
+                skipString(view);
+                skipString(view);
+                skipString(view);
+                view.position(view.position() + FLIGHT_FIXED_BYTES);
+            }
+        }
+        return trend;
+    }
+
+    /**
+     * Loads the full record of one run.
+     *
+     * @param id Run id.
+     * @return Configuration, flight totals and tick summaries, or null if there is no such run.
+     * @throws IOException If the segment file cannot be read.
+     */
+    public synchronized RunDetails loadRun(long id) throws IOException {
+        int i = Arrays.binarySearch(ids, 0, runCount, id);
+        if (i < 0) {
+            return null;
+        }
+        ByteBuffer view = ByteBuffer.allocate(lengths[i]);
+        try (FileChannel segment = new RandomAccessFile(segmentFile, "r").getChannel()) {
+            segment.read(view, offsets[i]);
+        }
+        view.flip();
+        view.getInt();
+        view.getLong();
+        Map<String, String> config = new LinkedHashMap<>();
+        int configSize = view.getInt();
+        for (int c = 0; c < configSize; c++) {
+            config.put(readString(view), readString(view));
+        }
+        List<FlightTotals> flights = new ArrayList<>();
+        int flightCount = view.getInt();
+        for (int f = 0; f < flightCount; f++) {
+            flights.add(readFlight(view, id));
+        }
+        List<TickSummary> ticks = new ArrayList<>();
+        int tickCount = view.getInt();
+        for (int t = 0; t < tickCount; t++) {
+            ticks.add(new TickSummary(view.getInt(), view.getInt(), view.getInt(), view.getInt()));
+        }
+        return new RunDetails(summaries[i], config, flights, ticks);
+    }
+
+    // Returns a read-only view of one run's record from the mapped window, first moving the window to start at the
+    // record if it does not hold all of it. The window is kept between queries.
+    private ByteBuffer mappedRecord(int i) throws IOException {
+        long start = offsets[i], end = start + lengths[i];
+        if (mapped == null || start < mappedStart || end > mappedStart + mapped.capacity()) {
+            long segmentEnd = offsets[runCount - 1] + lengths[runCount - 1];
+            long size = Math.max(lengths[i], Math.min(MAP_WINDOW, segmentEnd - start));
+            try (FileChannel segment = new RandomAccessFile(segmentFile, "r").getChannel()) {
+                mapped = segment.map(FileChannel.MapMode.READ_ONLY, start, size);
+            }
+            mappedStart = start;
+        }
+        ByteBuffer view = mapped.duplicate();
+        view.limit((int) (end - mappedStart));
+        view.position((int) (start - mappedStart));
+        return view;
+    }
+
+    // Index of the first run started at or after the given time.
+    private int firstAtOrAfter(long time) {
+        int low = 0, high = runCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (startTimes[mid] < time) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    // Moves past the magic number, run id and configuration of a record.
+    private static void skipConfig(ByteBuffer view) {
+        view.getInt();
+        view.getLong();
+        int configSize = view.getInt();
+        for (int c = 0; c < configSize * 2; c++) {
+            skipString(view);
+        }
+    }
+
+    private static void skipString(ByteBuffer view) {
+        int length = view.getShort() & 0xffff;
+        view.position(view.position() + length);
+    }
+
+    // Checks whether the string at the current position equals the given UTF-8 bytes.
+    private static boolean matches(ByteBuffer view, byte[] expected) {
+        int length = view.getShort() & 0xffff;
+        if (length != expected.length) {
+            return false;
+        }
+        int start = view.position();
+        for (int b = 0; b < length; b++) {
+            if (view.get(start + b) != expected[b]) return false;
+        }
+        return true;
+    }
+
+    private static FlightTotals readFlight(ByteBuffer view, long runId) {
+        return new FlightTotals(runId, readString(view), readString(view), readString(view), view.getInt(), view.getInt(),
+                view.getInt(), view.getFloat(), view.getFloat());
+    }
+
+    // Writes a string as a two-byte length followed by its UTF-8 bytes.
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, 0xffff);
+        out.writeShort(length);
+        out.write(bytes, 0, length);
+    }
+
+    // Reads a string written by writeString.
+    private static String readString(ByteBuffer view) {
+        int length = view.getShort() & 0xffff;
+        byte[] bytes = new byte[length];
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Run-wide totals kept in the in-memory index.
+    public static class RunSummary {
+        private final long runId, startedAt;
+        private final int passengers, missedFlights, ticks, flights;
+        private final float excessFees;
+
+        RunSummary(long runId, long startedAt, int passengers, int missedFlights, float excessFees, int ticks, int flights) {
+            this.runId = runId;
+            this.startedAt = startedAt;
+            this.passengers = passengers;
+            this.missedFlights = missedFlights;
+            this.excessFees = excessFees;
+            this.ticks = ticks;
+            this.flights = flights;
+        }
+
+        public long getRunId() { return runId; }
+        public long getStartedAt() { return startedAt; }
+        public int getPassengers() { return passengers; }
+        public int getMissedFlights() { return missedFlights; }
+        public float getExcessFees() { return excessFees; }
+        public int getTicks() { return ticks; }
+        public int getFlights() { return flights; }
+    }
+
+    // Final totals of one flight in one run.
+    public static class FlightTotals {
+        private final long runId;
+        private final String flightCode, carrier, destination;
+        private final int passengers, maxPassengers, missedFlights;
+        private final float baggagePercent, excessFees;
+
+        public FlightTotals(long runId, String flightCode, String carrier, String destination, int passengers,
+                            int maxPassengers, int missedFlights, float baggagePercent, float excessFees) {
+            this.runId = runId;
+            this.flightCode = flightCode;
+            this.carrier = carrier;
+            this.destination = destination;
+            this.passengers = passengers;
+            this.maxPassengers = maxPassengers;
+            this.missedFlights = missedFlights;
+            this.baggagePercent = baggagePercent;
+            this.excessFees = excessFees;
+        }
+
+        public long getRunId() { return runId; }
+        public String getFlightCode() { return flightCode; }
+        public String getCarrier() { return carrier; }
+        public String getDestination() { return destination; }
+        public int getPassengers() { return passengers; }
+        public int getMaxPassengers() { return maxPassengers; }
+        public int getMissedFlights() { return missedFlights; }
+        public float getBaggagePercent() { return baggagePercent; }
+        public float getExcessFees() { return excessFees; }
+    }
+
+    // State of the simulation at the end of one tick.
+    public static class TickSummary {
+        private final int time, queueDepth, openCounters, checkedIn;
+
+        public TickSummary(int time, int queueDepth, int openCounters, int checkedIn) {
+            this.time = time;
+            this.queueDepth = queueDepth;
+            this.openCounters = openCounters;
+            this.checkedIn = checkedIn;
+        }
+
+        public int getTime() { return time; }
+        public int getQueueDepth() { return queueDepth; }
+        public int getOpenCounters() { return openCounters; }
+        public int getCheckedIn() { return checkedIn; }
+    }
+
+    // Everything stored for one run.
+    public static class RunDetails {
+        private final RunSummary summary;
+        private final Map<String, String> config;
+        private final List<FlightTotals> flights;
+        private final List<TickSummary> ticks;
+
+        RunDetails(RunSummary summary, Map<String, String> config, List<FlightTotals> flights, List<TickSummary> ticks) {
+            this.summary = summary;
+            this.config = config;
+            this.flights = flights;
+            this.ticks = ticks;
+        }
+
+        public RunSummary getSummary() { return summary; }
+        public Map<String, String> getConfig() { return config; }
+        public List<FlightTotals> getFlights() { return flights; }
+        public List<TickSummary> getTicks() { return ticks; }
+    }
+}
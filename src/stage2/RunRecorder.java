@@ -0,0 +1,75 @@
+package stage2;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.stream.Stream;
+
+/**
+ * Collects what a run stores in the RunHistoryStore: a summary per tick while the simulation runs,
+ * and the final totals of every flight when it is saved.
+ */
+@SuppressWarnings("deprecation")
+public class RunRecorder implements Observer {
+    private final long startedAt = System.currentTimeMillis();
+    private final Map<String, String> config;
+    private final AllFlights flights;
+    private final AllBookings bookings;
+    private final List<RunHistoryStore.TickSummary> ticks = new ArrayList<>();
+
+    /**
+     * Creates a recorder. Register it as an observer of the SnapshotPublisher.
+     *
+     * @param config   Run configuration to store with the run.
+     * @param flights  Flights of the run.
+     * @param bookings Bookings of the run, used for missed-flight counts.
+     */
+    public RunRecorder(Map<String, String> config, AllFlights flights, AllBookings bookings) {
+        this.config = config;
+        this.flights = flights;
+        this.bookings = bookings;
+    }
+
+    /**
+     * Records a tick summary from every published snapshot.
+     *
+     * @param o   Unused.
+     * @param arg The snapshot published for the tick.
+     */
+    @Override
+    public void update(Observable o, Object arg) {
+        if (arg instanceof SimulationSnapshot) {
+            SimulationSnapshot snapshot = (SimulationSnapshot) arg;
+            RunHistoryStore.TickSummary tick = new RunHistoryStore.TickSummary(snapshot.getTime(), snapshot.getQueueLength(),
+                    snapshot.getOpenCounters(), snapshot.getCheckedIn());
+            synchronized (this) {
+                ticks.add(tick);
+            }
+        }
+    }
+
+    /**
+     * Appends this run to the store.
+     *
+     * @param store History store to append to.
+     * @return Id of the stored run.
+     * @throws IOException If the run cannot be written.
+     */
+    public synchronized long save(RunHistoryStore store) throws IOException {
+        Map<String, Integer> missed = new HashMap<>();
+        try (Stream<BookingDetails> all = bookings.streamBookings()) {
+            all.filter(BookingDetails::getMissedFlight).forEach(booking -> missed.merge(booking.getFlightCode(), 1, Integer::sum));
+        }
+        List<RunHistoryStore.FlightTotals> totals = new ArrayList<>();
+        for (FlightDetails flight : flights.getAllFlights().values()) {
+            totals.add(new RunHistoryStore.FlightTotals(0, flight.getFlightCode(), flight.getCarrier(), flight.getDestination(),
+                    flight.getNumberOfPassengers(), flight.getMaxPassengers(), missed.getOrDefault(flight.getFlightCode(), 0),
+                    flight.getBaggagePercent(), flight.getTotalExcessFees()));
+        }
+        return store.append(startedAt, config, totals, ticks);
+    }
+}
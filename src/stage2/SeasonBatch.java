@@ -0,0 +1,323 @@
+package stage2;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a season of independent days in parallel, each headless through SimulationEngine, and writes a result per
+ * day and a summary of the season.
+ *
+ * The season directory holds one subdirectory per day with that day's flight and booking files, read by
+ * DataLoader, so departures are HH:MM and every day starts from an empty queue. Days run on a fixed pool of
+ * threads, and a day only starts loading once its estimated heap fits in the memory budget alongside the days
+ * already running: a day is estimated at BYTES_PER_CSV_BYTE times the size of its files, and a day larger than
+ * the whole budget runs on its own. A day keeps nothing but its totals once it has finished, so the heap follows
+ * the budget however long the season is. Log messages are dropped on the pool threads.
+ *
+ * A day whose files are missing or malformed is reported as failed without stopping the others.
+ *
+ * Usage: java stage2.SeasonBatch seasonDir [--threads 8] [--memory-mb 2048] [--counters 6] [--lanes shared]
+ *        [--arrivals fixed] [--stages security:3:2:20] [--seed 1] [--out season_results]
+ */
+public class SeasonBatch {
+    // Heap per byte of CSV: loaded bookings take about 6, and the run's queue and report the rest
+    private static final int BYTES_PER_CSV_BYTE = 8;
+
+    private final SimulationConfig config;
+    private final int threads;
+    private final int budgetKilobytes;
+    private final long seed;
+
+    /**
+     * Creates a batch.
+     *
+     * @param config        Settings every day runs with; the data directory is not used.
+     * @param threads       Days run at the same time, at most.
+     * @param budgetBytes   Estimated heap all running days may take together.
+     * @param seed          Seed of day 0's random baggage; day N uses seed + N.
+     * @throws IllegalArgumentException If threads or the budget is less than 1.
+     */
+    public SeasonBatch(SimulationConfig config, int threads, long budgetBytes, long seed) {
+        if (threads < 1 || budgetBytes < 1024) {
+            throw new IllegalArgumentException("A batch needs at least one thread and 1 KB of memory.");
+        }
+        this.config = config;
+        this.threads = threads;
+        this.budgetKilobytes = (int) Math.min(Integer.MAX_VALUE, budgetBytes >> 10);
+        this.seed = seed;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length == 0) {
+            System.err.println("Usage: java stage2.SeasonBatch seasonDir [--threads n] [--memory-mb m] [--counters n]"
+                    + " [--lanes shared|carrier|flight] [--arrivals spec] [--stages spec] [--seed n] [--out dir]");
+            return;
+        }
+        SimulationConfig config = new SimulationConfig();
+        int threads = Runtime.getRuntime().availableProcessors();
+        long memoryMegabytes = Runtime.getRuntime().maxMemory() / 2 >> 20;
+        long seed = 1;
+        String out = "season_results";
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--threads": threads = Integer.parseInt(args[++i]); break;
+                case "--memory-mb": memoryMegabytes = Long.parseLong(args[++i]); break;
+                case "--counters": config.setCounters(Integer.parseInt(args[++i])); break;
+                case "--lanes": config.setLanes(args[++i]); break;
+                case "--arrivals": config.setArrivals(args[++i]); break;
+                case "--stages": config.setStages(args[++i]); break;
+                case "--seed": seed = Long.parseLong(args[++i]); break;
+                case "--out": out = args[++i]; break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        List<Path> days = findDays(Paths.get(args[0]));
+        if (days.isEmpty()) {
+            System.err.println("No day directories with flight and booking files in " + args[0]);
+            return;
+        }
+        Season season = new SeasonBatch(config, threads, memoryMegabytes << 20, seed).run(days, new File(out));
+        System.out.println(season);
+    }
+
+    /**
+     * Lists the subdirectories of a season directory that hold a flight file, in name order.
+     *
+     * @param season Season directory.
+     * @return Day directories.
+     * @throws IOException If the directory cannot be listed.
+     */
+    public static List<Path> findDays(Path season) throws IOException {
+        List<Path> days = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(season, Files::isDirectory)) {
+            for (Path day : entries) {
+                if (Files.exists(day.resolve("flightDetails.csv")) || Files.exists(day.resolve("Flight.csv"))) {
+                    days.add(day);
+                }
+            }
+        }
+        Collections.sort(days);
+        return days;
+    }
+
+    /**
+     * Runs the days and writes days.csv, summary.txt and each day's report (dayName.csv and dayName.json) to the
+     * output directory.
+     *
+     * @param days   Day directories, e.g. from findDays().
+     * @param outDir Output directory, created if needed.
+     * @return Per-day results and season totals.
+     * @throws IOException          If the output cannot be written.
+     * @throws InterruptedException If interrupted while waiting for the days.
+     */
+    public Season run(List<Path> days, File outDir) throws IOException, InterruptedException {
+        if (!outDir.isDirectory() && !outDir.mkdirs()) {
+            throw new IOException("Cannot create " + outDir);
+        }
+        Semaphore memory = new Semaphore(budgetKilobytes, true); // Fair, so a large day is not overtaken forever
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "Season-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        long start = System.nanoTime();
+        List<Future<DayResult>> futures = new ArrayList<>();
+        for (int i = 0; i < days.size(); i++) {
+            Path day = days.get(i);
+            long daySeed = seed + i;
+            futures.add(pool.submit(() -> runDay(day, daySeed, memory, outDir)));
+        }
+        List<DayResult> results = new ArrayList<>();
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    results.add(new DayResult(days.get(i).getFileName().toString(), e.getCause().toString()));
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        Season season = new Season(results, System.nanoTime() - start, threads, (long) budgetKilobytes << 10);
+        season.write(outDir);
+        return season;
+    }
+
+    // Runs one day on a pool thread once its estimated heap fits in the budget.
+    private DayResult runDay(Path day, long daySeed, Semaphore memory, File outDir) throws InterruptedException {
+        String name = day.getFileName().toString();
+        int kilobytes = estimateKilobytes(day);
+        memory.acquire(kilobytes);
+        Log.INSTANCE.setMuted(true);
+        ThreadMXBean cpu = ManagementFactory.getThreadMXBean();
+        long cpuStart = cpu.getCurrentThreadCpuTime();
+        try {
+            long loadStart = System.nanoTime();
+            DataLoader loader = new DataLoader(day, new Random(daySeed));
+            long loadNanos = System.nanoTime() - loadStart;
+            SimulationResult result = new SimulationEngine(config, loader.getFlights(), loader.getBookings()).run();
+            result.getReport().writeToDisk(new File(outDir, name).getPath());
+            return new DayResult(name, result, loadNanos, cpuStart < 0 ? 0 : cpu.getCurrentThreadCpuTime() - cpuStart);
+        } catch (IOException | IllegalArgumentException e) {
+            return new DayResult(name, e.getMessage());
+        } finally {
+            Log.INSTANCE.setMuted(false);
+            memory.release(kilobytes);
+        }
+    }
+
+    // Estimated heap of a loaded and running day, capped at the budget so an oversized day can still run alone.
+    private int estimateKilobytes(Path day) {
+        long bytes = 0;
+        for (String file : new String[]{"flightDetails.csv", "Flight.csv", "bookingDetails.csv", "Booking.csv"}) {
+            try {
+                if (Files.exists(day.resolve(file))) bytes += Files.size(day.resolve(file));
+            } catch (IOException e) {
+                // Unreadable files fail when the day is loaded
+            }
+        }
+        return (int) Math.max(1, Math.min(budgetKilobytes, bytes * BYTES_PER_CSV_BYTE >> 10));
+    }
+
+    // Totals of one day, or why it failed.
+    public static class DayResult {
+        private final String day;
+        private final SimulationResult result; // Null if the day failed
+        private final long loadNanos;
+        private final long cpuNanos;
+        private final String error;
+
+        DayResult(String day, SimulationResult result, long loadNanos, long cpuNanos) {
+            this.day = day;
+            this.result = new SimulationResult(result.getMinutes(), result.getBookings(), result.getCheckedIn(),
+                    result.getMissedFlights(), result.getExcessFees(), result.getElapsedNanos(), null); // The report holds the day's flights
+            this.loadNanos = loadNanos;
+            this.cpuNanos = cpuNanos;
+            this.error = null;
+        }
+
+        DayResult(String day, String error) {
+            this.day = day;
+            this.result = null;
+            this.loadNanos = 0;
+            this.cpuNanos = 0;
+            this.error = error;
+        }
+
+        public String getDay() { return day; }
+        public boolean isFailed() { return result == null; }
+        // Totals of the day, or null if it failed; the report is not kept, so getReport() returns null.
+        public SimulationResult getResult() { return result; }
+        public long getLoadNanos() { return loadNanos; }
+        public String getError() { return error; }
+
+        // Load and run time on its thread, including time other days held the CPU.
+        public long getNanos() { return result == null ? 0 : loadNanos + result.getElapsedNanos(); }
+        // CPU time the day's thread used to load, run and write the report; 0 where the JVM cannot measure it.
+        public long getCpuNanos() { return cpuNanos; }
+
+        String toCsv() {
+            if (result == null) {
+                return day + ",failed,,,,,,,,,\"" + error.replace("\"", "'") + "\"";
+            }
+            return String.format("%s,ok,%d,%d,%d,%d,%.2f,%d,%.0f,%.0f,", day, result.getBookings(), result.getCheckedIn(),
+                    result.getMissedFlights(), result.getNotServed(), result.getExcessFees(), result.getMinutes(), getNanos() / 1e6,
+                    cpuNanos / 1e6);
+        }
+    }
+
+    // Every day's result and the season's totals.
+    public static class Season {
+        private final List<DayResult> days;
+        private final long wallNanos;
+        private final int threads;
+        private final long budgetBytes;
+
+        Season(List<DayResult> days, long wallNanos, int threads, long budgetBytes) {
+            this.days = days;
+            this.wallNanos = wallNanos;
+            this.threads = threads;
+            this.budgetBytes = budgetBytes;
+        }
+
+        public List<DayResult> getDays() { return Collections.unmodifiableList(days); }
+        public long getWallNanos() { return wallNanos; }
+
+        public int getFailedDays() {
+            return (int) days.stream().filter(DayResult::isFailed).count();
+        }
+
+        public int getBookings() {
+            return days.stream().filter(d -> !d.isFailed()).mapToInt(d -> d.getResult().getBookings()).sum();
+        }
+
+        public int getCheckedIn() {
+            return days.stream().filter(d -> !d.isFailed()).mapToInt(d -> d.getResult().getCheckedIn()).sum();
+        }
+
+        public int getMissedFlights() {
+            return days.stream().filter(d -> !d.isFailed()).mapToInt(d -> d.getResult().getMissedFlights()).sum();
+        }
+
+        public double getExcessFees() {
+            return days.stream().filter(d -> !d.isFailed()).mapToDouble(d -> d.getResult().getExcessFees()).sum();
+        }
+
+        // CPU time the days used, divided by the time the season took: the cores the batch kept busy on average.
+        public double getCoresUsed() {
+            return wallNanos == 0 ? 0 : days.stream().mapToLong(DayResult::getCpuNanos).sum() / (double) wallNanos;
+        }
+
+        // The day with the most missed flights, or null if every day failed.
+        public DayResult getWorstDay() {
+            DayResult worst = null;
+            for (DayResult day : days) {
+                if (!day.isFailed() && (worst == null || day.getResult().getMissedFlights() > worst.getResult().getMissedFlights())) {
+                    worst = day;
+                }
+            }
+            return worst;
+        }
+
+        // Writes days.csv with a row per day and summary.txt with the totals.
+        void write(File outDir) throws IOException {
+            try (PrintWriter csv = new PrintWriter(new FileWriter(new File(outDir, "days.csv")))) {
+                csv.println("day,status,bookings,checked_in,missed,not_served,excess_fees,minutes,ms,cpu_ms,error");
+                days.forEach(day -> csv.println(day.toCsv()));
+            }
+            try (PrintWriter summary = new PrintWriter(new FileWriter(new File(outDir, "summary.txt")))) {
+                summary.println(this);
+            }
+        }
+
+        @Override
+        public String toString() {
+            DayResult worst = getWorstDay();
+            return String.format("%d days (%d failed) on %d threads with a %d MB budget in %.1f s, %.1f cores busy%n"
+                            + "%d bookings: %d checked in, %d missed their flight, £%.2f excess fees%n"
+                            + "Worst day: %s", days.size(), getFailedDays(), threads, budgetBytes >> 20, wallNanos / 1e9,
+                    getCoresUsed(), getBookings(), getCheckedIn(), getMissedFlights(), getExcessFees(),
+                    worst == null ? "none" : worst.getDay() + " with " + worst.getResult().getMissedFlights() + " missed");
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package stage2;
+
+import java.awt.GraphicsEnvironment;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Headless macro benchmark of the whole simulation (Timer, Queue, Counters and optionally the GUI).
+ * Sweeps dataset size, counter count and speed, running every configuration in a fresh JVM so GC and
+ * allocation figures are not mixed between runs. For each configuration it reports ticks per second,
+ * check-ins per second, p50/p99 tick latency, GC time and allocation rate, and appends the results to a CSV
+ * file tagged with the run date so runs on the same hardware can be compared.
+ *
+ * Tick latency is the time the timer thread spends publishing one tick: waking the counters and queue and
+ * dispatching every observer, including the GUI when it is enabled.
+ *
+ * Usage: java stage2.SimulationBenchmark [--sizes 1000,10000,100000] [--counters 2,6,12] [--speeds 1,10,100,1000]
+ *        [--duration 10] [--out benchmark_results.csv] [--gui]
+ */
+public class SimulationBenchmark {
+    private static final String HEADER = "run,bookings,counters,speed,ticks,ticks_per_sec,checkins_per_sec,p50_tick_us,p99_tick_us,gc_ms,alloc_mb_per_sec";
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--run")) {
+            runOne(Integer.parseInt(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]),
+                    Integer.parseInt(args[4]), Boolean.parseBoolean(args[5]));
+            return;
+        }
+        int[] sizes = {1000, 10000, 100000};
+        int[] counterCounts = {2, 6, 12};
+        int[] speeds = {1, 10, 100, 1000};
+        int duration = 10;
+        String out = "benchmark_results.csv";
+        boolean gui = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--sizes": sizes = parseList(args[++i]); break;
+                case "--counters": counterCounts = parseList(args[++i]); break;
+                case "--speeds": speeds = parseList(args[++i]); break;
+                case "--duration": duration = Integer.parseInt(args[++i]); break;
+                case "--out": out = args[++i]; break;
+                case "--gui": gui = true; break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        String run = LocalDateTime.now().withNano(0).toString();
+        File outFile = new File(out);
+        boolean newFile = !outFile.exists();
+        System.out.println(HEADER);
+        try (FileWriter writer = new FileWriter(outFile, true)) {
+            if (newFile) {
+                writer.write(HEADER + System.lineSeparator());
+            }
+            for (int size : sizes) {
+                for (int counters : counterCounts) {
+                    for (int speed : speeds) {
+                        String result = run + "," + runChild(size, counters, speed, duration, gui);
+                        System.out.println(result);
+                        writer.write(result + System.lineSeparator());
+                        writer.flush();
+                    }
+                }
+            }
+        }
+    }
+
+    // Runs one configuration in a child JVM with the same classpath and heap settings, returning its result row.
+    private static String runChild(int size, int counters, int speed, int duration, boolean gui) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.addAll(Arrays.asList("-cp", System.getProperty("java.class.path"), SimulationBenchmark.class.getName(),
+                "--run", String.valueOf(size), String.valueOf(counters), String.valueOf(speed), String.valueOf(duration), String.valueOf(gui)));
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        String result = size + "," + counters + "," + speed + ",failed,,,,,,";
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("RESULT,")) {
+                    result = line.substring("RESULT,".length());
+                }
+            }
+        }
+        process.waitFor();
+        return result;
+    }
+
+    // Runs the simulation for one configuration in this JVM and prints a RESULT line.
+    private static void runOne(int size, int counterCount, int speed, int duration, boolean gui) throws InterruptedException {
+        Random rnd = new Random(size);
+        AllFlights flights = new AllFlights();
+        AllBookings bookings = new AllBookings();
+        // Arrivals run at 6 a minute, so spread departures over the arrival period plus two hours
+        int flightCount = Math.max(1, size / 150);
+        int lastDeparture = size / 6 + 120;
+        for (int f = 0; f < flightCount; f++) {
+            flights.addFlight(new FlightDetails("BM" + f, "Destination" + (f % 20), "Carrier" + (f % 6), 200,
+                    23, 90, 75, 45, 35, 30 + rnd.nextInt(lastDeparture - 30)));
+        }
+        for (int b = 0; b < size; b++) {
+            bookings.addBooking(new BookingDetails("bm" + b, "First" + b, "Last", "BM" + rnd.nextInt(flightCount),
+                    1 + rnd.nextFloat() * 30, 40 + rnd.nextFloat() * 60, 40 + rnd.nextFloat() * 45, 20 + rnd.nextFloat() * 30));
+        }
+
+        SimulationTime simulationTime = new SimulationTime();
+        simulationTime.adjustSpeed(speed);
+        TimedTimer timer = new TimedTimer(simulationTime);
+        Queue queue = new Queue(timer, bookings);
+        List<Counter> counters = new ArrayList<>();
+        for (int i = 1; i <= counterCount; i++) {
+            counters.add(new Counter(i, flights, timer, queue));
+        }
+        if (gui && !GraphicsEnvironment.isHeadless()) {
+            GUI view = new GUI(simulationTime, counters, flights.getAllFlights());
+            timer.registerObserver(view);
+            queue.registerObserver(view);
+            flights.getAllFlights().forEach((key, value) -> value.registerObserver(view));
+            counters.forEach(counter -> counter.registerObserver(view));
+        }
+
+        long gcBefore = gcMillis();
+        // Setup allocated on the main thread is left out; threads are sampled while running so those that end still count
+        Map<Long, Long> allocatedBefore = sampleAllocatedBytes(new HashMap<>());
+        Map<Long, Long> allocated = new HashMap<>(allocatedBefore);
+        long start = System.nanoTime();
+        Thread queueThread = new Thread(queue);
+        queueThread.setDaemon(true);
+        queueThread.start();
+        timer.setDaemon(true);
+        timer.start();
+        counters.forEach(counter -> {
+            counter.setDaemon(true);
+            counter.start();
+        });
+        // Stop at the wall-clock limit, or once every flight has departed
+        long deadline = start + duration * 1_000_000_000L;
+        while (System.nanoTime() < deadline && timer.getCurrentTime() <= lastDeparture) {
+            Thread.sleep(50);
+            sampleAllocatedBytes(allocated);
+        }
+        sampleAllocatedBytes(allocated);
+        long allocatedBytes = allocated.entrySet().stream()
+                .mapToLong(e -> e.getValue() - allocatedBefore.getOrDefault(e.getKey(), 0L)).sum();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        int ticks = timer.getCurrentTime();
+        int checkIns = flights.getAllFlights().values().stream().mapToInt(FlightDetails::getNumberOfPassengers).sum();
+        long[] latencies = timer.latencies();
+        Arrays.sort(latencies);
+
+        System.out.println(String.format("RESULT,%d,%d,%d,%d,%.1f,%.1f,%.1f,%.1f,%d,%.1f", size, counterCount, speed, ticks,
+                ticks / seconds, checkIns / seconds, percentile(latencies, 0.50) / 1e3, percentile(latencies, 0.99) / 1e3,
+                gcMillis() - gcBefore, allocatedBytes / seconds / (1 << 20)));
+        System.exit(0);
+    }
+
+    // Timer that records how long each tick takes to publish.
+    private static class TimedTimer extends Timer {
+        private long[] latencies = new long[1024];
+        private int count;
+
+        TimedTimer(SimulationTime simulationTime) {
+            super(simulationTime);
+        }
+
+        @Override
+        public void updateTime(int newTime) {
+            long start = System.nanoTime();
+            super.updateTime(newTime);
+            long elapsed = System.nanoTime() - start;
+            synchronized (this) {
+                if (count == latencies.length) {
+                    latencies = Arrays.copyOf(latencies, count * 2);
+                }
+                latencies[count++] = elapsed;
+            }
+        }
+
+        synchronized long[] latencies() {
+            return Arrays.copyOf(latencies, count);
+        }
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        return sorted.length == 0 ? 0 : sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+    }
+
+    // Total time spent in garbage collection so far, in milliseconds.
+    private static long gcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionTime());
+        }
+        return total;
+    }
+
+    /**
+     * Records the bytes allocated so far by each live thread, where the JVM supports per-thread allocation counters.
+     *
+     * @param bytesByThread Thread id to allocated bytes, updated in place; threads that have ended keep their last count.
+     * @return The same map.
+     */
+    private static Map<Long, Long> sampleAllocatedBytes(Map<Long, Long> bytesByThread) {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return bytesByThread;
+        }
+        long[] ids = threads.getAllThreadIds();
+        long[] bytes = ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(ids);
+        for (int i = 0; i < ids.length; i++) {
+            if (bytes[i] >= 0) bytesByThread.put(ids[i], bytes[i]);
+        }
+        return bytesByThread;
+    }
+
+    private static int[] parseList(String value) {
+        return Arrays.stream(value.split(",")).mapToInt(Integer::parseInt).toArray();
+    }
+}
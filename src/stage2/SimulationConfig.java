@@ -0,0 +1,110 @@
+package stage2;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Settings for a SimulationEngine run. Every setter returns the config, so a run can be described in one
+ * expression; unset values default to what Main uses.
+ */
+public class SimulationConfig {
+    private Path dataDirectory = Paths.get("data");
+    private int counters = 6;
+    private String lanes = "shared";
+    private String arrivals = "fixed";
+    private ArrivalProcess arrivalProcess; // Used instead of arrivals when set
+    private int timeLimit; // Minutes, 0 for no limit
+    private String stages = ""; // Stages after check-in, empty for none
+    private Path daysDirectory; // Multi-day scenario read day by day instead of the data directory, null for none
+    private int daysAhead = 1;
+
+    /**
+     * Returns a config with the lanes, arrivals, stages and scenario days given by the stage2.lanes,
+     * stage2.arrivals, stage2.stages, stage2.days and stage2.daysAhead system properties, as an interactive run
+     * would use.
+     *
+     * @return A new config.
+     */
+    public static SimulationConfig fromSystemProperties() {
+        String days = System.getProperty("stage2.days");
+        return new SimulationConfig()
+                .setLanes(System.getProperty("stage2.lanes", "shared"))
+                .setArrivals(System.getProperty("stage2.arrivals", "fixed"))
+                .setStages(System.getProperty("stage2.stages", ""))
+                .setDaysDirectory(days == null ? null : Paths.get(days))
+                .setDaysAhead(Integer.getInteger("stage2.daysAhead", 1));
+    }
+
+    // Directory holding flightDetails.csv and bookingDetails.csv, used when the engine is not given data directly.
+    public Path getDataDirectory() { return dataDirectory; }
+    public int getCounters() { return counters; }
+    public String getLanes() { return lanes; }
+    public String getArrivals() { return arrivals; }
+    public ArrivalProcess getArrivalProcess() { return arrivalProcess; }
+    public int getTimeLimit() { return timeLimit; }
+    public String getStages() { return stages; }
+    // Multi-day scenario directory, see DayWindowLoader, or null to read the data directory.
+    public Path getDaysDirectory() { return daysDirectory; }
+    public int getDaysAhead() { return daysAhead; }
+
+    public SimulationConfig setDataDirectory(Path dataDirectory) {
+        this.dataDirectory = dataDirectory;
+        return this;
+    }
+
+    public SimulationConfig setCounters(int counters) {
+        if (counters < 1) {
+            throw new IllegalArgumentException("At least one counter is needed.");
+        }
+        this.counters = counters;
+        return this;
+    }
+
+    // Queue lanes: "shared", "carrier" or "flight".
+    public SimulationConfig setLanes(String lanes) {
+        this.lanes = lanes;
+        return this;
+    }
+
+    // Arrival process: "fixed", "poisson", "peaked" or "trace:path/to/arrivals.csv".
+    public SimulationConfig setArrivals(String arrivals) {
+        this.arrivals = arrivals;
+        return this;
+    }
+
+    // Arrival process object, e.g. an ArrivalProcess.Trace built in memory; overrides setArrivals.
+    public SimulationConfig setArrivalProcess(ArrivalProcess arrivalProcess) {
+        this.arrivalProcess = arrivalProcess;
+        return this;
+    }
+
+    // Stages after check-in in the PassengerPipeline format, e.g. "security:3:2:20,gate:4:1:40"; empty for none.
+    public SimulationConfig setStages(String stages) {
+        this.stages = stages;
+        return this;
+    }
+
+    // Runs the scenario with one yyyy-MM-dd subdirectory per day in this directory, read day by day; null for none.
+    public SimulationConfig setDaysDirectory(Path daysDirectory) {
+        this.daysDirectory = daysDirectory;
+        return this;
+    }
+
+    // Days after the current one a multi-day scenario reads ahead of time.
+    public SimulationConfig setDaysAhead(int daysAhead) {
+        if (daysAhead < 1) {
+            throw new IllegalArgumentException("Days ahead must be at least 1.");
+        }
+        this.daysAhead = daysAhead;
+        return this;
+    }
+
+    // Stops the run after this many simulated minutes even if passengers are still queuing; 0 runs to the end.
+    public SimulationConfig setTimeLimit(int timeLimit) {
+        if (timeLimit < 0) {
+            throw new IllegalArgumentException("Time limit must not be negative.");
+        }
+        this.timeLimit = timeLimit;
+        return this;
+    }
+}
@@ -0,0 +1,261 @@
+package stage2;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Observer;
+
+/**
+ * Runs the simulation without a GUI, for batch jobs and for programs that embed it.
+ *
+ * The engine builds the timer, queue and counters described by a SimulationConfig and steps them itself, one
+ * simulated minute after another as fast as they go, on the calling thread: the timer, queue and counter threads
+ * are never started and no AWT or Swing class is loaded. Observers such as a SnapshotPublisher or QueueEstimator
+ * can be registered on getTimer(), getQueue() and getCounters() before run() is called. The interactive program
+ * builds its run the same way, then starts those threads itself instead of calling run().
+ *
+ * The run ends once every passenger has arrived, every flight has departed, each passenger still queuing has
+ * been told at a counter that they missed their flight and, if the config has stages after check-in, every
+ * passenger has left the last of them; or at the config's time limit. The stages are ticked here too, after the
+ * counters, rather than on their own threads.
+ *
+ * A config naming a multi-day scenario is read day by day by a DayWindowLoader on the timer, and the run carries
+ * on until its last day is over. The result counts the days already released as well as those still held.
+ *
+ * Example:
+ *
+ *     SimulationResult result = new SimulationEngine(new SimulationConfig().setCounters(4)).run();
+ */
+public class SimulationEngine {
+    private final SimulationConfig config;
+    private final AllFlights flights;
+    private final AllBookings bookings;
+    private final Timer timer;
+    private final Queue queue;
+    private final List<Counter> counters = new ArrayList<>();
+    private final SimulationReport report;
+    private final PassengerPipeline pipeline; // Null when passengers stop at check-in
+    private final DataLoader loader; // Null unless the engine read the data directory itself
+    private final DayWindowLoader days; // Null unless the config names a multi-day scenario
+    private final List<Observer> flightObservers; // Registered on flights added during the run
+    private boolean started;
+    private boolean over; // Set once every passenger is done with, see the class comment
+    private int flightsVersion; // AllFlights version lastDeparture was computed from
+    private double lastDeparture;
+    private int nextCheck; // Earliest minute the end of the run is checked again
+
+    /**
+     * Creates an engine over the data files in the config's data directory or, if the config names one, over a
+     * multi-day scenario whose first day is read now and the rest as the run reaches them.
+     *
+     * @param config Run settings.
+     * @throws IOException If the data files, or the scenario's first day, are missing or malformed.
+     */
+    public SimulationEngine(SimulationConfig config) throws IOException {
+        this(config, new ArrayList<>());
+    }
+
+    // The day loader shares the list of flight observers, so those added later still hear of each new day.
+    private SimulationEngine(SimulationConfig config, List<Observer> flightObservers) throws IOException {
+        this(config, config.getDaysDirectory() == null ? new DataLoader(config.getDataDirectory()) : null,
+                config.getDaysDirectory() == null ? null : new DayWindowLoader(config.getDaysDirectory(),
+                        config.getDaysAhead(), new AllFlights(), new AllBookings(), flightObservers),
+                flightObservers);
+    }
+
+    private SimulationEngine(SimulationConfig config, DataLoader loader, DayWindowLoader days,
+                             List<Observer> flightObservers) {
+        this(config, loader, days, loader != null ? loader.getFlights() : days.getFlights(),
+                loader != null ? loader.getBookings() : days.getBookings(), flightObservers);
+    }
+
+    /**
+     * Creates an engine over flights and bookings the caller has already loaded or generated.
+     *
+     * @param config   Run settings; the data directory is not used.
+     * @param flights  Flights to simulate.
+     * @param bookings Bookings for those flights.
+     */
+    public SimulationEngine(SimulationConfig config, AllFlights flights, AllBookings bookings) {
+        this(config, null, null, flights, bookings, new ArrayList<>());
+    }
+
+    // Installs the first day of a multi-day scenario before the counters pick their home lanes from the queue.
+    private SimulationEngine(SimulationConfig config, DataLoader loader, DayWindowLoader days, AllFlights flights,
+                             AllBookings bookings, List<Observer> flightObservers) {
+        this.config = config;
+        this.flights = flights;
+        this.bookings = bookings;
+        this.loader = loader;
+        this.days = days;
+        this.flightObservers = flightObservers;
+        this.timer = new Timer(new SimulationTime());
+        ArrivalProcess arrivals = config.getArrivalProcess() != null ? config.getArrivalProcess()
+                : ArrivalProcess.fromSpec(config.getArrivals(), flights);
+        this.queue = new Queue(timer, bookings, arrivals, Queue.laneAssignment(config.getLanes(), flights));
+        this.report = new SimulationReport(flights);
+        if (days != null) {
+            days.start(queue);
+            timer.registerObserver(days);
+        }
+        List<String> lanes = queue.getLaneNames();
+        for (int i = 1; i <= config.getCounters(); i++) {
+            String homeLane = lanes.isEmpty() ? Queue.SHARED_LANE : lanes.get((i - 1) % lanes.size());
+            Counter counter = new Counter(i, flights, timer, queue, homeLane);
+            counter.registerObserver(report);
+            counters.add(counter);
+        }
+        this.pipeline = config.getStages().isEmpty() ? null
+                : new PassengerPipeline(PassengerPipeline.parseStages(config.getStages(), flights, timer), counters);
+    }
+
+    /**
+     * Creates an engine over components that already exist, e.g. a what-if branch forked from a live run.
+     * The run carries on from the timer's current minute.
+     *
+     * @param config   Run settings; only the time limit is used, and passengers stop at check-in.
+     * @param flights  Flights the counters check passengers in to.
+     * @param bookings Bookings the result is counted over.
+     * @param timer    Timer, not started.
+     * @param queue    Queue driven by the timer.
+     * @param counters Counters serving the queue, not started.
+     */
+    SimulationEngine(SimulationConfig config, AllFlights flights, AllBookings bookings, Timer timer, Queue queue,
+                     List<Counter> counters) {
+        this.config = config;
+        this.flights = flights;
+        this.bookings = bookings;
+        this.timer = timer;
+        this.queue = queue;
+        this.loader = null;
+        this.days = null;
+        this.flightObservers = new ArrayList<>();
+        this.report = new SimulationReport(flights);
+        for (Counter counter : counters) {
+            counter.registerObserver(report);
+            this.counters.add(counter);
+        }
+        this.pipeline = null;
+    }
+
+    /**
+     * Runs the simulation to the end on the calling thread.
+     *
+     * @return Totals and the report of the run.
+     * @throws IllegalStateException If the engine has already run or been advanced.
+     */
+    public synchronized SimulationResult run() {
+        if (started) {
+            throw new IllegalStateException("The simulation has already run.");
+        }
+        long start = System.nanoTime();
+        int first = timer.getCurrentTime();
+        int limit = config.getTimeLimit();
+        begin();
+        for (int t = first + 1; !over && (limit == 0 || t <= first + limit); t++) {
+            step(t);
+        }
+        return result(first, System.nanoTime() - start);
+    }
+
+    /**
+     * Steps every minute up to the given one, e.g. for a coordinator keeping several engines in lock step.
+     * Minutes keep passing after the run is over, so the clock always reaches the given minute; the config's time
+     * limit is not applied.
+     *
+     * @param time Last minute to step.
+     * @return True once the run is over, as run() would have ended it.
+     */
+    public synchronized boolean advanceTo(int time) {
+        if (!started) {
+            begin();
+        }
+        for (int t = timer.getCurrentTime() + 1; t <= time; t++) {
+            step(t);
+        }
+        return over;
+    }
+
+    // Admits the passengers due at the starting minute.
+    private void begin() {
+        started = true;
+        flightsVersion = flights.getVersion();
+        lastDeparture = lastDeparture();
+        queue.admitArrivals();
+    }
+
+    // Steps one minute: the timer, the queue, the counters and then the stages, and checks whether the run is over.
+    private void step(int t) {
+        timer.updateTime(t);
+        queue.admitArrivals();
+        counters.forEach(Counter::tick);
+        if (pipeline != null) pipeline.tick();
+        if (flights.getVersion() != flightsVersion) {
+            // Flights added or rescheduled, e.g. the next day of a multi-day scenario
+            flightsVersion = flights.getVersion();
+            lastDeparture = lastDeparture();
+        }
+        if (!over && t > lastDeparture && t >= nextCheck && queue.hasAdmittedAll()) {
+            // Every flight has gone, so the passengers still queuing only need to reach a counter once
+            int unserved = unservedCount();
+            int open = (int) counters.stream().filter(Counter::getIsOpen).count();
+            if ((unserved == 0 || open == 0) && (pipeline == null || pipeline.isEmpty())) {
+                over = true;
+                return;
+            }
+            nextCheck = unserved == 0 || open == 0 ? t + 1 : t + (unserved + open - 1) / open;
+        }
+    }
+
+    private double lastDeparture() {
+        return flights.getAllFlights().values().stream().mapToDouble(FlightDetails::getDepartureTime).max().orElse(0);
+    }
+
+    // Counts queued passengers who have not yet been told they missed their flight, in O(queue).
+    private int unservedCount() {
+        int unserved = 0;
+        for (BookingDetails booking : queue.getPassengerQueue()) {
+            if (!booking.getMissedFlight()) unserved++;
+        }
+        return unserved;
+    }
+
+    private SimulationResult result(int first, long elapsedNanos) {
+        // Days of a multi-day scenario already released are no longer in the stores
+        int total = days == null ? 0 : days.getReleasedBookings();
+        int checkedIn = days == null ? 0 : days.getReleasedCheckedIn();
+        int missed = days == null ? 0 : days.getReleasedMissed();
+        for (BookingDetails booking : bookings.getAllBookings().values()) {
+            total++;
+            if (booking.getCheckInStatus()) {
+                checkedIn++;
+            } else if (booking.getMissedFlight()) {
+                missed++;
+            }
+        }
+        float excessFees = days == null ? 0 : days.getReleasedExcessFees();
+        for (FlightDetails flight : flights.getAllFlights().values()) {
+            excessFees += flight.getTotalExcessFees();
+        }
+        return new SimulationResult(timer.getCurrentTime() - first, total, checkedIn, missed, excessFees, elapsedNanos, report);
+    }
+
+    public SimulationConfig getConfig() { return config; }
+    public AllFlights getFlights() { return flights; }
+    public AllBookings getBookings() { return bookings; }
+    public Timer getTimer() { return timer; }
+    public Queue getQueue() { return queue; }
+    public List<Counter> getCounters() { return Collections.unmodifiableList(counters); }
+    public SimulationReport getReport() { return report; }
+    // Loader that read the data directory, e.g. for a DataDirectoryWatcher to carry on from, or null if the engine
+    // was given its flights and bookings or runs a multi-day scenario.
+    public DataLoader getDataLoader() { return loader; }
+    // Loader of a multi-day scenario, or null if the config has none.
+    public DayWindowLoader getDays() { return days; }
+    // Observers registered on each flight added during the run, by the day loader or by a watcher given this
+    // list; add to it before the run starts. Flights already loaded are not affected.
+    public List<Observer> getFlightObservers() { return flightObservers; }
+    // Stages after check-in, or null if the config has none.
+    public PassengerPipeline getPipeline() { return pipeline; }
+}
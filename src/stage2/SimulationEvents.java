@@ -0,0 +1,173 @@
+package stage2;
+
+import java.util.Observable;
+import java.util.Observer;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Custom Java Flight Recorder events emitted by the simulation, all under the "Stage2" category.
+ *
+ * Events follow the usual JFR pattern: construct, begin, end and fill in fields only if shouldCommit() is true.
+ * When no recording is running (or an event type is disabled) shouldCommit() is false and the JIT removes the
+ * allocation, so the cost is a few instructions. Record them together with monitor contention using the
+ * stage2.jfc profile in the project root:
+ *
+ *     java -XX:StartFlightRecording=settings=stage2.jfc,filename=stage2.jfr stage2.Main
+ */
+@SuppressWarnings("deprecation")
+public final class SimulationEvents {
+    private SimulationEvents() {
+    }
+
+    /**
+     * Delivers one observer notification, recording how long the observer took.
+     *
+     * @param subject    Object sending the notification, recorded by class name.
+     * @param observer   Observer to notify.
+     * @param observable Observable argument passed to update.
+     * @param arg        Argument passed to update.
+     */
+    public static void dispatch(Object subject, Observer observer, Observable observable, Object arg) {
+        ObserverDispatch event = new ObserverDispatch();
+        event.begin();
+        observer.update(observable, arg);
+        event.end();
+        if (event.shouldCommit()) {
+            event.subject = subject.getClass().getSimpleName();
+            event.observer = observer.getClass().getName();
+            event.argument = arg == null ? null : arg.getClass().getSimpleName();
+            event.commit();
+        }
+    }
+
+    @Name("stage2.TickStart")
+    @Label("Tick Start")
+    @Category("Stage2")
+    @Description("The timer is about to publish a new simulation minute")
+    @StackTrace(false)
+    public static class TickStart extends Event {
+        @Label("Minute")
+        public int minute;
+    }
+
+    @Name("stage2.TickEnd")
+    @Label("Tick End")
+    @Category("Stage2")
+    @Description("The timer has published a simulation minute; the duration covers waking threads and every observer")
+    @StackTrace(false)
+    public static class TickEnd extends Event {
+        @Label("Minute")
+        public int minute;
+
+        @Label("Observers")
+        public int observers;
+    }
+
+    @Name("stage2.PassengerServed")
+    @Label("Passenger Served")
+    @Category("Stage2")
+    @Description("A counter checked a passenger in, or found their flight departed; the duration covers the check-in")
+    @StackTrace(false)
+    public static class PassengerServed extends Event {
+        @Label("Counter")
+        public int counter;
+
+        @Label("Booking")
+        public String booking;
+
+        @Label("Flight")
+        public String flight;
+
+        @Label("Checked In")
+        public boolean checkedIn;
+
+        @Label("Excess Fee")
+        public float excessFee;
+
+        @Label("Queue Wait")
+        @Description("Simulated minutes spent queuing, -1 if unknown")
+        public int queueWait;
+    }
+
+    @Name("stage2.PassengerRecycled")
+    @Label("Passenger Recycled")
+    @Category("Stage2")
+    @Description("A passenger who missed their flight was sent to the back of the queue")
+    @StackTrace(false)
+    public static class PassengerRecycled extends Event {
+        @Label("Booking")
+        public String booking;
+
+        @Label("Flight")
+        public String flight;
+
+        @Label("Queue Size")
+        public int queueSize;
+    }
+
+    @Name("stage2.GateClosed")
+    @Label("Gate Closed")
+    @Category("Stage2")
+    @Description("A flight's gate closed at its departure time")
+    @StackTrace(false)
+    public static class GateClosed extends Event {
+        @Label("Flight")
+        public String flight;
+
+        @Label("Minute")
+        public int minute;
+
+        @Label("Passengers")
+        public int passengers;
+
+        @Label("Capacity")
+        public int capacity;
+    }
+
+    @Name("stage2.StructureMemory")
+    @Label("Structure Memory")
+    @Category("Stage2")
+    @Description("Estimated entries and retained bytes of one simulation structure, recorded by MemoryMonitor")
+    @StackTrace(false)
+    public static class StructureMemory extends Event {
+        @Label("Structure")
+        public String structure;
+
+        @Label("Entries")
+        public int entries;
+
+        @Label("Bytes")
+        @DataAmount
+        public long bytes;
+
+        @Label("Over Budget")
+        public boolean overBudget;
+    }
+
+    // Disabled unless a profile turns it on, since every queue change and check-in notifies several observers
+    @Name("stage2.ObserverDispatch")
+    @Label("Observer Dispatch")
+    @Category("Stage2")
+    @Description("One observer update call, e.g. a GUI callback; the duration is the time spent in the observer")
+    @Enabled(false)
+    @Threshold("100 us")
+    public static class ObserverDispatch extends Event {
+        @Label("Subject")
+        public String subject;
+
+        @Label("Observer")
+        public String observer;
+
+        @Label("Argument")
+        public String argument;
+    }
+}
@@ -0,0 +1,241 @@
+package stage2;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collector;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * End-of-day reporting engine. Keeps per-flight, per-carrier and per-destination aggregates
+ * up to date as counters process passengers, so a summary can be exported at any tick in O(groups).
+ */
+@SuppressWarnings("deprecation")
+public class SimulationReport implements Observer {
+    private final Map<String, ReportAggregate> byFlight = new LinkedHashMap<>();
+    private final Map<String, ReportAggregate> byCarrier = new LinkedHashMap<>();
+    private final Map<String, ReportAggregate> byDestination = new LinkedHashMap<>();
+    private final AllFlights flights;
+    // Last booking seen from each counter, so repeated notifications for the same passenger count once.
+    private final Map<Integer, BookingDetails> lastSeenByCounter = new HashMap<>();
+
+    //Creates empty aggregates for every loaded flight and its carrier and destination.
+    public SimulationReport(AllFlights allFlights) {
+        this.flights = allFlights;
+        allFlights.getAllFlights().values().forEach(this::addFlightGroups);
+    }
+
+    // Adds a flight's hold capacity to its flight, carrier and destination groups.
+    private void addFlightGroups(FlightDetails flight) {
+        group(byFlight, "flight", flight.getFlightCode()).addCapacity(flight);
+        group(byCarrier, "carrier", flight.getCarrier()).addCapacity(flight);
+        group(byDestination, "destination", flight.getDestination()).addCapacity(flight);
+    }
+
+    /**
+     * Rebuilds the aggregates from a saved dataset with a parallel stream instead of replaying the run.
+     * Bookings are grouped by flight concurrently, then the flight rows are rolled up to carriers and destinations.
+     *
+     * @param allFlights  Flights of the saved dataset.
+     * @param allBookings Bookings carrying their final check-in and missed-flight state.
+     * @return A report equivalent to one maintained live during the run.
+     */
+    public static SimulationReport rebuild(AllFlights allFlights, AllBookings allBookings) {
+        SimulationReport report = new SimulationReport(allFlights);
+        ConcurrentMap<String, ReportAggregate> perFlight;
+        try (Stream<BookingDetails> all = allBookings.streamBookings()) {
+            perFlight = all.parallel()
+                    .filter(booking -> allFlights.getFlight(booking.getFlightCode()) != null)
+                    .collect(Collectors.groupingByConcurrent(BookingDetails::getFlightCode, Collector.of(
+                            () -> new ReportAggregate("flight", ""),
+                            SimulationReport::accumulate,
+                            (left, right) -> { left.merge(right); return left; })));
+        }
+        perFlight.forEach((code, totals) -> {
+            FlightDetails flight = allFlights.getFlight(code);
+            report.byFlight.get(code).merge(totals);
+            report.byCarrier.get(flight.getCarrier()).merge(totals);
+            report.byDestination.get(flight.getDestination()).merge(totals);
+        });
+        return report;
+    }
+
+    // Adds one finished booking to an aggregate; bookings still waiting are ignored.
+    private static void accumulate(ReportAggregate aggregate, BookingDetails booking) {
+        if (booking.getMissedFlight()) {
+            aggregate.addMissedFlight();
+        } else if (booking.getCheckInStatus()) {
+            aggregate.addCheckIn(booking);
+        }
+    }
+
+    // Returns the aggregate for a group, creating it on first use.
+    private static ReportAggregate group(Map<String, ReportAggregate> groups, String type, String name) {
+        return groups.computeIfAbsent(name, key -> new ReportAggregate(type, key));
+    }
+
+    /**
+     * Receives counter notifications and folds the booking just processed into the aggregates.
+     *
+     * @param o   Unused; counters pass null.
+     * @param arg The counter that changed state.
+     */
+    @Override
+    public void update(Observable o, Object arg) {
+        if (arg instanceof Counter) {
+            Counter counter = (Counter) arg;
+            record(counter.getCounterNumber(), counter.getBooking());
+        }
+    }
+
+    // Records a booking once per counter visit, as a check-in or a missed flight.
+    private synchronized void record(int counterNumber, BookingDetails booking) {
+        if (booking == null || lastSeenByCounter.get(counterNumber) == booking) {
+            return;
+        }
+        lastSeenByCounter.put(counterNumber, booking);
+        FlightDetails flight = flights.getFlight(booking.getFlightCode());
+        if (flight == null) {
+            return;
+        }
+        if (!byFlight.containsKey(flight.getFlightCode())) {
+            addFlightGroups(flight); // Flight added during the run
+        }
+        accumulate(byFlight.get(flight.getFlightCode()), booking);
+        accumulate(byCarrier.get(flight.getCarrier()), booking);
+        accumulate(byDestination.get(flight.getDestination()), booking);
+    }
+
+    /**
+     * Writes every group as CSV, one row per flight, carrier and destination.
+     *
+     * @param out Destination of the CSV text.
+     * @throws IOException If writing fails.
+     */
+    public synchronized void exportCsv(Writer out) throws IOException {
+        out.write("group_type,group,passengers,missed_flights,excess_fees,hold_percent,avg_queue_wait" + System.lineSeparator());
+        for (Map<String, ReportAggregate> groups : allGroups()) {
+            for (ReportAggregate row : groups.values()) {
+                out.write(row.getGroupType() + "," + csvField(row.getGroupName()) + "," + row.getPassengers() + ","
+                        + row.getMissedFlights() + "," + row.getExcessFees() + "," + row.getBaggagePercent() + ","
+                        + row.getAverageQueueWait() + System.lineSeparator());
+            }
+        }
+    }
+
+    /**
+     * Writes every group as a JSON object keyed by group type.
+     *
+     * @param out Destination of the JSON text.
+     * @throws IOException If writing fails.
+     */
+    public synchronized void exportJson(Writer out) throws IOException {
+        out.write("{");
+        String[] names = {"flights", "carriers", "destinations"};
+        List<Map<String, ReportAggregate>> groups = allGroups();
+        for (int i = 0; i < groups.size(); i++) {
+            out.write((i > 0 ? "," : "") + "\"" + names[i] + "\":[");
+            boolean first = true;
+            for (ReportAggregate row : groups.get(i).values()) {
+                out.write((first ? "" : ",") + "{\"group\":\"" + jsonString(row.getGroupName()) + "\",\"passengers\":"
+                        + row.getPassengers() + ",\"missedFlights\":" + row.getMissedFlights() + ",\"excessFees\":"
+                        + row.getExcessFees() + ",\"holdPercent\":" + row.getBaggagePercent() + ",\"avgQueueWait\":"
+                        + row.getAverageQueueWait() + "}");
+                first = false;
+            }
+            out.write("]");
+        }
+        out.write("}" + System.lineSeparator());
+    }
+
+    /**
+     * Writes the CSV and JSON summaries next to the simulation log.
+     */
+    public void writeToDisk() {
+        writeToDisk("simulation_report");
+    }
+
+    /**
+     * Writes the CSV and JSON summaries to baseName.csv and baseName.json.
+     *
+     * @param baseName Output path without extension.
+     */
+    public void writeToDisk(String baseName) {
+        try (FileWriter csv = new FileWriter(new File(baseName + ".csv"), false);
+             FileWriter json = new FileWriter(new File(baseName + ".json"), false)) {
+            exportCsv(csv);
+            exportJson(json);
+        } catch (IOException e) {
+            System.err.println("Failed to write report to file: " + e.getMessage());
+        }
+    }
+
+    // Returns the flight, carrier and destination groups in output order.
+    private List<Map<String, ReportAggregate>> allGroups() {
+        return Arrays.asList(byFlight, byCarrier, byDestination);
+    }
+
+    // Quotes a CSV field if it contains a separator or quote.
+    private static String csvField(String value) {
+        if (value.contains(",") || value.contains("\"")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+
+    // Escapes backslashes and quotes for a JSON string literal.
+    static String jsonString(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    // Returns a copy of every flight, carrier and destination aggregate, in output order.
+    public synchronized List<ReportAggregate> getAllGroups() {
+        List<ReportAggregate> rows = new ArrayList<>();
+        for (Map<String, ReportAggregate> groups : allGroups()) {
+            for (ReportAggregate row : groups.values()) {
+                ReportAggregate copy = new ReportAggregate(row.getGroupType(), row.getGroupName());
+                copy.merge(row);
+                rows.add(copy);
+            }
+        }
+        return rows;
+    }
+
+    // Folds an aggregate produced elsewhere, e.g. by another simulation process, into the matching group.
+    public synchronized void mergeGroup(ReportAggregate row) {
+        Map<String, ReportAggregate> groups;
+        switch (row.getGroupType()) {
+            case "flight": groups = byFlight; break;
+            case "carrier": groups = byCarrier; break;
+            case "destination": groups = byDestination; break;
+            default: throw new IllegalArgumentException("Unknown group type " + row.getGroupType());
+        }
+        group(groups, row.getGroupType(), row.getGroupName()).merge(row);
+    }
+
+    // Returns the aggregate for a single flight, or null if the flight is unknown.
+    public synchronized ReportAggregate getFlightAggregate(String flightCode) {
+        return byFlight.get(flightCode);
+    }
+
+    // Returns the aggregate for a carrier, or null if no flight uses it.
+    public synchronized ReportAggregate getCarrierAggregate(String carrier) {
+        return byCarrier.get(carrier);
+    }
+
+    // Returns the aggregate for a destination, or null if no flight goes there.
+    public synchronized ReportAggregate getDestinationAggregate(String destination) {
+        return byDestination.get(destination);
+    }
+}
@@ -0,0 +1,53 @@
+package stage2;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of a SimulationEngine run: passenger totals, the simulated and wall-clock duration, and the
+ * end-of-day report.
+ */
+public class SimulationResult {
+    private final int minutes;
+    private final int bookings;
+    private final int checkedIn;
+    private final int missedFlights;
+    private final float excessFees;
+    private final long elapsedNanos;
+    private final SimulationReport report;
+
+    SimulationResult(int minutes, int bookings, int checkedIn, int missedFlights, float excessFees, long elapsedNanos,
+                     SimulationReport report) {
+        this.minutes = minutes;
+        this.bookings = bookings;
+        this.checkedIn = checkedIn;
+        this.missedFlights = missedFlights;
+        this.excessFees = excessFees;
+        this.elapsedNanos = elapsedNanos;
+        this.report = report;
+    }
+
+    // Simulated minutes the run lasted.
+    public int getMinutes() { return minutes; }
+    public int getBookings() { return bookings; }
+    public int getCheckedIn() { return checkedIn; }
+    public int getMissedFlights() { return missedFlights; }
+    // Passengers who never reached a counter, e.g. because the time limit was hit.
+    public int getNotServed() { return bookings - checkedIn - missedFlights; }
+    public float getExcessFees() { return excessFees; }
+    public long getElapsedNanos() { return elapsedNanos; }
+
+    // The report the run kept, for exporting as CSV or JSON.
+    public SimulationReport getReport() { return report; }
+
+    // Every flight, carrier and destination aggregate, in report order.
+    public List<ReportAggregate> getGroups() {
+        return Collections.unmodifiableList(report.getAllGroups());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d minutes, %d bookings: %d checked in, %d missed their flight, %d not served, £%.2f excess fees (%.0f ms)",
+                minutes, bookings, checkedIn, missedFlights, getNotServed(), excessFees, elapsedNanos / 1e6);
+    }
+}
@@ -0,0 +1,309 @@
+package stage2;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable view of the queue, counters and flights at one tick, published by SnapshotPublisher.
+ *
+ * Every value is copied out of the live objects while their own lock is held, so a snapshot never shows a
+ * half-finished check-in, and it never changes after publication: any thread can read it without locking.
+ * Consecutive snapshots share structure. The queue, counters and flights are kept in persistent tables, so
+ * publishing copies only the table paths leading to what changed and points at everything else.
+ */
+public final class SimulationSnapshot {
+    private final long version;
+    private final int time;
+    private final String timeLabel;
+    private final Table<PassengerState> queue;
+    private final Table<CounterState> counters;
+    private final Table<FlightState> flights;
+    private final Map<String, Integer> flightIndex; // Position of each flight in the flights table, shared until a flight is added
+    private final int checkedIn;
+    private final List<CounterState> changedCounters;
+    private final List<FlightState> changedFlights;
+
+    SimulationSnapshot(long version, int time, String timeLabel, Table<PassengerState> queue, Table<CounterState> counters,
+                       Table<FlightState> flights, Map<String, Integer> flightIndex, int checkedIn,
+                       List<CounterState> changedCounters, List<FlightState> changedFlights) {
+        this.version = version;
+        this.time = time;
+        this.timeLabel = timeLabel;
+        this.queue = queue;
+        this.counters = counters;
+        this.flights = flights;
+        this.flightIndex = flightIndex;
+        this.checkedIn = checkedIn;
+        this.changedCounters = Collections.unmodifiableList(changedCounters);
+        this.changedFlights = Collections.unmodifiableList(changedFlights);
+    }
+
+    // Number of snapshots published before this one.
+    public long getVersion() { return version; }
+    public int getTime() { return time; }
+    public String getTimeLabel() { return timeLabel; }
+
+    // Queued passengers in the order they joined; with several lanes counters may serve them in another order.
+    public Iterable<PassengerState> getQueue() { return queue; }
+    public int getQueueLength() { return queue.size(); }
+
+    // Returns the passenger who has queued longest, or null if the queue is empty.
+    public PassengerState getQueueHead() {
+        Iterator<PassengerState> iterator = queue.iterator();
+        return iterator.hasNext() ? iterator.next() : null;
+    }
+
+    // Counters in the order they were given to the publisher.
+    public Iterable<CounterState> getCounters() { return counters; }
+
+    // Returns the number of open counters.
+    public int getOpenCounters() {
+        int open = 0;
+        for (CounterState counter : counters) {
+            if (counter.isOpen()) open++;
+        }
+        return open;
+    }
+
+    public Iterable<FlightState> getFlights() { return flights; }
+    public int getFlightCount() { return flights.size(); }
+
+    // Returns a flight's state, or null for a flight the publisher has not seen.
+    public FlightState getFlight(String flightCode) {
+        Integer index = flightIndex.get(flightCode);
+        return index == null ? null : flights.get(index);
+    }
+
+    // Passengers checked in across every flight.
+    public int getCheckedIn() { return checkedIn; }
+
+    // Counters and flights whose state changed since the previous snapshot, so readers can redraw only those.
+    public List<CounterState> getChangedCounters() { return changedCounters; }
+    public List<FlightState> getChangedFlights() { return changedFlights; }
+
+    // A queued passenger as they were when they joined the queue.
+    public static final class PassengerState {
+        private final BookingDetails booking;
+        private final String reference;
+        private final String fullName;
+        private final String flightCode;
+        private final boolean missedFlight;
+        private final int joinTime;
+
+        PassengerState(BookingDetails booking) {
+            this.booking = booking;
+            this.reference = booking.getReference();
+            this.fullName = booking.getFullName();
+            this.flightCode = booking.getFlightCode();
+            this.missedFlight = booking.getMissedFlight();
+            this.joinTime = booking.getQueueJoinTime();
+        }
+
+        public BookingDetails getBooking() { return booking; }
+        public String getReference() { return reference; }
+        public String getFullName() { return fullName; }
+        public String getFlightCode() { return flightCode; }
+        public boolean getMissedFlight() { return missedFlight; }
+        public int getJoinTime() { return joinTime; }
+    }
+
+    // A counter and the passenger it last served. Build one while holding the counter's lock.
+    public static final class CounterState {
+        private final int number;
+        private final boolean open;
+        private final BookingDetails booking;
+        private final String passengerName;
+        private final float excessFee;
+
+        CounterState(Counter counter) {
+            this.number = counter.getCounterNumber();
+            this.open = counter.getIsOpen();
+            this.booking = counter.getBooking();
+            this.passengerName = booking == null ? null : booking.getFullName();
+            this.excessFee = booking == null ? 0 : booking.getExcessFeeCharged();
+        }
+
+        public int getCounterNumber() { return number; }
+        public boolean isOpen() { return open; }
+        // Passenger last served, or null if the counter has not served anyone yet or last found a missed flight.
+        public BookingDetails getBooking() { return booking; }
+        public String getPassengerName() { return passengerName; }
+        public float getExcessFee() { return excessFee; }
+    }
+
+    // A flight's check-in totals. Build one while holding the flight's lock.
+    public static final class FlightState {
+        private final FlightDetails flight;
+        private final int passengers;
+        private final float baggagePercent;
+        private final float excessFees;
+        private final boolean gateOpen;
+        private final float departureTime;
+
+        FlightState(FlightDetails flight) {
+            this.flight = flight;
+            this.passengers = flight.getNumberOfPassengers();
+            this.baggagePercent = flight.getBaggagePercent();
+            this.excessFees = flight.getTotalExcessFees();
+            this.gateOpen = flight.getGateOpen();
+            this.departureTime = flight.getDepartureTime();
+        }
+
+        // The live flight, for its fixed details such as carrier and destination.
+        public FlightDetails getFlight() { return flight; }
+        public String getFlightCode() { return flight.getFlightCode(); }
+        public int getMaxPassengers() { return flight.getMaxPassengers(); }
+        public int getNumberOfPassengers() { return passengers; }
+        public float getBaggagePercent() { return baggagePercent; }
+        public float getTotalExcessFees() { return excessFees; }
+        public boolean getGateOpen() { return gateOpen; }
+        public float getDepartureTime() { return departureTime; }
+    }
+
+    /**
+     * Persistent sparse array: a 32-way trie over non-negative int indices that is never modified in place.
+     * with() copies the one node per level on the path to the index, O(log32 n), and shares every other node
+     * with the table it was made from. Emptied nodes are dropped, so iteration skips removed ranges quickly.
+     */
+    static final class Table<T> implements Iterable<T> {
+        private static final int BITS = 5;
+        private static final int WIDTH = 1 << BITS;
+        private static final int MASK = WIDTH - 1;
+        private static final Table<Object> EMPTY = new Table<>(null, 0, 0);
+
+        private final Object[] root;
+        private final int shift; // Index bits below the root level; leaves are at shift 0
+        private final int size;
+
+        private Table(Object[] root, int shift, int size) {
+            this.root = root;
+            this.shift = shift;
+            this.size = size;
+        }
+
+        @SuppressWarnings("unchecked")
+        static <T> Table<T> empty() {
+            return (Table<T>) EMPTY;
+        }
+
+        int size() {
+            return size;
+        }
+
+        // Returns the value at an index, or null if there is none.
+        @SuppressWarnings("unchecked")
+        T get(int index) {
+            if (index < 0 || ((long) index >>> shift) >= WIDTH) {
+                return null;
+            }
+            Object[] node = root;
+            for (int level = shift; node != null && level > 0; level -= BITS) {
+                node = (Object[]) node[(index >>> level) & MASK];
+            }
+            return node == null ? null : (T) node[index & MASK];
+        }
+
+        /**
+         * Returns a table with the value at an index replaced.
+         *
+         * @param index Non-negative index.
+         * @param value New value, or null to remove the entry.
+         * @return The new table, or this one if nothing changed.
+         */
+        Table<T> with(int index, T value) {
+            if (index < 0) {
+                throw new IllegalArgumentException("Table index must not be negative: " + index);
+            }
+            T old = get(index);
+            if (old == value) {
+                return this;
+            }
+            Object[] newRoot = root;
+            int newShift = shift;
+            while (((long) index >>> newShift) >= WIDTH) {
+                if (newRoot != null) {
+                    Object[] grown = new Object[WIDTH];
+                    grown[0] = newRoot;
+                    newRoot = grown;
+                }
+                newShift += BITS;
+            }
+            newRoot = set(newRoot, newShift, index, value);
+            int newSize = size + (value != null ? 1 : 0) - (old != null ? 1 : 0);
+            return newRoot == null ? empty() : new Table<>(newRoot, newShift, newSize);
+        }
+
+        // Copies the path to index and stores value at its end, returning null for a node left empty.
+        private static Object[] set(Object[] node, int level, int index, Object value) {
+            if (node == null && value == null) {
+                return null;
+            }
+            Object[] copy = node == null ? new Object[WIDTH] : node.clone();
+            int slot = (index >>> level) & MASK;
+            copy[slot] = level == 0 ? value : set((Object[]) copy[slot], level - BITS, index, value);
+            if (copy[slot] == null) {
+                for (Object entry : copy) {
+                    if (entry != null) return copy;
+                }
+                return null;
+            }
+            return copy;
+        }
+
+        // Iterates the values in index order.
+        @Override
+        public Iterator<T> iterator() {
+            return new Iterator<T>() {
+                private final Object[][] nodes = new Object[shift / BITS + 1][];
+                private final int[] positions = new int[nodes.length];
+                private int depth = root == null ? -1 : 0;
+                private T next;
+
+                {
+                    nodes[0] = root;
+                    advance();
+                }
+
+                @SuppressWarnings("unchecked")
+                private void advance() {
+                    next = null;
+                    while (depth >= 0) {
+                        if (positions[depth] == WIDTH) {
+                            if (--depth >= 0) positions[depth]++;
+                            continue;
+                        }
+                        Object entry = nodes[depth][positions[depth]];
+                        if (entry == null) {
+                            positions[depth]++;
+                        } else if (depth == nodes.length - 1) {
+                            positions[depth]++;
+                            next = (T) entry;
+                            return;
+                        } else {
+                            nodes[++depth] = (Object[]) entry;
+                            positions[depth] = 0;
+                        }
+                    }
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return next != null;
+                }
+
+                @Override
+                public T next() {
+                    if (next == null) {
+                        throw new NoSuchElementException();
+                    }
+                    T value = next;
+                    advance();
+                    return value;
+                }
+            };
+        }
+    }
+}
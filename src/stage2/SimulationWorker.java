@@ -0,0 +1,191 @@
+package stage2;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * One process of a distributed simulation. Runs a SimulationEngine for a share of the flights, with its share of
+ * the counters and of the arrival rate, and only advances simulated time as far as the coordinator allows.
+ * Lanes, arrivals and stages come from the same system properties as a single-JVM run.
+ *
+ * Protocol (one line per message over TCP):
+ * worker sends "HELLO index"; the coordinator sends "ADVANCE t" and the worker steps every minute up to t, then
+ * replies "DONE t checkedIn queued idle"; on "FINISH" the worker sends one "GROUP ..." line per report aggregate
+ * and "END", then exits. Idle means the partition's run is over, as SimulationEngine.run would end it.
+ *
+ * Usage: java stage2.SimulationWorker host port index workerCount [totalCounters]
+ *
+ * totalCounters (default 6) is the number of counters across all partitions; this worker runs its share of them.
+ * The arrival rate, e.g. 6 a minute for fixed arrivals, is likewise scaled by the partition's share of the bookings.
+ */
+public class SimulationWorker {
+    private final int index;
+    private final SimulationEngine engine;
+
+    /**
+     * Builds the simulation for one partition. Nothing runs until the coordinator sends ADVANCE.
+     *
+     * @param index        Partition number, from 0.
+     * @param flights      Flights in this partition.
+     * @param bookings     Bookings for those flights.
+     * @param counterCount Number of check-in counters.
+     * @param bookingShare The partition's fraction of all bookings, which its arrival rate is scaled by.
+     */
+    public SimulationWorker(int index, AllFlights flights, AllBookings bookings, int counterCount, double bookingShare) {
+        this.index = index;
+        SimulationConfig config = SimulationConfig.fromSystemProperties().setCounters(counterCount)
+                .setArrivalProcess(ArrivalProcess.fromProperty(flights).forShare(bookingShare));
+        this.engine = new SimulationEngine(config, flights, bookings);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 4) {
+            System.err.println("Usage: java stage2.SimulationWorker host port index workerCount [totalCounters]");
+            System.exit(1);
+        }
+        int index = Integer.parseInt(args[2]);
+        int workerCount = Integer.parseInt(args[3]);
+        int totalCounters = args.length > 4 ? Integer.parseInt(args[4]) : 6;
+
+        DataLoader loader = new DataLoader(Paths.get("data"));
+        AllFlights flights = new AllFlights();
+        AllBookings bookings = new AllBookings();
+        partition(loader.getFlights(), loader.getBookings(), index, workerCount, flights, bookings);
+        int counterCount = counterShare(loader.getFlights(), loader.getBookings(), index, workerCount, totalCounters);
+        double bookingShare = loader.getBookings().getAllBookings().isEmpty() ? 1.0 / workerCount
+                : (double) bookings.getAllBookings().size() / loader.getBookings().getAllBookings().size();
+
+        SimulationWorker worker = new SimulationWorker(index, flights, bookings, counterCount, bookingShare);
+        try (Socket socket = new Socket(args[0], Integer.parseInt(args[1]))) {
+            socket.setTcpNoDelay(true); // Every message is a small request/response on the critical path
+            worker.serve(socket);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Copies one partition of the dataset. Flights are dealt round-robin in flight code order, so each process gets
+     * a similar number; bookings follow their flight, and bookings for unknown flights are spread by hash.
+     *
+     * @param allFlights   Every flight.
+     * @param allBookings  Every booking.
+     * @param index        Partition to copy, from 0.
+     * @param workerCount  Number of partitions.
+     * @param flights      Receives the partition's flights.
+     * @param bookings     Receives the partition's bookings.
+     */
+    public static void partition(AllFlights allFlights, AllBookings allBookings, int index, int workerCount,
+                                 AllFlights flights, AllBookings bookings) {
+        Map<String, Integer> owner = owners(allFlights, workerCount);
+        owner.forEach((code, partition) -> {
+            if (partition == index) flights.addFlight(allFlights.getFlight(code));
+        });
+        allBookings.getAllBookings().values().forEach(booking -> {
+            if (partitionOf(booking, owner, workerCount) == index) bookings.addBooking(booking);
+        });
+    }
+
+    /**
+     * Returns how many of the simulation's counters a partition runs. Every partition gets one; the rest are shared
+     * in proportion to the partitions' bookings, with leftovers going to the largest remainders. Every worker
+     * computes the same split from the same data, so the shares add up to the total.
+     *
+     * @param allFlights    Every flight.
+     * @param allBookings   Every booking.
+     * @param index         Partition, from 0.
+     * @param workerCount   Number of partitions.
+     * @param totalCounters Counters across all partitions.
+     * @return The partition's counters.
+     * @throws IllegalArgumentException If there are fewer counters than partitions.
+     */
+    public static int counterShare(AllFlights allFlights, AllBookings allBookings, int index, int workerCount, int totalCounters) {
+        if (totalCounters < workerCount) {
+            throw new IllegalArgumentException("Need at least one counter per partition, got " + totalCounters + " for " + workerCount);
+        }
+        Map<String, Integer> owner = owners(allFlights, workerCount);
+        long[] bookingCounts = new long[workerCount];
+        allBookings.getAllBookings().values().forEach(booking -> bookingCounts[partitionOf(booking, owner, workerCount)]++);
+        long totalBookings = Arrays.stream(bookingCounts).sum();
+        int spare = totalCounters - workerCount;
+        int[] shares = new int[workerCount];
+        double[] remainders = new double[workerCount];
+        int given = 0;
+        for (int i = 0; i < workerCount; i++) {
+            double quota = totalBookings == 0 ? (double) spare / workerCount : (double) spare * bookingCounts[i] / totalBookings;
+            shares[i] = 1 + (int) quota;
+            remainders[i] = quota - (int) quota;
+            given += (int) quota;
+        }
+        for (; given < spare; given++) {
+            int largest = 0;
+            for (int i = 1; i < workerCount; i++) {
+                if (remainders[i] > remainders[largest]) largest = i;
+            }
+            shares[largest]++;
+            remainders[largest] = -1;
+        }
+        return shares[index];
+    }
+
+    // Deals the flights round-robin in flight code order, so each partition gets a similar number.
+    private static Map<String, Integer> owners(AllFlights allFlights, int workerCount) {
+        Map<String, Integer> owner = new HashMap<>();
+        int position = 0;
+        for (String code : new TreeSet<>(allFlights.getAllFlights().keySet())) {
+            owner.put(code, position++ % workerCount);
+        }
+        return owner;
+    }
+
+    // A booking follows its flight; bookings for unknown flights are spread by hash.
+    private static int partitionOf(BookingDetails booking, Map<String, Integer> owner, int workerCount) {
+        Integer partition = owner.get(booking.getFlightCode());
+        return partition != null ? partition : Math.floorMod(booking.getFlightCode().hashCode(), workerCount);
+    }
+
+    /**
+     * Answers coordinator messages on the given connection until FINISH.
+     *
+     * @param socket Connection to the coordinator.
+     * @throws IOException If the connection fails.
+     */
+    public void serve(Socket socket) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+        out.println("HELLO " + index);
+        out.flush();
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.startsWith("ADVANCE ")) {
+                boolean idle = engine.advanceTo(Integer.parseInt(line.substring("ADVANCE ".length())));
+                out.println("DONE " + engine.getTimer().getCurrentTime() + " " + checkedIn() + " "
+                        + engine.getQueue().queueSize() + " " + (idle ? 1 : 0));
+            } else if (line.equals("FINISH")) {
+                for (ReportAggregate row : engine.getReport().getAllGroups()) {
+                    out.println("GROUP " + row.encode());
+                }
+                out.println("END");
+                out.flush();
+                return;
+            } else {
+                throw new IllegalStateException("Unexpected message from coordinator: " + line);
+            }
+            out.flush();
+        }
+    }
+
+    // Returns the number of passengers checked in across this partition's flights.
+    private int checkedIn() {
+        return engine.getFlights().getAllFlights().values().stream().mapToInt(FlightDetails::getNumberOfPassengers).sum();
+    }
+}
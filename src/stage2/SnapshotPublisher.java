@@ -0,0 +1,192 @@
+package stage2;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Observable;
+import java.util.Observer;
+
+import stage2.SimulationSnapshot.CounterState;
+import stage2.SimulationSnapshot.FlightState;
+import stage2.SimulationSnapshot.PassengerState;
+import stage2.SimulationSnapshot.Table;
+
+/**
+ * Publishes one SimulationSnapshot per tick through a single volatile reference.
+ *
+ * The publisher follows the queue, counters and flights as observers and applies each change to its working
+ * tables as it happens, copying the changed values while the notifying object still holds its lock. On every
+ * timer tick the current tables become the next snapshot, so publishing costs O(changes since the last tick)
+ * and never walks the whole state. Readers call getSnapshot() from any thread, or register as observers to be
+ * handed each snapshot as it is published.
+ *
+ * Register it on the queue, every counter, every flight and the timer.
+ */
+@SuppressWarnings("deprecation")
+public class SnapshotPublisher implements Observer, Subject {
+    private final Timer timer;
+    private final List<Observer> observers = new ArrayList<>();
+    private final Map<BookingDetails, Integer> sequenceOf = new IdentityHashMap<>();
+    private final Map<Counter, Integer> counterIndex = new IdentityHashMap<>();
+    private final Map<String, Integer> flightIndex = new HashMap<>();
+    private Map<String, Integer> publishedFlightIndex;
+    private int nextFlightIndex; // Indexes of released flights are not reused
+    private final Map<Integer, CounterState> changedCounters = new LinkedHashMap<>();
+    private final Map<Integer, FlightState> changedFlights = new LinkedHashMap<>();
+    private Table<PassengerState> queue = Table.empty();
+    private Table<CounterState> counters = Table.empty();
+    private Table<FlightState> flights = Table.empty();
+    private int nextSequence;
+    private int checkedIn;
+    private long version;
+    private volatile SimulationSnapshot current;
+
+    /**
+     * Creates a publisher and publishes a first snapshot of the given counters and flights with an empty queue.
+     *
+     * @param timer    Simulation timer, for the time of each snapshot.
+     * @param counters Check-in counters, in the order snapshots list them.
+     * @param flights  Flights known at the start; flights added later are picked up when they first notify.
+     */
+    public SnapshotPublisher(Timer timer, List<Counter> counters, AllFlights flights) {
+        this.timer = timer;
+        for (Counter counter : counters) {
+            counterIndex.put(counter, counterIndex.size());
+            putCounter(counter);
+        }
+        flights.getAllFlights().values().stream()
+                .sorted((a, b) -> a.getFlightCode().compareTo(b.getFlightCode()))
+                .forEach(this::putFlight);
+        publish();
+    }
+
+    /**
+     * Returns the latest snapshot. Never blocks and never returns null.
+     *
+     * @return The snapshot published on the most recent tick.
+     */
+    public SimulationSnapshot getSnapshot() {
+        return current;
+    }
+
+    /**
+     * Applies a change from the queue, a counter or a flight, or publishes a snapshot when the timer ticks.
+     *
+     * @param o   The Queue for queue changes, otherwise null.
+     * @param arg A BookingDetails that joined, a Queue.Removal, a Counter, a FlightDetails, which is dropped if it has
+     *            been released, or the Timer.
+     */
+    @Override
+    public void update(Observable o, Object arg) {
+        if (arg instanceof Queue.Removal) {
+            dequeue(((Queue.Removal) arg).getBooking());
+        } else if (o instanceof Queue && arg instanceof BookingDetails) {
+            enqueue((BookingDetails) arg);
+        } else if (arg instanceof Counter) {
+            putCounter((Counter) arg);
+        } else if (arg instanceof FlightDetails && ((FlightDetails) arg).isReleased()) {
+            removeFlight((FlightDetails) arg);
+        } else if (arg instanceof FlightDetails) {
+            putFlight((FlightDetails) arg);
+        } else if (arg instanceof Timer) {
+            SimulationSnapshot snapshot = publish();
+            observers.forEach(observer -> SimulationEvents.dispatch(this, observer, null, snapshot));
+        }
+    }
+
+    private synchronized void enqueue(BookingDetails booking) {
+        if (sequenceOf.containsKey(booking)) {
+            return;
+        }
+        int sequence = nextSequence++;
+        sequenceOf.put(booking, sequence);
+        queue = queue.with(sequence, new PassengerState(booking));
+    }
+
+    private synchronized void dequeue(BookingDetails booking) {
+        Integer sequence = sequenceOf.remove(booking);
+        if (sequence != null) {
+            queue = queue.with(sequence, null);
+        }
+    }
+
+    // Records the counter's state. Its own lock is held first, as it is when a counter notifies, so two changes
+    // to the same counter are recorded in the order they happened; the publisher never takes a subject's lock.
+    private void putCounter(Counter counter) {
+        synchronized (counter) {
+            CounterState state = new CounterState(counter);
+            synchronized (this) {
+                Integer index = counterIndex.get(counter);
+                if (index == null) {
+                    return;
+                }
+                counters = counters.with(index, state);
+                changedCounters.put(index, state);
+            }
+        }
+    }
+
+    private void putFlight(FlightDetails flight) {
+        synchronized (flight) {
+            FlightState state = new FlightState(flight);
+            synchronized (this) {
+                Integer index = flightIndex.get(flight.getFlightCode());
+                if (index == null) {
+                    index = nextFlightIndex++;
+                    flightIndex.put(flight.getFlightCode(), index);
+                    publishedFlightIndex = null;
+                }
+                FlightState old = flights.get(index);
+                checkedIn += state.getNumberOfPassengers() - (old == null ? 0 : old.getNumberOfPassengers());
+                flights = flights.with(index, state);
+                changedFlights.put(index, state);
+            }
+        }
+    }
+
+    // Drops a released flight from the tables. Its passengers stay in the checked-in total.
+    private synchronized void removeFlight(FlightDetails flight) {
+        Integer index = flightIndex.remove(flight.getFlightCode());
+        if (index != null) {
+            flights = flights.with(index, null);
+            changedFlights.remove(index);
+            publishedFlightIndex = null;
+        }
+    }
+
+    // Wraps the current tables in a new snapshot and makes it the one readers see.
+    private synchronized SimulationSnapshot publish() {
+        if (publishedFlightIndex == null) {
+            publishedFlightIndex = Collections.unmodifiableMap(new HashMap<>(flightIndex));
+        }
+        int now = timer.getCurrentTime();
+        SimulationSnapshot snapshot = new SimulationSnapshot(version++, now, timer.labelFor(now),
+                queue, counters, flights, publishedFlightIndex, checkedIn,
+                new ArrayList<>(changedCounters.values()), new ArrayList<>(changedFlights.values()));
+        changedCounters.clear();
+        changedFlights.clear();
+        current = snapshot;
+        return snapshot;
+    }
+
+    @Override
+    public void registerObserver(Observer observer) {
+        observers.add(observer);
+    }
+
+    @Override
+    public void removeObserver(Observer observer) {
+        observers.remove(observer);
+    }
+
+    // Hands every observer the latest snapshot again.
+    @Override
+    public void notifyObservers() {
+        SimulationSnapshot snapshot = current;
+        observers.forEach(observer -> SimulationEvents.dispatch(this, observer, null, snapshot));
+    }
+}
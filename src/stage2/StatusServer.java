@@ -0,0 +1,202 @@
+package stage2;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Embedded localhost HTTP server exposing the live simulation state for remote dashboards.
+ * GET /status returns the latest JSON snapshot and GET /events streams snapshots as Server-Sent Events.
+ * With a MemoryMonitor attached, GET /memory returns its latest sample as JSON.
+ *
+ * The SnapshotPublisher only sets a dirty flag when it publishes a tick. A single publisher thread renders
+ * the latest SimulationSnapshot at most once per interval and every viewer is served that shared string, so the
+ * cost on the simulation does not grow with the number of viewers, and each document shows one consistent tick.
+ */
+@SuppressWarnings("deprecation")
+public class StatusServer implements Observer {
+    private final SnapshotPublisher snapshots;
+    private final long publishInterval; // Minimum milliseconds between published snapshots
+    private final HttpServer server;
+    private final ExecutorService viewerPool;
+    private final Object publishLock = new Object();
+    private volatile boolean dirty = true; // Set by simulation threads, cleared by the publisher
+    private volatile boolean running;
+    private String snapshot = "{}"; // Latest published JSON, guarded by publishLock
+    private long version; // Incremented on every publish, guarded by publishLock
+
+    /**
+     * Creates a status server bound to the loopback interface.
+     *
+     * @param port            Local port to listen on, or 0 for any free port.
+     * @param publishInterval Minimum milliseconds between snapshots pushed to viewers.
+     * @param snapshots       Source of the per-tick state snapshots to serve.
+     * @throws IOException If the port cannot be bound.
+     */
+    public StatusServer(int port, long publishInterval, SnapshotPublisher snapshots) throws IOException {
+        this.snapshots = snapshots;
+        this.publishInterval = Math.max(1, publishInterval);
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.viewerPool = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "Status-viewer");
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(viewerPool);
+        server.createContext("/status", this::handleStatus);
+        server.createContext("/events", this::handleEvents);
+    }
+
+    // Serves the monitor's latest sample at /memory.
+    public void attachMemoryMonitor(MemoryMonitor monitor) {
+        server.createContext("/memory", exchange -> {
+            MemoryMonitor.Sample sample = monitor.getLatest();
+            byte[] body = (sample == null ? "{}" : sample.toJson()).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+    }
+
+    // Starts serving requests and the publisher thread.
+    public void start() {
+        running = true;
+        server.start();
+        Thread publisher = new Thread(this::publishLoop, "Status-publisher");
+        publisher.setDaemon(true);
+        publisher.start();
+    }
+
+    // Stops the server and releases waiting viewers.
+    public void stop() {
+        running = false;
+        synchronized (publishLock) {
+            publishLock.notifyAll();
+        }
+        server.stop(0);
+        viewerPool.shutdownNow();
+    }
+
+    // Returns the port the server is listening on.
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Marks the state as changed. Called on the timer thread for every published snapshot, so it only sets a flag.
+     *
+     * @param o   The observable object, if any.
+     * @param arg The snapshot that was published.
+     */
+    @Override
+    public void update(Observable o, Object arg) {
+        dirty = true;
+    }
+
+    // Publishes a new snapshot at most once per interval, and only when something changed.
+    private void publishLoop() {
+        while (running) {
+            if (dirty) {
+                dirty = false;
+                String json = buildSnapshot();
+                synchronized (publishLock) {
+                    snapshot = json;
+                    version++;
+                    publishLock.notifyAll();
+                }
+            }
+            try {
+                Thread.sleep(publishInterval);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    // Serves the latest snapshot as a single JSON document.
+    private void handleStatus(HttpExchange exchange) throws IOException {
+        byte[] body;
+        synchronized (publishLock) {
+            body = snapshot.getBytes(StandardCharsets.UTF_8);
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    // Streams every published snapshot to one viewer until it disconnects.
+    private void handleEvents(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0);
+        long seen = -1;
+        try (OutputStream out = exchange.getResponseBody()) {
+            while (running) {
+                String json;
+                synchronized (publishLock) {
+                    while (running && version == seen) {
+                        publishLock.wait();
+                    }
+                    json = snapshot;
+                    seen = version;
+                }
+                out.write(("data: " + json + "\n\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // Viewer disconnected
+        }
+    }
+
+    // Renders the latest snapshot of the clock, queue, counters and flights as JSON.
+    private String buildSnapshot() {
+        SimulationSnapshot state = snapshots.getSnapshot();
+        StringBuilder json = new StringBuilder();
+        json.append("{\"time\":").append(state.getTime())
+                .append(",\"timeLabel\":\"").append(state.getTimeLabel()).append("\"")
+                .append(",\"queueDepth\":").append(state.getQueueLength());
+        SimulationSnapshot.PassengerState head = state.getQueueHead();
+        if (head != null) {
+            json.append(",\"queueHead\":\"").append(SimulationReport.jsonString(head.getFullName())).append("\"");
+        }
+        json.append(",\"counters\":[");
+        String separator = "";
+        for (SimulationSnapshot.CounterState counter : state.getCounters()) {
+            String serving = counter.getPassengerName();
+            json.append(separator).append("{\"number\":").append(counter.getCounterNumber())
+                    .append(",\"open\":").append(counter.isOpen())
+                    .append(",\"serving\":").append(serving == null ? "null" : "\"" + SimulationReport.jsonString(serving) + "\"")
+                    .append("}");
+            separator = ",";
+        }
+        json.append("],\"flights\":[");
+        separator = "";
+        for (SimulationSnapshot.FlightState flight : state.getFlights()) {
+            json.append(separator).append("{\"code\":\"").append(SimulationReport.jsonString(flight.getFlightCode()))
+                    .append("\",\"passengers\":").append(flight.getNumberOfPassengers())
+                    .append(",\"maxPassengers\":").append(flight.getMaxPassengers())
+                    .append(",\"holdPercent\":").append(flight.getBaggagePercent())
+                    .append(",\"excessFees\":").append(flight.getTotalExcessFees())
+                    .append(",\"gateOpen\":").append(flight.getGateOpen())
+                    .append("}");
+            separator = ",";
+        }
+        return json.append("]}").toString();
+    }
+}
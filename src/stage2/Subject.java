@@ -1,4 +1,4 @@
-package part2;
+package stage2;
 
 import java.util.Observer;
 
@@ -1,4 +1,4 @@
-package part2;
+package stage2;
 
 import java.util.LinkedList;
 import java.util.List;
@@ -9,9 +9,13 @@ import java.util.Observer;
  */
 @SuppressWarnings("deprecation")
 class Timer extends Thread implements Subject {
-    private int currentTime = 0;
-    private boolean isAdjusting = false;
-    private SimTime simulationTime;
+    public static final int MINUTES_PER_DAY = 24 * 60;
+    // One pre-formatted [HH:MM] label for every minute of the first day, shared by all timers.
+    private static final String[] TIME_LABELS = buildTimeLabels(0);
+    // Published by the tick thread; readers take a single volatile read and never block on the monitor.
+    private volatile int currentTime = 0;
+    private volatile DayLabels dayLabels = new DayLabels(0, TIME_LABELS); // Labels of the latest day shown, rebuilt once per day
+    private SimulationTime simulationTime;
     private List<Observer> observers = new LinkedList<>();
 
     /**
@@ -19,7 +23,7 @@ class Timer extends Thread implements Subject {
      *
      * @param simulationTime Object controlling simulation speed and pausing.
      */
-    public Timer(SimTime simulationTime) {
+    public Timer(SimulationTime simulationTime) {
         this.simulationTime = simulationTime;
     }
 
@@ -48,7 +52,7 @@ class Timer extends Thread implements Subject {
      */
     @Override
     public void notifyObservers() {
-        observers.forEach(observer -> observer.update(null, this));
+        observers.forEach(observer -> SimulationEvents.dispatch(this, observer, null, this));
     }
 
     /**
@@ -72,21 +76,35 @@ class Timer extends Thread implements Subject {
     /**
      * Increments the current simulation time and notifies all observers.
      */
-    private synchronized void incrementTime() {
+    private void incrementTime() {
         updateTime(currentTime + 1);
     }
 
     /**
-     * Updates the simulation time and notifies waiting threads.
+     * Publishes the new simulation time, wakes threads waiting on the tick and notifies observers.
+     * The monitor is only held for notifyAll, so observers run without the Timer lock.
      *
      * @param newTime New simulation time.
      */
-    public synchronized void updateTime(int newTime) {
-        isAdjusting = true;
+    public void updateTime(int newTime) {
+        SimulationEvents.TickStart start = new SimulationEvents.TickStart();
+        if (start.shouldCommit()) {
+            start.minute = newTime;
+            start.commit();
+        }
+        SimulationEvents.TickEnd end = new SimulationEvents.TickEnd();
+        end.begin();
         this.currentTime = newTime;
-        isAdjusting = false;
-        notifyAll();
+        synchronized (this) {
+            notifyAll();
+        }
         notifyObservers();
+        end.end();
+        if (end.shouldCommit()) {
+            end.minute = newTime;
+            end.observers = observers.size();
+            end.commit();
+        }
     }
 
     /**
@@ -94,33 +112,72 @@ class Timer extends Thread implements Subject {
      *
      * @return Current simulation time.
      */
-    public synchronized int getCurrentTime() {
-        while (isAdjusting) {
-            try {
-                wait();
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
-        }
+    public int getCurrentTime() {
         return this.currentTime;
     }
 
     /**
-     * Formats and returns the current simulation time as a string in HH:MM format.
+     * Returns the object controlling the speed and pausing of this timer, e.g. for the GUI's controls.
+     *
+     * @return Simulation speed and pause state.
+     */
+    public SimulationTime getSimulationTime() {
+        return this.simulationTime;
+    }
+
+    /**
+     * Returns the current simulation time as a string in [HH:MM] format on the first day,
+     * and [Day N HH:MM] on later days of a multi-day run.
      *
      * @return Formatted time string.
      */
-    public synchronized String getTimeString() {
-        while (isAdjusting) {
-            try {
-                wait();
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
+    public String getTimeString() {
+        return labelFor(this.currentTime);
+    }
+
+    /**
+     * Returns the label of a given minute, so a caller that has read the time once can pair it with its own label.
+     *
+     * @param time Simulation time in minutes.
+     * @return Formatted time string, as getTimeString() would give at that time.
+     */
+    public String labelFor(int time) {
+        int day = time / MINUTES_PER_DAY;
+        if (day == 0) {
+            return TIME_LABELS[time];
+        }
+        DayLabels labels = dayLabels;
+        if (labels.day != day) {
+            labels = new DayLabels(day, buildTimeLabels(day));
+            dayLabels = labels;
+        }
+        return labels.labels[time % MINUTES_PER_DAY];
+    }
+
+    /**
+     * Formats the label for each minute of a day once, so lookups never allocate.
+     *
+     * @param day Day index, 0 for the first day.
+     * @return Labels indexed by minute of the day.
+     */
+    private static String[] buildTimeLabels(int day) {
+        String[] labels = new String[MINUTES_PER_DAY];
+        for (int i = 0; i < MINUTES_PER_DAY; i++) {
+            labels[i] = day == 0 ? String.format("[%02d:%02d]", i / 60, i % 60)
+                    : String.format("[Day %d %02d:%02d]", day + 1, i / 60, i % 60);
+        }
+        return labels;
+    }
+
+    // The labels of one day, swapped in as a unit so readers never pair a day with another day's labels.
+    private static class DayLabels {
+        private final int day;
+        private final String[] labels;
+
+        DayLabels(int day, String[] labels) {
+            this.day = day;
+            this.labels = labels;
         }
-        int minutes = this.currentTime % 60;
-        int hours = this.currentTime / 60 % 24;
-        return String.format("[%02d:%02d]", hours, minutes);
     }
 }
 
@@ -0,0 +1,181 @@
+package stage2;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Forks the live simulation into what-if branches that run headless on a background pool, e.g. to see what opening
+ * counter 3 now would do before the live run gets there.
+ *
+ * A fork copies the clock, every flight's check-in totals, every counter's open state and home lane, and the
+ * passengers waiting in the queue. Passengers still to arrive keep the arrival times already drawn for the live run:
+ * only the rest of the schedule's arrays is copied, and each booking is copied when it arrives in the branch. A
+ * fork therefore costs O(flights + counters + queue) plus two array copies, however many bookings the day has.
+ * The branch then applies its change and runs to the end through SimulationEngine with its log messages dropped.
+ *
+ * Each object is copied under its own lock, which is as consistent as the snapshots are. A fork taken while the
+ * counters are serving may be off by the passengers they serve in that tick.
+ */
+public class WhatIfRunner {
+    private final Timer timer;
+    private final Queue queue;
+    private final List<Counter> counters;
+    private final AllFlights flights;
+    private final ExecutorService pool;
+
+    /**
+     * Creates a runner over the live simulation.
+     *
+     * @param timer    Live timer.
+     * @param queue    Live queue.
+     * @param counters Live counters.
+     * @param flights  Live flights.
+     * @param threads  Branches run at the same time; more wait for a free thread.
+     */
+    public WhatIfRunner(Timer timer, Queue queue, List<Counter> counters, AllFlights flights, int threads) {
+        this.timer = timer;
+        this.queue = queue;
+        this.counters = counters;
+        this.flights = flights;
+        this.pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "What-if");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY); // The live run comes first
+            return thread;
+        });
+    }
+
+    /**
+     * Forks the live state now and runs the branch in the background.
+     *
+     * @param label  Name of the branch in its projection, e.g. "Open desk 3 now".
+     * @param change Applied to the branch before it runs, e.g. branch -> branch.setCounterOpen(3, true).
+     * @return The branch's projection, completed when it has run to the end.
+     */
+    public CompletableFuture<Projection> fork(String label, Consumer<Branch> change) {
+        Branch branch = new Branch();
+        return CompletableFuture.supplyAsync(() -> branch.run(label, change), pool);
+    }
+
+    // Stops the pool once queued branches have run.
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * A forked copy of the live simulation, handed to the change before it runs.
+     */
+    public class Branch {
+        private final int time;
+        private final Timer branchTimer = new Timer(new SimulationTime());
+        private final AllFlights branchFlights = new AllFlights();
+        private final AllBookings branchBookings = new AllBookings();
+        private final Queue branchQueue;
+        private final List<Counter> branchCounters = new ArrayList<>();
+        private final boolean[] open;
+
+        // Copies the live state on the calling thread.
+        private Branch() {
+            this.time = timer.getCurrentTime();
+            branchTimer.updateTime(time);
+            for (FlightDetails flight : flights.getAllFlights().values()) {
+                branchFlights.addFlight(flight.copy());
+            }
+            this.branchQueue = queue.fork(branchTimer, booking -> {
+                BookingDetails copy = booking.copy();
+                branchBookings.addBooking(copy);
+                return copy;
+            });
+            this.open = new boolean[counters.size()];
+            for (int i = 0; i < counters.size(); i++) {
+                Counter counter = counters.get(i);
+                open[i] = counter.getIsOpen();
+                branchCounters.add(new Counter(counter.getCounterNumber(), branchFlights, branchTimer, branchQueue, counter.getHomeLane()));
+            }
+        }
+
+        // Runs on a pool thread: restores the counter states, applies the change and runs to the end.
+        private Projection run(String label, Consumer<Branch> change) {
+            Log.INSTANCE.setMuted(true);
+            try {
+                for (int i = 0; i < open.length; i++) {
+                    if (!open[i]) branchCounters.get(i).toggleCounter();
+                }
+                change.accept(this);
+                SimulationResult result = new SimulationEngine(new SimulationConfig(), branchFlights, branchBookings,
+                        branchTimer, branchQueue, branchCounters).run();
+                return new Projection(label, time, result, branchTimer.labelFor(time + result.getMinutes()));
+            } finally {
+                Log.INSTANCE.setMuted(false);
+            }
+        }
+
+        /**
+         * Opens or closes one of the branch's counters.
+         *
+         * @param number Counter number.
+         * @param isOpen Whether it should be open.
+         * @throws IllegalArgumentException If there is no such counter.
+         */
+        public void setCounterOpen(int number, boolean isOpen) {
+            Counter counter = getCounter(number);
+            if (counter == null) {
+                throw new IllegalArgumentException("No counter " + number + ".");
+            }
+            if (counter.getIsOpen() != isOpen) {
+                counter.toggleCounter();
+            }
+        }
+
+        // Minute the branch was forked at.
+        public int getTime() { return time; }
+        public List<Counter> getCounters() { return Collections.unmodifiableList(branchCounters); }
+        public AllFlights getFlights() { return branchFlights; }
+        public Queue getQueue() { return branchQueue; }
+
+        // Returns the branch's counter with the given number, or null if there is none.
+        public Counter getCounter(int number) {
+            for (Counter counter : branchCounters) {
+                if (counter.getCounterNumber() == number) return counter;
+            }
+            return null;
+        }
+    }
+
+    // What a branch leads to, counted over the passengers who were queuing or still to arrive when it was forked.
+    public static class Projection {
+        private final String label;
+        private final int forkTime;
+        private final SimulationResult result;
+        private final String endLabel;
+
+        Projection(String label, int forkTime, SimulationResult result, String endLabel) {
+            this.label = label;
+            this.forkTime = forkTime;
+            this.result = result;
+            this.endLabel = endLabel;
+        }
+
+        public String getLabel() { return label; }
+        public int getForkTime() { return forkTime; }
+        // Minute the branch ran to.
+        public int getEndTime() { return forkTime + result.getMinutes(); }
+        // The end time as the timer shows it, with the day on later days of a multi-day run.
+        public String getEndLabel() { return endLabel; }
+        public int getMissedFlights() { return result.getMissedFlights(); }
+        // Excess fees across every flight at the end of the branch, including those charged before the fork.
+        public float getExcessFees() { return result.getExcessFees(); }
+        public SimulationResult getResult() { return result; }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d passengers miss their flight, £%.2f excess fees by %s (%.0f ms)", label,
+                    getMissedFlights(), getExcessFees(), endLabel, result.getElapsedNanos() / 1e6);
+        }
+    }
+}